@@ -0,0 +1,125 @@
+-- fact_metric_daily 索引方案对比（MySQL 8.0.18+，需要 EXPLAIN ANALYZE）
+-- 用法：mysql -uroot -p loantrendhub < scripts/bench-fact-indexes.sql > bench.txt
+-- 在同一份合成数据上建两张表：bench_fact_before 为旧索引组合，bench_fact_after 为当前 schema-mysql.sql 的索引组合。
+-- 数据规模：3 年 × 35 网点 × 2 口径 × 18 指标 ≈ 138 万行，RAND(42) 固定种子，结果可重复。
+-- 每条查询对两张表各跑一次 EXPLAIN ANALYZE，比较访问路径（type/key/是否回表）与 actual time；
+-- 末尾两条 INSERT 对比写入一个月新数据的耗时，读 mysql 客户端输出的 "Query OK ... (x sec)"。
+
+SET NAMES utf8mb4;
+SET SESSION cte_max_recursion_depth = 2000;
+
+DROP TABLE IF EXISTS bench_fact_before;
+DROP TABLE IF EXISTS bench_fact_after;
+
+CREATE TABLE bench_fact_before (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    biz_date DATE NOT NULL,
+    scope_id TINYINT UNSIGNED NOT NULL,
+    branch_id INT UNSIGNED NOT NULL,
+    metric_id SMALLINT UNSIGNED NOT NULL,
+    val DECIMAL(20,4) NOT NULL,
+    source_file VARCHAR(255),
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_biz_scope_branch_metric (biz_date, scope_id, branch_id, metric_id),
+    KEY idx_biz_date (biz_date),
+    KEY idx_scope (scope_id),
+    KEY idx_branch (branch_id),
+    KEY idx_metric (metric_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE bench_fact_after (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    biz_date DATE NOT NULL,
+    scope_id TINYINT UNSIGNED NOT NULL,
+    branch_id INT UNSIGNED NOT NULL,
+    metric_id SMALLINT UNSIGNED NOT NULL,
+    val DECIMAL(20,4) NOT NULL,
+    source_file VARCHAR(255),
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_biz_scope_branch_metric (biz_date, scope_id, branch_id, metric_id),
+    KEY idx_scope_metric_branch_date (scope_id, metric_id, branch_id, biz_date, val),
+    KEY idx_scope_date (scope_id, biz_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+INSERT INTO bench_fact_before (biz_date, scope_id, branch_id, metric_id, val, source_file)
+WITH RECURSIVE
+    d(n) AS (SELECT 0 UNION ALL SELECT n + 1 FROM d WHERE n < 1094),
+    b(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM b WHERE n < 35),
+    m(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM m WHERE n < 18),
+    s(n) AS (SELECT 1 UNION ALL SELECT 2)
+SELECT DATE_ADD('2023-01-01', INTERVAL d.n DAY), s.n, b.n, m.n, ROUND(RAND(42) * 100000, 4), 'bench.xlsx'
+FROM d CROSS JOIN s CROSS JOIN b CROSS JOIN m
+ORDER BY d.n, s.n, b.n, m.n;
+
+INSERT INTO bench_fact_after (biz_date, scope_id, branch_id, metric_id, val, source_file)
+SELECT biz_date, scope_id, branch_id, metric_id, val, source_file FROM bench_fact_before ORDER BY id;
+
+ANALYZE TABLE bench_fact_before, bench_fact_after;
+
+-- 预热 buffer pool，避免第一张表吃亏
+SELECT COUNT(*), SUM(val) FROM bench_fact_before;
+SELECT COUNT(*), SUM(val) FROM bench_fact_after;
+
+-- findSeriesByMetric：一个指标、一年、全部网点
+EXPLAIN ANALYZE
+SELECT biz_date, scope_id, branch_id, metric_id, val FROM bench_fact_before
+WHERE scope_id = 1 AND metric_id = 2 AND biz_date BETWEEN '2025-01-01' AND '2025-12-31'
+  AND branch_id IN (1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23,24,25,26,27,28,29,30,31,32,33,34,35)
+ORDER BY biz_date, branch_id;
+EXPLAIN ANALYZE
+SELECT biz_date, scope_id, branch_id, metric_id, val FROM bench_fact_after
+WHERE scope_id = 1 AND metric_id = 2 AND biz_date BETWEEN '2025-01-01' AND '2025-12-31'
+  AND branch_id IN (1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23,24,25,26,27,28,29,30,31,32,33,34,35)
+ORDER BY biz_date, branch_id;
+
+-- findSeriesByBranch：一个网点、三个指标、一年
+EXPLAIN ANALYZE
+SELECT biz_date, scope_id, branch_id, metric_id, val FROM bench_fact_before
+WHERE scope_id = 1 AND branch_id = 7 AND biz_date BETWEEN '2025-01-01' AND '2025-12-31' AND metric_id IN (1, 2, 4)
+ORDER BY biz_date, metric_id;
+EXPLAIN ANALYZE
+SELECT biz_date, scope_id, branch_id, metric_id, val FROM bench_fact_after
+WHERE scope_id = 1 AND branch_id = 7 AND biz_date BETWEEN '2025-01-01' AND '2025-12-31' AND metric_id IN (1, 2, 4)
+ORDER BY biz_date, metric_id;
+
+-- findSeries：单网点单指标
+EXPLAIN ANALYZE
+SELECT biz_date, scope_id, branch_id, metric_id, val FROM bench_fact_before
+WHERE scope_id = 2 AND branch_id = 20 AND metric_id = 5 AND biz_date BETWEEN '2024-01-01' AND '2025-12-31' ORDER BY biz_date;
+EXPLAIN ANALYZE
+SELECT biz_date, scope_id, branch_id, metric_id, val FROM bench_fact_after
+WHERE scope_id = 2 AND branch_id = 20 AND metric_id = 5 AND biz_date BETWEEN '2024-01-01' AND '2025-12-31' ORDER BY biz_date;
+
+-- findHeatmapMatrix 的事实侧：单日、单口径、十个指标
+EXPLAIN ANALYZE
+SELECT branch_id, metric_id, val FROM bench_fact_before
+WHERE biz_date = '2025-06-30' AND scope_id = 1 AND metric_id IN (1,2,3,4,5,6,7,8,9,10);
+EXPLAIN ANALYZE
+SELECT branch_id, metric_id, val FROM bench_fact_after
+WHERE biz_date = '2025-06-30' AND scope_id = 1 AND metric_id IN (1,2,3,4,5,6,7,8,9,10);
+
+-- findDates / dateRangeByScope
+EXPLAIN ANALYZE
+SELECT DISTINCT biz_date FROM bench_fact_before WHERE scope_id = 1 AND biz_date BETWEEN '2025-01-01' AND '2025-12-31' ORDER BY biz_date;
+EXPLAIN ANALYZE
+SELECT DISTINCT biz_date FROM bench_fact_after WHERE scope_id = 1 AND biz_date BETWEEN '2025-01-01' AND '2025-12-31' ORDER BY biz_date;
+EXPLAIN ANALYZE
+SELECT MIN(biz_date), MAX(biz_date) FROM bench_fact_before WHERE scope_id = 2;
+EXPLAIN ANALYZE
+SELECT MIN(biz_date), MAX(biz_date) FROM bench_fact_after WHERE scope_id = 2;
+
+-- 写入：追加一个月（约 3.8 万行）
+INSERT INTO bench_fact_before (biz_date, scope_id, branch_id, metric_id, val, source_file)
+SELECT DATE_ADD(biz_date, INTERVAL 1095 DAY), scope_id, branch_id, metric_id, val, source_file
+FROM bench_fact_before WHERE biz_date BETWEEN '2023-01-01' AND '2023-01-30' ORDER BY id;
+INSERT INTO bench_fact_after (biz_date, scope_id, branch_id, metric_id, val, source_file)
+SELECT DATE_ADD(biz_date, INTERVAL 1095 DAY), scope_id, branch_id, metric_id, val, source_file
+FROM bench_fact_after WHERE biz_date BETWEEN '2023-01-01' AND '2023-01-30' ORDER BY id;
+
+SELECT table_name, index_name, ROUND(stat_value * @@innodb_page_size / 1024 / 1024, 1) AS size_mb
+FROM mysql.innodb_index_stats
+WHERE database_name = DATABASE() AND table_name IN ('bench_fact_before', 'bench_fact_after') AND stat_name = 'size'
+ORDER BY table_name, index_name;
+
+DROP TABLE bench_fact_before;
+DROP TABLE bench_fact_after;
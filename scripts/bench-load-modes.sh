@@ -0,0 +1,70 @@
+#!/usr/bin/env bash
+# UPSERT 与 BULK 两种写入方式在样例报表上的对比
+# 用法：先按 README 启动应用（空库或测试库），然后
+#   BASE_URL=http://127.0.0.1:8080 MYSQL="mysql -h127.0.0.1 -uroot -pxxx loantrendhub" scripts/bench-load-modes.sh [报表目录] > bench.txt
+# 报表目录默认 tmp/（仓库自带 54 份日报）。每种方式跑两轮，每轮前清空事实表与读模型：
+#   cold   —— 空表首次导入，几乎全部为新增行；
+#   reload —— 紧接着 force=true 重导同一批文件，几乎全部为未变化行，比较两种方式的比对开销。
+# 输出每轮的墙钟耗时与作业结果中的 inserted/updated/unchanged 合计；逐文件写入耗时见应用日志 "import summary ... writeMs="。
+# 注意：脚本会清空事实数据，不要对生产库执行。
+set -euo pipefail
+
+BASE_URL="${BASE_URL:-http://127.0.0.1:8080}"
+MYSQL="${MYSQL:-mysql -h127.0.0.1 -uroot -p loantrendhub}"
+DIR="${1:-tmp}"
+ROUNDS="${ROUNDS:-3}"
+
+shopt -s nullglob
+FILES=("$DIR"/*.xlsx "$DIR"/*.xls)
+if [ ${#FILES[@]} -eq 0 ]; then
+  echo "no report files under $DIR" >&2
+  exit 1
+fi
+FORM=()
+for f in "${FILES[@]}"; do
+  FORM+=(-F "files=@$f")
+done
+
+reset_facts() {
+  $MYSQL -e "TRUNCATE fact_metric_daily; TRUNCATE fact_branch_daily; TRUNCATE fact_metric_rollup; TRUNCATE biz_calendar;
+             TRUNCATE fact_metric_derived; TRUNCATE metric_coverage; TRUNCATE scope_date_stat; TRUNCATE scope_branch;
+             TRUNCATE scope_stat; TRUNCATE fact_metric_stage; TRUNCATE import_reject; TRUNCATE ingest_ledger;"
+  curl -s -X POST "$BASE_URL/api/meta/reload" > /dev/null
+}
+
+# 提交一次导入并等待结束，输出 "耗时秒 inserted updated unchanged"
+run_job() {
+  local mode="$1" force="$2" started job body
+  started=$(date +%s.%N)
+  job=$(curl -s "${FORM[@]}" "$BASE_URL/api/upload?mode=$mode&force=$force" | grep -o '"jobId":"[^"]*"' | cut -d'"' -f4)
+  while :; do
+    body=$(curl -s "$BASE_URL/api/job/$job")
+    if echo "$body" | grep -qE '"status":"(SUCCESS|FAILED)"'; then
+      break
+    fi
+    sleep 0.2
+  done
+  if echo "$body" | grep -q '"status":"FAILED"'; then
+    echo "job $job failed: $body" >&2
+    exit 1
+  fi
+  printf '%.2f %d %d %d\n' "$(echo "$(date +%s.%N) - $started" | bc)" \
+    "$(sum_field "$body" inserted)" "$(sum_field "$body" updated)" "$(sum_field "$body" unchanged)"
+}
+
+sum_field() {
+  echo "$1" | grep -o "\"$2\":[0-9]*" | cut -d: -f2 | paste -sd+ - | bc
+}
+
+echo "files=${#FILES[@]} dir=$DIR rounds=$ROUNDS"
+echo "mode   round phase  seconds inserted updated unchanged"
+for round in $(seq 1 "$ROUNDS"); do
+  for mode in UPSERT BULK; do
+    reset_facts
+    read -r secs ins upd unch < <(run_job "$mode" false)
+    printf '%-6s %-5s %-6s %7s %8s %7s %9s\n' "$mode" "$round" cold "$secs" "$ins" "$upd" "$unch"
+    read -r secs ins upd unch < <(run_job "$mode" true)
+    printf '%-6s %-5s %-6s %7s %8s %7s %9s\n' "$mode" "$round" reload "$secs" "$ins" "$upd" "$unch"
+  done
+done
+$MYSQL -e "SELECT COUNT(*) AS fact_rows, SUM(val) AS val_sum FROM fact_metric_daily"
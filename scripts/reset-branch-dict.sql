@@ -3,13 +3,17 @@ SET NAMES utf8mb4;
 START TRANSACTION;
 
 DELETE FROM branch_alias;
-DELETE FROM branch_def;
+-- fact_metric_daily 按 branch_id 引用网点，字典只能停用不能删除，否则 id 重排后事实行失去归属
+UPDATE branch_def SET enabled = 0;
 
 INSERT INTO branch_def(branch, enabled, sort_no) VALUES
                                                      ('营业部',1,1),('界湖',1,2),('大庄',1,3),('张庄',1,4),('依汶',1,5),('马牧池',1,6),('岸堤',1,7),('孙祖',1,8),('双喉',1,9),('青驼',1,10),
                                                      ('砖埠',1,11),('葛沟',1,12),('杨坡',1,13),('蒲汪',1,14),('湖头',1,15),('苏村',1,16),('铜井',1,17),('辛集',1,18),('朱家里庄',1,19),('中高湖',1,20),
                                                      ('岱庄',1,21),('高里',1,22),('河阳',1,23),('大王庄',1,24),('东张哨',1,25),('库沟',1,26),('城区',1,27),('开发区',1,28),('小微贷',1,29),('小微贷-房贷',1,30),
-                                                     ('府前',1,31),('汉街',1,32),('才山',1,33),('公司',1,34),('经营中心',1,35);
+                                                     ('府前',1,31),('汉街',1,32),('才山',1,33),('公司',1,34),('经营中心',1,35)
+ON DUPLICATE KEY UPDATE
+    enabled = VALUES(enabled),
+    sort_no = VALUES(sort_no);
 
 INSERT INTO branch_alias(raw_branch, canon_branch, norm_key, enabled) VALUES
                                                                           ('东张哨','东张哨','东张哨',1),(' 东张哨','东张哨','东张哨',1),('东张哨 ','东张哨','东张哨',1),('东张哨　','东张哨','东张哨',1),('东张哨\r','东张哨','东张哨',1),
@@ -0,0 +1,167 @@
+package com.example.loantrendhub.service;
+
+import com.example.loantrendhub.util.BranchNormalizeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 网点名称规范化与别名解析：当前实现对比改造前的链式 replace/replaceAll 与三段式 Map 查找。
+ * 输入为 35 个标准网点加上日报中常见的脏写法（全角空格、括号、换行、零宽字符、未映射名称），固定种子打乱。
+ * 运行：mvn -Pjmh compile exec:exec -Djmh.args="BranchNormalizeBenchmark -prof gc"，-prof gc 的 gc.alloc.rate.norm 即每次调用分配字节数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BranchNormalizeBenchmark {
+    private static final int INPUTS = 1024;
+    private static final String[] BRANCHES = {
+            "营业部", "界湖", "大庄", "张庄", "依汶", "马牧池", "岸堤", "孙祖", "双喉", "青驼",
+            "砖埠", "葛沟", "杨坡", "蒲汪", "湖头", "苏村", "铜井", "辛集", "朱家里庄", "中高湖",
+            "岱庄", "高里", "河阳", "大王庄", "东张哨", "库沟", "城区", "开发区", "小微贷", "小微贷-房贷",
+            "府前", "汉街", "才山", "公司", "经营中心"
+    };
+
+    private String[] inputs;
+    private Map<String, String> aliasRawMap;
+    private Map<String, String> aliasNormMap;
+    private Set<String> canonicalBranches;
+    private BranchAliasIndex aliasIndex;
+
+    @Setup
+    public void setup() {
+        canonicalBranches = new LinkedHashSet<>(List.of(BRANCHES));
+        aliasRawMap = new HashMap<>();
+        aliasRawMap.put("东 张 哨", "东张哨");
+        aliasRawMap.put("营业部（本部）", "营业部");
+        aliasRawMap.put("小微贷\u2014房贷", "小微贷-房贷");
+        aliasRawMap.put("旧城区", "城区");
+        aliasNormMap = new HashMap<>();
+        aliasNormMap.put("东张哨支行", "东张哨");
+        aliasNormMap.put("营业部本部", "营业部");
+        aliasNormMap.put("小微贷房贷", "小微贷-房贷");
+        aliasNormMap.put("经营中心营业室", "经营中心");
+        aliasIndex = BranchAliasIndex.build(aliasRawMap, aliasNormMap, canonicalBranches, canonicalBranches);
+
+        // 约七成为已规范的标准名，其余为日报里实际出现过的几类脏写法
+        Random random = new Random(42);
+        List<String> list = new ArrayList<>(INPUTS);
+        for (int i = 0; i < INPUTS; i++) {
+            String branch = BRANCHES[random.nextInt(BRANCHES.length)];
+            list.add(switch (random.nextInt(10)) {
+                case 0 -> "\u3000" + branch + " ";
+                case 1 -> branch + "（本部）";
+                case 2 -> branch.charAt(0) + "\n" + branch.substring(1);
+                case 3 -> "\uFEFF" + branch + "\u200B支行";
+                case 4 -> "未登记网点" + random.nextInt(5);
+                default -> branch;
+            });
+        }
+        inputs = list.toArray(new String[0]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void normalizeLegacy(Blackhole bh) {
+        for (String raw : inputs) {
+            bh.consume(legacyNormalize(raw));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void normalizeCurrent(Blackhole bh) {
+        for (String raw : inputs) {
+            bh.consume(BranchNormalizeUtil.normalize(raw));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void resolveLegacy(Blackhole bh) {
+        for (String raw : inputs) {
+            BranchNormalizeUtil.BranchNormalized normalized = legacyNormalize(raw);
+            bh.consume(legacyResolve(raw, normalized.displayCandidate(), normalized.normKey()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INPUTS)
+    public void resolveCurrent(Blackhole bh) {
+        for (String raw : inputs) {
+            bh.consume(aliasIndex.resolve(raw, BranchNormalizeUtil.normalize(raw)));
+        }
+    }
+
+    /** 改造前的 BranchNormalizeUtil.normalize，原样保留作为基线 */
+    private static BranchNormalizeUtil.BranchNormalized legacyNormalize(String raw) {
+        if (raw == null) {
+            return new BranchNormalizeUtil.BranchNormalized("", "");
+        }
+        String display = raw
+                .replace('\u3000', ' ')
+                .replace('\u00A0', ' ')
+                .replace("\uFEFF", "")
+                .replace("\r", " ")
+                .replace("\n", " ")
+                .replace("\t", " ")
+                .replace("\u200B", "")
+                .replace("\u200C", "")
+                .replace("\u200D", "")
+                .replace("\u2060", "")
+                .replace('\u2014', '-')
+                .replace('\u2013', '-')
+                .replaceAll("\\s+", " ")
+                .trim();
+        if (display.isEmpty()) {
+            return new BranchNormalizeUtil.BranchNormalized("", "");
+        }
+        String normKey = display
+                .replaceAll("[\\s\\-()\\uFF08\\uFF09]", "")
+                .trim();
+        return new BranchNormalizeUtil.BranchNormalized(display, normKey);
+    }
+
+    /** 改造前 IngestService.resolveBranch 的三段式查找 */
+    private BranchAliasIndex.Resolution legacyResolve(String rawBranch, String displayBranch, String normKey) {
+        String trimmedRaw = rawBranch == null ? "" : rawBranch.trim();
+        String canonical = aliasRawMap.get(displayBranch);
+        if (canonical == null && !trimmedRaw.isBlank()) {
+            canonical = aliasRawMap.get(trimmedRaw);
+        }
+        if (canonical == null && !normKey.isBlank()) {
+            canonical = aliasNormMap.get(normKey);
+        }
+        if (canonical == null && canonicalBranches.contains(displayBranch)) {
+            canonical = displayBranch;
+        }
+        if (canonical == null) {
+            return new BranchAliasIndex.Resolution(displayBranch, BranchAliasIndex.NO_ALIAS_MAPPING);
+        }
+        if (!canonicalBranches.contains(canonical)) {
+            return new BranchAliasIndex.Resolution(canonical, "branch_not_enabled:" + canonical);
+        }
+        return new BranchAliasIndex.Resolution(canonical, null);
+    }
+}
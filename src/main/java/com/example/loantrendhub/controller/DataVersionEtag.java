@@ -0,0 +1,53 @@
+package com.example.loantrendhub.controller;
+
+import com.example.loantrendhub.service.DataGeneration;
+import com.example.loantrendhub.util.FileHashUtil;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 查询接口的条件 GET：强 ETag 由数据版本号与规范化后的请求路径、参数导出。
+ * 参数按名称排序，逗号列表去空白与空项（顺序决定输出排列，保留）；If-None-Match 命中时直接回 304，不进入 QueryService。
+ */
+@Component
+class DataVersionEtag {
+    private final DataGeneration dataGeneration;
+
+    DataVersionEtag(DataGeneration dataGeneration) {
+        this.dataGeneration = dataGeneration;
+    }
+
+    /**
+     * 未变化时已写好 304 与 ETag，调用方返回 null 即可；否则 ETag 随 200 响应带回。
+     * 版本号在查询之前取，期间有导入发布时 ETag 只会偏旧，下次请求重新计算，不会把新版本号挂在旧数据上。
+     */
+    boolean notModified(WebRequest request) {
+        return request.checkNotModified(etag(request));
+    }
+
+    String etag(WebRequest request) {
+        StringBuilder key = new StringBuilder(request instanceof ServletWebRequest servlet ? servlet.getRequest().getRequestURI() : "");
+        for (Map.Entry<String, String[]> param : new TreeMap<>(request.getParameterMap()).entrySet()) {
+            key.append('&').append(param.getKey()).append('=');
+            boolean first = true;
+            for (String value : param.getValue()) {
+                for (String item : value.split(",")) {
+                    String trimmed = item.trim();
+                    if (trimmed.isEmpty()) {
+                        continue;
+                    }
+                    if (!first) {
+                        key.append(',');
+                    }
+                    key.append(trimmed);
+                    first = false;
+                }
+            }
+        }
+        return "\"" + dataGeneration.current() + "-" + FileHashUtil.sha256Hex(key.toString()).substring(0, 16) + "\"";
+    }
+}
@@ -1,6 +1,9 @@
 package com.example.loantrendhub.controller;
 
+import com.example.loantrendhub.service.DataGeneration;
+import com.example.loantrendhub.service.HeaderLayoutCache;
 import com.example.loantrendhub.service.ImportJobService;
+import com.example.loantrendhub.service.IngestService;
 import org.springframework.http.MediaType;
 
 import org.springframework.web.bind.annotation.*;
@@ -13,18 +16,50 @@ import java.util.Map;
 @RequestMapping("/api")
 public class IngestController {
     private final ImportJobService importJobService;
+    private final HeaderLayoutCache headerLayoutCache;
+    private final IngestService ingestService;
+    private final DataGeneration dataGeneration;
 
-    public IngestController(ImportJobService importJobService) {
+    public IngestController(ImportJobService importJobService, HeaderLayoutCache headerLayoutCache, IngestService ingestService,
+                            DataGeneration dataGeneration) {
         this.importJobService = importJobService;
+        this.headerLayoutCache = headerLayoutCache;
+        this.ingestService = ingestService;
+        this.dataGeneration = dataGeneration;
     }
 
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public Map<String, Object> upload(@RequestPart(name = "files") List<MultipartFile> files) throws Exception {
-        return importJobService.submit(files);
+    public Map<String, Object> upload(@RequestPart(name = "files") List<MultipartFile> files,
+                                      @RequestParam(name = "force", defaultValue = "false") boolean force,
+                                      @RequestParam(name = "mode", required = false) IngestService.LoadMode mode) throws Exception {
+        return importJobService.submit(files, new IngestService.IngestOptions(force, mode));
     }
 
     @GetMapping("/job/{jobId}")
     public Map<String, Object> job(@PathVariable("jobId") String jobId) {
         return importJobService.get(jobId);
     }
+
+    @GetMapping("/ingest/layouts")
+    public List<Map<String, Object>> layouts() {
+        return headerLayoutCache.snapshot();
+    }
+
+    @DeleteMapping("/ingest/layouts")
+    public Map<String, Object> clearLayouts() {
+        return Map.of("cleared", headerLayoutCache.clear());
+    }
+
+    @GetMapping("/ingest/partitions")
+    public List<Map<String, Object>> partitions() {
+        return ingestService.partitions();
+    }
+
+    @PostMapping("/ingest/partitions/{month}/archive")
+    public Map<String, Object> archiveMonth(@PathVariable("month") String month) {
+        Map<String, Object> result = importJobService.archiveMonth(month);
+        // 归档月份移出日表，查询结果随之变化
+        dataGeneration.publish();
+        return result;
+    }
 }
\ No newline at end of file
@@ -1,11 +1,14 @@
 package com.example.loantrendhub.controller;
 
+import com.example.loantrendhub.service.DataGeneration;
 import com.example.loantrendhub.service.QueryService;
 import com.example.loantrendhub.util.TextCleanUtil;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -15,13 +18,20 @@ import java.util.Map;
 @RequestMapping("/api")
 public class MetaController {
     private final QueryService queryService;
+    private final DataGeneration dataGeneration;
+    private final DataVersionEtag etags;
 
-    public MetaController(QueryService queryService) {
+    public MetaController(QueryService queryService, DataGeneration dataGeneration, DataVersionEtag etags) {
         this.queryService = queryService;
+        this.dataGeneration = dataGeneration;
+        this.etags = etags;
     }
 
     @GetMapping("/scopes")
-    public List<Map<String, Object>> scopes() {
+    public List<Map<String, Object>> scopes(WebRequest request) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         Map<String, Object> dateRange = queryService.dateRange();
         String targetDate = String.valueOf(dateRange.getOrDefault("max", ""));
         List<Map<String, Object>> stats = queryService.scopeStats(targetDate);
@@ -44,7 +54,10 @@ public class MetaController {
     }
 
     @GetMapping("/branches")
-    public List<String> branches(@RequestParam(name = "scope", required = false) String scope) {
+    public List<String> branches(@RequestParam(name = "scope", required = false) String scope, WebRequest request) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         return queryService.branches(scope);
     }
 
@@ -54,7 +67,10 @@ public class MetaController {
     }
 
     @GetMapping("/metrics")
-    public List<Map<String, Object>> metrics(@RequestParam(name = "scope", required = false) String scope) {
+    public List<Map<String, Object>> metrics(@RequestParam(name = "scope", required = false) String scope, WebRequest request) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         boolean checkAvailability = scope != null && !scope.isBlank();
         return queryService.metrics().stream()
                 .map(m -> {
@@ -76,7 +92,18 @@ public class MetaController {
     }
 
     @GetMapping("/meta")
-    public Map<String, Object> meta() {
+    public Map<String, Object> meta(WebRequest request) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         return queryService.meta();
     }
+
+    /** 直接改库维护网点、别名、指标定义后调用，重建元数据快照与指标覆盖并发布新的数据版本 */
+    @PostMapping("/meta/reload")
+    public Map<String, Object> reloadMeta() {
+        Map<String, Object> result = queryService.reloadMetadata();
+        dataGeneration.publish();
+        return result;
+    }
 }
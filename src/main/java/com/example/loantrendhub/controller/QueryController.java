@@ -1,7 +1,12 @@
 package com.example.loantrendhub.controller;
 
+import com.example.loantrendhub.model.ColumnarHeatmap;
+import com.example.loantrendhub.model.ColumnarSeries;
+import com.example.loantrendhub.model.Granularity;
 import com.example.loantrendhub.model.HeatmapResponse;
 import com.example.loantrendhub.model.SeriesResponse;
+import com.example.loantrendhub.repo.MetricRollupRepo;
+import com.example.loantrendhub.service.QueryResultCache;
 import com.example.loantrendhub.service.QueryService;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -10,6 +15,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.Arrays;
 import java.util.List;
@@ -19,14 +25,21 @@ import java.util.Map;
 @RequestMapping("/api")
 public class QueryController {
     private final QueryService queryService;
+    private final QueryResultCache resultCache;
+    private final DataVersionEtag etags;
 
-    public QueryController(QueryService queryService) {
+    public QueryController(QueryService queryService, QueryResultCache resultCache, DataVersionEtag etags) {
         this.queryService = queryService;
+        this.resultCache = resultCache;
+        this.etags = etags;
     }
 
     /** 前端初始化：自动带出库内已有数据日期区间 */
     @GetMapping("/dateRange")
-    public Object dateRange(@RequestParam(name = "scope", required = false) String scope) {
+    public Object dateRange(@RequestParam(name = "scope", required = false) String scope, WebRequest request) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         return queryService.dateRangeByScope(scope);
     }
 
@@ -34,17 +47,40 @@ public class QueryController {
     public HeatmapResponse heatmap(
             @RequestParam(name = "scope") String scope,
             @RequestParam(name = "date") String date,
-            @RequestParam(name = "metrics") String metrics
+            @RequestParam(name = "metrics") String metrics,
+            WebRequest request
     ) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         return queryService.heatmap(scope, date, splitCsv(metrics));
     }
 
+    /** v2 列式热力图；fields 取 raw,color,defs,meta 的子集，为空时全部输出 */
+    @GetMapping("/v2/heatmap")
+    public ColumnarHeatmap heatmapV2(
+            @RequestParam(name = "scope") String scope,
+            @RequestParam(name = "date", required = false) String date,
+            @RequestParam(name = "metrics") String metrics,
+            @RequestParam(name = "fields", required = false) String fields,
+            WebRequest request
+    ) {
+        if (etags.notModified(request)) {
+            return null;
+        }
+        return queryService.heatmapColumnar(scope, date, splitCsv(metrics), ColumnarHeatmap.Field.parse(fields));
+    }
+
     @GetMapping("/heatmap/latestDate")
     public Map<String, Object> heatmapLatestDate(
             @RequestParam(name = "scope") String scope,
             @RequestParam(name = "metrics") String metrics,
-            @RequestParam(name = "end", required = false) String end
+            @RequestParam(name = "end", required = false) String end,
+            WebRequest request
     ) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         String latest = queryService.latestHeatmapDate(scope, splitCsv(metrics), end);
         return Map.of(
                 "scope", scope,
@@ -55,6 +91,21 @@ public class QueryController {
                 "hasData", latest != null && !latest.isBlank()
         );
     }
+    /** 运维：逐格比较内存立方体与库表，date 为空时取口径最新日期 */
+    @GetMapping("/cube/verify")
+    public Map<String, Object> verifyCube(
+            @RequestParam(name = "scope", required = false) String scope,
+            @RequestParam(name = "date", required = false) String date
+    ) {
+        return queryService.verifyCube(scope, date);
+    }
+
+    /** 运维：查询结果缓存的条目、占用与命中/未命中/淘汰计数，用于调整 app.query.cache 上限 */
+    @GetMapping("/query/cache")
+    public Map<String, Object> resultCacheStats() {
+        return resultCache.stats();
+    }
+
     /** 正式接口：多网点/多指标趋势 */
     @GetMapping("/trend/multi")
     public SeriesResponse multiTrend(
@@ -64,11 +115,42 @@ public class QueryController {
             @RequestParam(name = "branch", required = false) String branch,
             @RequestParam(name = "metrics", required = false) String metrics,
             @RequestParam(name = "start") String start,
-            @RequestParam(name = "end") String end
+            @RequestParam(name = "end") String end,
+            @RequestParam(name = "granularity", defaultValue = "day") String granularity,
+            @RequestParam(name = "agg", defaultValue = "last") String agg,
+            WebRequest request
     ) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         List<String> branchList = branches == null ? List.of() : splitCsv(branches);
         List<String> metricList = metrics == null ? List.of() : splitCsv(metrics);
-        return queryService.multiTrend(scope, metric, branchList, branch, metricList, start, end);
+        return queryService.multiTrend(scope, metric, branchList, branch, metricList, start, end,
+                Granularity.parse(granularity), MetricRollupRepo.Agg.parse(agg));
+    }
+
+    /** v2 列式趋势，参数同 /trend/multi；fields 取 x,values,warnings,meta 的子集，为空时全部输出 */
+    @GetMapping("/v2/trend/multi")
+    public ColumnarSeries multiTrendV2(
+            @RequestParam(name = "scope") String scope,
+            @RequestParam(name = "metric", required = false) String metric,
+            @RequestParam(name = "branches", required = false) String branches,
+            @RequestParam(name = "branch", required = false) String branch,
+            @RequestParam(name = "metrics", required = false) String metrics,
+            @RequestParam(name = "start") String start,
+            @RequestParam(name = "end") String end,
+            @RequestParam(name = "granularity", defaultValue = "day") String granularity,
+            @RequestParam(name = "agg", defaultValue = "last") String agg,
+            @RequestParam(name = "fields", required = false) String fields,
+            WebRequest request
+    ) {
+        if (etags.notModified(request)) {
+            return null;
+        }
+        List<String> branchList = branches == null ? List.of() : splitCsv(branches);
+        List<String> metricList = metrics == null ? List.of() : splitCsv(metrics);
+        return queryService.multiTrendColumnar(scope, metric, branchList, branch, metricList, start, end,
+                Granularity.parse(granularity), MetricRollupRepo.Agg.parse(agg), ColumnarSeries.Field.parse(fields));
     }
 
     /** ✅ 兼容旧前端写错的路径：/api/trendMulti */
@@ -78,10 +160,17 @@ public class QueryController {
             @RequestParam(name = "metric") String metric,
             @RequestParam(name = "branches", required = false) String branches,
             @RequestParam(name = "start") String start,
-            @RequestParam(name = "end") String end
+            @RequestParam(name = "end") String end,
+            @RequestParam(name = "granularity", defaultValue = "day") String granularity,
+            @RequestParam(name = "agg", defaultValue = "last") String agg,
+            WebRequest request
     ) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         List<String> branchList = branches == null ? List.of() : splitCsv(branches);
-        return queryService.multiTrend(scope, metric, branchList, null, List.of(), start, end);
+        return queryService.multiTrend(scope, metric, branchList, null, List.of(), start, end,
+                Granularity.parse(granularity), MetricRollupRepo.Agg.parse(agg));
     }
 
     /** ✅ 增长率（前端口径：deltaMetric/baseMetric + branches） */
@@ -92,10 +181,39 @@ public class QueryController {
             @RequestParam(name = "baseMetric") String baseMetric,
             @RequestParam(name = "start") String start,
             @RequestParam(name = "end") String end,
-            @RequestParam(name = "branches", required = false) String branches
+            @RequestParam(name = "branches", required = false) String branches,
+            @RequestParam(name = "granularity", defaultValue = "day") String granularity,
+            @RequestParam(name = "agg", defaultValue = "last") String agg,
+            WebRequest request
+    ) {
+        if (etags.notModified(request)) {
+            return null;
+        }
+        List<String> branchList = branches == null ? List.of() : splitCsv(branches);
+        return queryService.growthSeries(scope, deltaMetric, baseMetric, branchList, start, end,
+                Granularity.parse(granularity), MetricRollupRepo.Agg.parse(agg));
+    }
+
+    /** v2 列式增长率，参数同 /growth */
+    @GetMapping("/v2/growth")
+    public ColumnarSeries growthV2(
+            @RequestParam(name = "scope") String scope,
+            @RequestParam(name = "deltaMetric") String deltaMetric,
+            @RequestParam(name = "baseMetric") String baseMetric,
+            @RequestParam(name = "start") String start,
+            @RequestParam(name = "end") String end,
+            @RequestParam(name = "branches", required = false) String branches,
+            @RequestParam(name = "granularity", defaultValue = "day") String granularity,
+            @RequestParam(name = "agg", defaultValue = "last") String agg,
+            @RequestParam(name = "fields", required = false) String fields,
+            WebRequest request
     ) {
+        if (etags.notModified(request)) {
+            return null;
+        }
         List<String> branchList = branches == null ? List.of() : splitCsv(branches);
-        return queryService.growthSeries(scope, deltaMetric, baseMetric, branchList, start, end);
+        return queryService.growthSeriesColumnar(scope, deltaMetric, baseMetric, branchList, start, end,
+                Granularity.parse(granularity), MetricRollupRepo.Agg.parse(agg), ColumnarSeries.Field.parse(fields));
     }
 
     @GetMapping("/report/export")
@@ -0,0 +1,39 @@
+package com.example.loantrendhub.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * v2 热力图：metrics 为 x 轴、branches 为 y 轴字典，raw/color 按网点逐行展开为扁平数组，
+ * 下标 = 网点下标 × metrics.size() + 指标下标，缺值为 null；不再逐格重复网点名与指标名。
+ * 未通过 fields 请求的部分为 null，不输出。
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ColumnarHeatmap(
+        String date,
+        String scope,
+        List<String> metrics,
+        List<String> branches,
+        @JsonSerialize(using = NullableDoublesSerializer.class) double[] raw,
+        @JsonSerialize(using = NullableDoublesSerializer.class) double[] color,
+        List<String> metricNames,
+        List<String> metricUnits,
+        HeatmapResponse.Meta meta
+) {
+    /** 可选输出部分；date/scope/metrics/branches 总是输出 */
+    public enum Field {
+        RAW,
+        COLOR,
+        /** metricNames + metricUnits，与 metrics 下标对齐 */
+        DEFS,
+        META;
+
+        /** 逗号分隔，空为全部 */
+        public static Set<Field> parse(String raw) {
+            return FieldSelection.parse(Field.class, raw, "raw|color|defs|meta");
+        }
+    }
+}
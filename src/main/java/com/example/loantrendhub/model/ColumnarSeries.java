@@ -0,0 +1,59 @@
+package com.example.loantrendhub.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * v2 趋势：names 为序列字典，values 按序列逐条展开为扁平数组，
+ * 下标 = 序列下标 × x.size() + 横轴下标，缺值为 null。
+ * 未通过 fields 请求的部分为 null，不输出。
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ColumnarSeries(
+        String title,
+        String unit,
+        List<String> x,
+        List<String> names,
+        @JsonSerialize(using = NullableDoublesSerializer.class) double[] values,
+        List<String> warnings,
+        SeriesResponse.Meta meta
+) {
+    /** 可选输出部分；title/unit/names 总是输出 */
+    public enum Field {
+        X,
+        VALUES,
+        WARNINGS,
+        META;
+
+        /** 逗号分隔，空为全部 */
+        public static Set<Field> parse(String raw) {
+            return FieldSelection.parse(Field.class, raw, "x|values|warnings|meta");
+        }
+    }
+
+    public static ColumnarSeries of(SeriesResponse response, Set<Field> fields) {
+        List<String> names = new ArrayList<>(response.series().size());
+        int width = response.x().size();
+        double[] values = fields.contains(Field.VALUES) ? new double[response.series().size() * width] : null;
+        for (int i = 0; i < response.series().size(); i++) {
+            SeriesResponse.Series series = response.series().get(i);
+            names.add(series.name());
+            if (values != null) {
+                System.arraycopy(series.y(), 0, values, i * width, width);
+            }
+        }
+        return new ColumnarSeries(
+                response.title(),
+                response.unit(),
+                fields.contains(Field.X) ? response.x() : null,
+                names,
+                values,
+                fields.contains(Field.WARNINGS) ? response.warnings() : null,
+                fields.contains(Field.META) ? response.meta() : null
+        );
+    }
+}
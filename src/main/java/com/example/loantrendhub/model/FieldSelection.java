@@ -0,0 +1,30 @@
+package com.example.loantrendhub.model;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/** v2 接口 fields 参数的解析，ColumnarHeatmap 与 ColumnarSeries 共用 */
+final class FieldSelection {
+    private FieldSelection() {
+    }
+
+    /** 逗号分隔、不区分大小写，空为全部；allowed 为报错时列出的可选值，如 raw|color|defs|meta */
+    static <E extends Enum<E>> Set<E> parse(Class<E> type, String raw, String allowed) {
+        if (raw == null || raw.isBlank()) {
+            return EnumSet.allOf(type);
+        }
+        Set<E> fields = EnumSet.noneOf(type);
+        for (String part : raw.split(",")) {
+            if (part.isBlank()) {
+                continue;
+            }
+            try {
+                fields.add(Enum.valueOf(type, part.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("fields 只支持 " + allowed + "：" + part.trim());
+            }
+        }
+        return fields;
+    }
+}
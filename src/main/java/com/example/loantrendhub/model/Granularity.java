@@ -0,0 +1,59 @@
+package com.example.loantrendhub.model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.IsoFields;
+import java.util.Locale;
+
+/** 趋势查询的时间粒度；DAY 读日表，其余读 fact_metric_rollup 中对应的汇总 */
+public enum Granularity {
+    DAY,
+    WEEK,
+    MONTH,
+    QUARTER,
+    YEAR;
+
+    public static Granularity parse(String raw) {
+        if (raw == null || raw.isBlank()) {
+            return DAY;
+        }
+        try {
+            return valueOf(raw.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("granularity 只支持 day|week|month|quarter|year：" + raw);
+        }
+    }
+
+    /** 包含该日期的周期首日；周从周一开始 */
+    public LocalDate periodStart(LocalDate date) {
+        return switch (this) {
+            case DAY -> date;
+            case WEEK -> date.with(DayOfWeek.MONDAY);
+            case MONTH -> date.withDayOfMonth(1);
+            case QUARTER -> date.withDayOfMonth(1).withMonth((date.getMonthValue() - 1) / 3 * 3 + 1);
+            case YEAR -> date.withDayOfYear(1);
+        };
+    }
+
+    public LocalDate nextPeriodStart(LocalDate periodStart) {
+        return switch (this) {
+            case DAY -> periodStart.plusDays(1);
+            case WEEK -> periodStart.plusWeeks(1);
+            case MONTH -> periodStart.plusMonths(1);
+            case QUARTER -> periodStart.plusMonths(3);
+            case YEAR -> periodStart.plusYears(1);
+        };
+    }
+
+    /** 横轴标签，按字符串排序即按时间排序 */
+    public String label(LocalDate periodStart) {
+        return switch (this) {
+            case DAY -> periodStart.toString();
+            case WEEK -> String.format("%d-W%02d",
+                    periodStart.get(IsoFields.WEEK_BASED_YEAR), periodStart.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+            case MONTH -> String.format("%d-%02d", periodStart.getYear(), periodStart.getMonthValue());
+            case QUARTER -> periodStart.getYear() + "-Q" + ((periodStart.getMonthValue() - 1) / 3 + 1);
+            case YEAR -> String.valueOf(periodStart.getYear());
+        };
+    }
+}
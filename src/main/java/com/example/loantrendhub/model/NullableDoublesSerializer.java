@@ -0,0 +1,27 @@
+package com.example.loantrendhub.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/** double[] 逐个写出，NaN/无穷写 null；与按 Double 列表（缺值为 null）序列化的 JSON 相同 */
+public class NullableDoublesSerializer extends StdSerializer<double[]> {
+    public NullableDoublesSerializer() {
+        super(double[].class);
+    }
+
+    @Override
+    public void serialize(double[] values, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartArray(values, values.length);
+        for (double v : values) {
+            if (Double.isFinite(v)) {
+                gen.writeNumber(v);
+            } else {
+                gen.writeNull();
+            }
+        }
+        gen.writeEndArray();
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.loantrendhub.model;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import java.util.List;
 
 /** 与前端 index.html 对齐：title/unit/x/series(name+y) */
@@ -18,7 +20,8 @@ public record SeriesResponse(
         this(title, unit, x, series, List.of(), Meta.none(series == null ? 0 : series.size()));
     }
 
-    public record Series(String name, List<Double> y) {
+    /** y 与 x 等长，缺值为 NaN，输出为 null */
+    public record Series(String name, @JsonSerialize(using = NullableDoublesSerializer.class) double[] y) {
     }
 
     public record Meta(int requestedBranches,
@@ -0,0 +1,205 @@
+package com.example.loantrendhub.repo;
+
+import com.example.loantrendhub.util.DateUtil;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * biz_calendar：每个口径已加载的业务日期及其上一业务日期。
+ * 导入提交后由 ReadModelMaintainer 逐日维护，新日期只重算它之后的行。
+ * 查询走内存索引：每个口径一个有序日期数组加日期→下标的映射，区间取日期为二分，基期查找为 O(1)；
+ * 事务提交后失效，下次读取时整体重载（全表只有日期数 × 口径数行）。
+ */
+@Repository
+public class BizCalendarRepo {
+    /** 参数：口径、起始日期；只覆盖起始日期及之后的行 */
+    private static final String RECOMPUTE_SQL = """
+            INSERT INTO biz_calendar (scope_id, biz_date, prev_date)
+            SELECT t.scope_id, t.biz_date, t.prev_date
+            FROM (
+                SELECT scope_id, biz_date, LAG(biz_date) OVER (ORDER BY biz_date) AS prev_date
+                FROM biz_calendar WHERE scope_id = ?
+            ) t
+            WHERE t.biz_date >= ?
+            ON DUPLICATE KEY UPDATE prev_date = VALUES(prev_date)
+            """;
+
+    private static final String MIN_DATE = "1000-01-01";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FactKeyDictionary dictionary;
+    /** null 表示需要重载 */
+    private volatile Map<Integer, ScopeCalendar> snapshot;
+    /** 每次失效加一；重载期间发生失效时不采用重载结果，避免把旧数据留在缓存里 */
+    private final AtomicLong generation = new AtomicLong();
+
+    public BizCalendarRepo(JdbcTemplate jdbcTemplate, FactKeyDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    /** 由 ReadModelMaintainer 在派生指标之前调用：登记该业务日期，并重算各口径中它之后的日历行 */
+    public void refreshFrom(String bizDate) {
+        List<Integer> added = jdbcTemplate.queryForList("""
+                SELECT DISTINCT f.scope_id FROM fact_metric_daily f
+                WHERE f.biz_date = ?
+                  AND NOT EXISTS (SELECT 1 FROM biz_calendar c WHERE c.scope_id = f.scope_id AND c.biz_date = f.biz_date)
+                """, Integer.class, bizDate);
+        if (added.isEmpty()) {
+            // 重复导入已有日期：日期集合没变，日历无需重算
+            return;
+        }
+        for (Integer scopeId : added) {
+            jdbcTemplate.update("INSERT IGNORE INTO biz_calendar (scope_id, biz_date) VALUES (?, ?)", scopeId, bizDate);
+            jdbcTemplate.update(RECOMPUTE_SQL, scopeId, bizDate);
+        }
+        invalidateAfterCommit();
+    }
+
+    /** 归档后该月已不再是已加载日期：删掉并重算之后的行 */
+    public void removeMonth(YearMonth month) {
+        String from = month.atDay(1).toString();
+        String to = month.plusMonths(1).atDay(1).toString();
+        List<Integer> scopeIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT scope_id FROM biz_calendar WHERE biz_date >= ? AND biz_date < ?", Integer.class, from, to);
+        jdbcTemplate.update("DELETE FROM biz_calendar WHERE biz_date >= ? AND biz_date < ?", from, to);
+        for (Integer scopeId : scopeIds) {
+            jdbcTemplate.update(RECOMPUTE_SQL, scopeId, from);
+        }
+        invalidateAfterCommit();
+    }
+
+    /** 全量回填，FactSchemaMigration 在日历为空时执行，须先于派生指标回填 */
+    static void rebuildAll(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update("INSERT IGNORE INTO biz_calendar (scope_id, biz_date) SELECT DISTINCT scope_id, biz_date FROM fact_metric_daily");
+        for (Integer scopeId : jdbcTemplate.queryForList("SELECT DISTINCT scope_id FROM biz_calendar", Integer.class)) {
+            jdbcTemplate.update(RECOMPUTE_SQL, scopeId, MIN_DATE);
+        }
+    }
+
+    /** [start, end] 内的业务日期，升序；口径为空时为各口径的并集。返回只读视图 */
+    public List<String> findDates(String scope, String start, String end) {
+        start = normalize(start);
+        end = normalize(end);
+        if (start == null || end == null) {
+            return List.of();
+        }
+        String from = start;
+        String to = end;
+        if (scope == null || scope.isBlank()) {
+            return current().values().stream()
+                    .flatMap(c -> c.between(from, to).stream())
+                    .distinct()
+                    .sorted()
+                    .toList();
+        }
+        ScopeCalendar calendar = current().get(dictionary.scopeId(scope));
+        return calendar == null ? List.of() : calendar.between(from, to);
+    }
+
+    /** 业务日期的基期；不是已加载日期时返回 null */
+    public CalendarDay day(String scope, String bizDate) {
+        ScopeCalendar calendar = current().get(dictionary.scopeId(scope));
+        return calendar == null ? null : calendar.days.get(bizDate);
+    }
+
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    private void invalidateAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                invalidate();
+            }
+        });
+    }
+
+    /** 请求参数可能是 2026.02.25 之类的写法，统一成 yyyy-MM-dd 才能按字符串比较 */
+    private static String normalize(String date) {
+        if (date == null || date.isBlank()) {
+            return null;
+        }
+        String normalized = DateUtil.normalizeDate(date);
+        return normalized == null ? date.trim() : normalized;
+    }
+
+    private Map<Integer, ScopeCalendar> current() {
+        Map<Integer, ScopeCalendar> current = snapshot;
+        if (current == null) {
+            long loadedAt = generation.get();
+            current = load();
+            synchronized (this) {
+                if (generation.get() == loadedAt) {
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Map<Integer, ScopeCalendar> load() {
+        Map<Integer, List<CalendarDay>> byScope = new HashMap<>();
+        jdbcTemplate.query(
+                "SELECT scope_id, biz_date, prev_date FROM biz_calendar ORDER BY scope_id, biz_date",
+                rs -> {
+                    byScope.computeIfAbsent(rs.getInt(1), k -> new ArrayList<>())
+                            .add(new CalendarDay(rs.getString(2), rs.getString(3)));
+                }
+        );
+        Map<Integer, ScopeCalendar> loaded = new HashMap<>();
+        byScope.forEach((scopeId, days) -> loaded.put(scopeId, new ScopeCalendar(days)));
+        return loaded;
+    }
+
+    /** prevDate 在口径内第一天为 null */
+    public record CalendarDay(String bizDate, String prevDate) {
+    }
+
+    private static final class ScopeCalendar {
+        /** yyyy-MM-dd 字符串的字典序即日期序，可直接二分 */
+        private final String[] dates;
+        private final Map<String, CalendarDay> days;
+
+        ScopeCalendar(List<CalendarDay> ordered) {
+            this.dates = new String[ordered.size()];
+            this.days = new HashMap<>(ordered.size() * 2);
+            for (int i = 0; i < ordered.size(); i++) {
+                CalendarDay day = ordered.get(i);
+                dates[i] = day.bizDate();
+                days.put(day.bizDate(), day);
+            }
+        }
+
+        List<String> between(String start, String end) {
+            int from = lowerBound(start);
+            int to = lowerBound(end);
+            if (to < dates.length && dates[to].equals(end)) {
+                to++;
+            }
+            return from >= to ? List.of() : Collections.unmodifiableList(Arrays.asList(dates).subList(from, to));
+        }
+
+        private int lowerBound(String key) {
+            int i = Arrays.binarySearch(dates, key);
+            return i >= 0 ? i : -i - 1;
+        }
+    }
+}
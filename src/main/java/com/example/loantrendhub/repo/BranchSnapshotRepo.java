@@ -0,0 +1,154 @@
+package com.example.loantrendhub.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * fact_branch_daily 宽表：一行即一个网点一天的全部导入指标。
+ * 一次热力图只读 35 行（窄表是 35 × 指标数行），趋势查询按 (scope_id, branch_id, biz_date) 顺序读取。
+ * 列名即指标代码小写，只覆盖导入会写入的 {@link #METRICS}；其余指标仍由 FactRepo 读窄表。
+ */
+@Repository
+public class BranchSnapshotRepo {
+    public static final List<String> METRICS = List.of(
+            "CNT_TOTAL", "BAL_TOTAL",
+            "DOD_CNT", "DOD_BAL",
+            "MOM_CNT", "MOM_BAL",
+            "BOY_CNT", "BOY_BAL",
+            "Y2M_CNT", "Y2M_BAL",
+            "GR_CNT", "GR_BAL"
+    );
+
+    /** 从窄表按 (biz_date, scope_id, branch_id) 透视，条件由调用方拼接 */
+    private static final String PIVOT_SELECT = "SELECT f.biz_date, f.scope_id, f.branch_id, "
+            + METRICS.stream()
+                    .map(metric -> "MAX(CASE WHEN m.metric = '" + metric + "' THEN f.val END)")
+                    .collect(Collectors.joining(", "))
+            + " FROM fact_metric_daily f JOIN metric_def m ON m.metric_id = f.metric_id ";
+
+    private static final String UPSERT_PREFIX = "INSERT INTO fact_branch_daily (biz_date, scope_id, branch_id, "
+            + METRICS.stream().map(BranchSnapshotRepo::column).collect(Collectors.joining(", "))
+            + ") ";
+
+    private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE "
+            + METRICS.stream()
+                    .map(BranchSnapshotRepo::column)
+                    .map(c -> c + " = VALUES(" + c + ")")
+                    .collect(Collectors.joining(", "));
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FactKeyDictionary dictionary;
+
+    public BranchSnapshotRepo(JdbcTemplate jdbcTemplate, FactKeyDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    public static boolean covers(String metric) {
+        return metric != null && METRICS.contains(metric);
+    }
+
+    /** 由 ReadModelMaintainer 调用：该业务日期的窄表已提交，整日重新透视 */
+    public int refreshDate(String bizDate) {
+        return jdbcTemplate.update(
+                UPSERT_PREFIX + PIVOT_SELECT + "WHERE f.biz_date = ? GROUP BY f.biz_date, f.scope_id, f.branch_id" + UPSERT_SUFFIX,
+                bizDate
+        );
+    }
+
+    /** 从窄表全量回填，FactSchemaMigration 在宽表为空时执行 */
+    static String rebuildAllSql() {
+        return UPSERT_PREFIX + PIVOT_SELECT + "GROUP BY f.biz_date, f.scope_id, f.branch_id" + UPSERT_SUFFIX;
+    }
+
+    /** 与 FactRepo.findHeatmapMatrix 输出一致：启用网点 × 指标，按 sort_no 排序，缺值为 null */
+    public List<FactRepo.HeatmapCell> findHeatmapMatrix(String date, String scope, List<String> metrics) {
+        if (date == null || date.isBlank() || scope == null || scope.isBlank() || metrics == null || metrics.isEmpty()) {
+            return List.of();
+        }
+        String columns = metrics.stream()
+                .map(metric -> "s." + column(metric))
+                .collect(Collectors.joining(", "));
+        String sql = "SELECT b.branch, " + columns + " FROM branch_def b "
+                + "LEFT JOIN fact_branch_daily s ON s.scope_id = ? AND s.biz_date = ? AND s.branch_id = b.branch_id "
+                + "WHERE b.enabled = 1 ORDER BY b.sort_no, b.branch";
+        return jdbcTemplate.query(sql, rs -> {
+            List<FactRepo.HeatmapCell> cells = new ArrayList<>();
+            while (rs.next()) {
+                String branch = rs.getString(1);
+                for (int i = 0; i < metrics.size(); i++) {
+                    cells.add(new FactRepo.HeatmapCell(branch, metrics.get(i), toDouble(rs.getBigDecimal(i + 2))));
+                }
+            }
+            return cells;
+        }, dictionary.scopeId(scope), date);
+    }
+
+    /** 同一指标多网点：直接写入 grid 中以网点为键的序列 */
+    public void fillSeriesByMetric(SeriesGrid grid, String scope, String metric, List<String> branches, String start, String end) {
+        if (scope == null || scope.isBlank() || !covers(metric) || branches == null || branches.isEmpty()) {
+            return;
+        }
+        String column = column(metric);
+        List<Object> args = new ArrayList<>();
+        args.add(dictionary.scopeId(scope));
+        args.add(start);
+        args.add(end);
+        for (String branch : branches) {
+            args.add(dictionary.branchId(branch));
+        }
+        String sql = "SELECT biz_date, branch_id, " + column + " FROM fact_branch_daily "
+                + "WHERE scope_id = ? AND biz_date BETWEEN ? AND ? "
+                + "AND branch_id IN (" + String.join(",", Collections.nCopies(branches.size(), "?")) + ") "
+                + "AND " + column + " IS NOT NULL ORDER BY biz_date, branch_id";
+        jdbcTemplate.query(sql, grid.keyedExtractor(grid.seriesById(branches, dictionary::branchId)), args.toArray());
+    }
+
+    /** 同一网点多指标：宽表一行的各列直接写入 grid 中对应指标的序列，未覆盖的指标不读 */
+    public void fillSeriesByBranch(SeriesGrid grid, String scope, String branch, List<String> metrics, String start, String end) {
+        List<String> covered = metrics == null ? List.of() : metrics.stream().filter(BranchSnapshotRepo::covers).toList();
+        if (scope == null || scope.isBlank() || covered.isEmpty()) {
+            return;
+        }
+        int[] seriesOf = new int[covered.size()];
+        for (int i = 0; i < seriesOf.length; i++) {
+            seriesOf[i] = grid.indexOf(covered.get(i));
+        }
+        String columns = covered.stream().map(BranchSnapshotRepo::column).collect(Collectors.joining(", "));
+        String sql = "SELECT biz_date, " + columns + " FROM fact_branch_daily "
+                + "WHERE scope_id = ? AND branch_id = ? AND biz_date BETWEEN ? AND ? ORDER BY biz_date";
+        jdbcTemplate.query(sql, rs -> {
+            while (rs.next()) {
+                int column = grid.column(SeriesGrid.epochDay(rs, 1));
+                if (column < 0) {
+                    continue;
+                }
+                for (int i = 0; i < seriesOf.length; i++) {
+                    double val = rs.getDouble(i + 2);
+                    if (!rs.wasNull() && seriesOf[i] >= 0) {
+                        grid.series(seriesOf[i])[column] = val;
+                    }
+                }
+            }
+            return grid;
+        }, dictionary.scopeId(scope), dictionary.branchId(branch), start, end);
+    }
+
+    private static String column(String metric) {
+        if (!covers(metric)) {
+            throw new IllegalArgumentException("metric not in branch snapshot: " + metric);
+        }
+        return metric.toLowerCase(Locale.ROOT);
+    }
+
+    private static Double toDouble(BigDecimal val) {
+        return val == null ? null : val.doubleValue();
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.loantrendhub.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * fact_metric_derived：metric_def 中 kind 为 DELTA/RATE 的指标由基础指标推算后落库，查询只读不算。
+ * 口径：上一期为本口径有数的前一个业务日期；DELTA = 本期 - 上期，RATE = (本期 - 上期) / 上期 × 100，
+ * 名称含 MTD/YTD 的 RATE 以本月/本年第一个有值日期为基期；上期缺值或为 0 时不产出。
+ * 导入某日 D 后只有以下日期的输入会变：D；D 之后的第一个业务日期（上期变成了 D）；
+ * MTD 为 D 所在月内 D 之后的日期，YTD 为 D 所在年内 D 之后的日期。按顺序到达的文件只算 D 一天。
+ */
+@Repository
+public class DerivedMetricRepo {
+    /** 派生指标及其基础指标、计算方式 */
+    private static final String DEFS_SELECT = """
+            SELECT m.metric_id, b.metric_id AS base_id,
+                   CASE WHEN m.kind = 'DELTA' THEN 'DELTA'
+                        WHEN UPPER(m.metric) LIKE '%MTD%' THEN 'MTD'
+                        WHEN UPPER(m.metric) LIKE '%YTD%' THEN 'YTD'
+                        ELSE 'RATE' END AS calc
+            FROM metric_def m JOIN metric_def b ON b.metric = m.base_metric
+            WHERE m.kind IN ('DELTA', 'RATE')
+            """;
+
+    /** 每种计算方式的重算上界：参数依次为 MTD、YTD、其余 */
+    private static final String AFFECTED_END = "CASE d.calc WHEN 'MTD' THEN ? WHEN 'YTD' THEN ? ELSE ? END";
+
+    /**
+     * 参数：口径、加载区间 [?, ?]（日历）、口径、加载区间 [?, ?]（基础值）、口径、重算起点、三个重算上界。
+     * 上一期取 biz_calendar.prev_date，须在 BizCalendarRepo.refreshFrom 之后执行。
+     * 加载区间需从 D 的上一期与 D 所在年初中较早者开始，才能取到上期与月初/年初基期。
+     */
+    private static final String DERIVE_SQL = """
+            INSERT INTO fact_metric_derived (scope_id, metric_id, branch_id, biz_date, val)
+            WITH defs AS (
+            """ + DEFS_SELECT + """
+            ),
+            days AS (
+                SELECT biz_date, prev_date FROM biz_calendar WHERE scope_id = ? AND biz_date BETWEEN ? AND ?
+            ),
+            base AS (
+                SELECT f.branch_id, f.metric_id, f.biz_date, f.val,
+                       FIRST_VALUE(f.val) OVER (PARTITION BY f.branch_id, f.metric_id, YEAR(f.biz_date), MONTH(f.biz_date) ORDER BY f.biz_date) AS mtd_base,
+                       FIRST_VALUE(f.val) OVER (PARTITION BY f.branch_id, f.metric_id, YEAR(f.biz_date) ORDER BY f.biz_date) AS ytd_base
+                FROM fact_metric_daily f
+                WHERE f.scope_id = ? AND f.biz_date BETWEEN ? AND ?
+                  AND f.metric_id IN (SELECT base_id FROM defs)
+            )
+            SELECT ?, d.metric_id, c.branch_id, c.biz_date,
+                   CASE d.calc
+                       WHEN 'DELTA' THEN c.val - p.val
+                       WHEN 'MTD' THEN (c.val - c.mtd_base) / c.mtd_base * 100
+                       WHEN 'YTD' THEN (c.val - c.ytd_base) / c.ytd_base * 100
+                       ELSE (c.val - p.val) / p.val * 100 END
+            FROM defs d
+            JOIN base c ON c.metric_id = d.base_id
+            JOIN days s ON s.biz_date = c.biz_date
+            JOIN base p ON p.branch_id = c.branch_id AND p.metric_id = c.metric_id AND p.biz_date = s.prev_date
+            WHERE c.biz_date >= ? AND c.biz_date <=
+            """ + AFFECTED_END + """
+
+              AND (d.calc = 'DELTA' OR p.val <> 0)
+              AND (d.calc <> 'MTD' OR c.mtd_base <> 0)
+              AND (d.calc <> 'YTD' OR c.ytd_base <> 0)
+            ON DUPLICATE KEY UPDATE val = VALUES(val)
+            """;
+
+    /** 参数：口径、重算起点、三个重算上界 */
+    private static final String CLEAR_SQL = "DELETE x FROM fact_metric_derived x JOIN (" + DEFS_SELECT + ") d ON d.metric_id = x.metric_id "
+            + "WHERE x.scope_id = ? AND x.biz_date >= ? AND x.biz_date <= " + AFFECTED_END;
+
+    private static final String MIN_DATE = "1000-01-01";
+    private static final String MAX_DATE = "9999-12-31";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FactKeyDictionary dictionary;
+
+    public DerivedMetricRepo(JdbcTemplate jdbcTemplate, FactKeyDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * 由 ReadModelMaintainer 在日历之后调用：该业务日期的日表已提交，逐口径重算受影响的日期。
+     * 清除与重算的区间可到年末，须在其读提交、串行的刷新事务里执行，不要放回文件事务。
+     */
+    public int refreshFrom(String bizDate) {
+        LocalDate date = LocalDate.parse(bizDate);
+        List<Integer> scopeIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT scope_id FROM fact_metric_daily WHERE biz_date = ?", Integer.class, bizDate);
+        int rows = 0;
+        for (Integer scopeId : scopeIds) {
+            LocalDate prev = parseDate(jdbcTemplate.query(
+                    "SELECT prev_date FROM biz_calendar WHERE scope_id = ? AND biz_date = ?",
+                    rs -> rs.next() ? rs.getString(1) : null, scopeId, bizDate));
+            LocalDate next = parseDate(jdbcTemplate.queryForObject(
+                    "SELECT MIN(biz_date) FROM biz_calendar WHERE scope_id = ? AND biz_date > ?", String.class, scopeId, bizDate));
+            LocalDate nextEnd = next == null ? date : next;
+            LocalDate mtdEnd = latest(date.with(TemporalAdjusters.lastDayOfMonth()), nextEnd);
+            LocalDate ytdEnd = latest(date.with(TemporalAdjusters.lastDayOfYear()), nextEnd);
+            LocalDate loadStart = prev == null ? date.withDayOfYear(1) : earliest(prev, date.withDayOfYear(1));
+
+            jdbcTemplate.update(CLEAR_SQL, scopeId, bizDate, mtdEnd.toString(), ytdEnd.toString(), nextEnd.toString());
+            rows += jdbcTemplate.update(DERIVE_SQL,
+                    scopeId, loadStart.toString(), ytdEnd.toString(),
+                    scopeId, loadStart.toString(), ytdEnd.toString(),
+                    scopeId, bizDate, mtdEnd.toString(), ytdEnd.toString(), nextEnd.toString());
+        }
+        return rows;
+    }
+
+    /** 全量回填，FactSchemaMigration 在派生表为空时按口径执行 */
+    static String rebuildScopeSql() {
+        return DERIVE_SQL;
+    }
+
+    static Object[] rebuildScopeArgs(int scopeId) {
+        return new Object[]{
+                scopeId, MIN_DATE, MAX_DATE,
+                scopeId, MIN_DATE, MAX_DATE,
+                scopeId, MIN_DATE, MAX_DATE, MAX_DATE, MAX_DATE
+        };
+    }
+
+    /**
+     * 单日热力图：返回 (网点, 指标, 值)，未产出的格子不返回。
+     * 每个指标按主键 (scope_id, metric_id, biz_date) 前缀读一段，行数等于网点数，与保留的历史长度无关。
+     */
+    public List<FactRepo.HeatmapCell> findCellsOnDate(String scope, String date, List<String> metrics) {
+        if (scope == null || scope.isBlank() || date == null || date.isBlank() || metrics == null || metrics.isEmpty()) {
+            return List.of();
+        }
+        List<Object> args = new ArrayList<>();
+        args.add(dictionary.scopeId(scope));
+        for (String metric : metrics) {
+            args.add(dictionary.metricId(metric));
+        }
+        args.add(date);
+        String sql = "SELECT branch_id, metric_id, val FROM fact_metric_derived "
+                + "WHERE scope_id = ? AND metric_id IN (" + String.join(",", Collections.nCopies(metrics.size(), "?")) + ") "
+                + "AND biz_date = ?";
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new FactRepo.HeatmapCell(
+                dictionary.branchName(rs.getInt(1)),
+                dictionary.metricName(rs.getInt(2)),
+                toDouble(rs.getBigDecimal(3))
+        ), args.toArray());
+    }
+
+    /** 同一指标多网点，按 (biz_date, branch_id) 主键顺序直接写入 grid 中以网点为键的序列 */
+    public void fillSeriesByMetric(SeriesGrid grid, String scope, String metric, List<String> branches, String start, String end) {
+        if (scope == null || scope.isBlank() || metric == null || metric.isBlank() || branches == null || branches.isEmpty()) {
+            return;
+        }
+        List<Object> args = new ArrayList<>();
+        args.add(dictionary.scopeId(scope));
+        args.add(dictionary.metricId(metric));
+        args.add(start);
+        args.add(end);
+        for (String branch : branches) {
+            args.add(dictionary.branchId(branch));
+        }
+        String sql = "SELECT biz_date, branch_id, val FROM fact_metric_derived "
+                + "WHERE scope_id = ? AND metric_id = ? AND biz_date BETWEEN ? AND ? "
+                + "AND branch_id IN (" + String.join(",", Collections.nCopies(branches.size(), "?")) + ") "
+                + "ORDER BY biz_date, branch_id";
+        jdbcTemplate.query(sql, grid.keyedExtractor(grid.seriesById(branches, dictionary::branchId)), args.toArray());
+    }
+
+    private static LocalDate parseDate(String value) {
+        return value == null ? null : LocalDate.parse(value);
+    }
+
+    private static LocalDate latest(LocalDate a, LocalDate b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static LocalDate earliest(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static Double toDouble(BigDecimal val) {
+        return val == null ? null : val.doubleValue();
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.loantrendhub.repo;
+
+import com.example.loantrendhub.util.DateUtil;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存列式立方体：每个口径一份已加载业务日期的有序数组，每个 (指标, 网点) 一条按日期下标排列的 double[]，缺值为 NaN。
+ * 分两层：fact 为 fact_metric_daily，derived 为 fact_metric_derived，查询口径与对应的库表读法一致。
+ * 启动时整体加载；导入事务提交后只读回该业务日期的日表行与其后的派生行，按写时复制生成新快照，读者看到的永远是完整的一版。
+ * 归档等批量变化直接失效，下次读取时重载。加载失败或 app.query.cube.enabled=false 时 {@link #view} 返回 null，查询走库表。
+ */
+@Repository
+public class FactCube {
+    private static final Logger log = LoggerFactory.getLogger(FactCube.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FactKeyDictionary dictionary;
+    private final boolean enabled;
+    /** null 表示需要重载 */
+    private volatile Map<Integer, ScopeCube> snapshot;
+    /** 每次变更加一；加载期间发生变更时不采用加载结果 */
+    private final AtomicLong generation = new AtomicLong();
+    /** 重载只由一个线程执行，其余线程等它完成后直接用新快照；与 this 分开，加载期间不挡住 refreshDate */
+    private final Object loadLock = new Object();
+
+    public FactCube(JdbcTemplate jdbcTemplate,
+                    FactKeyDictionary dictionary,
+                    @Value("${app.query.cube.enabled:true}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    void warmUp() {
+        if (enabled) {
+            current();
+        }
+    }
+
+    /** 口径的只读视图；立方体不可用时返回 null，调用方回落到库表 */
+    public View view(String scope) {
+        if (!enabled || scope == null || scope.isBlank()) {
+            return null;
+        }
+        Map<Integer, ScopeCube> cubes = current();
+        if (cubes == null) {
+            return null;
+        }
+        ScopeCube cube = cubes.get(dictionary.scopeId(scope));
+        return new View(cube == null ? ScopeCube.EMPTY : cube);
+    }
+
+    /** 在读模型刷新事务内调用：提交后把该业务日期的变化并入立方体，回滚则什么都不做 */
+    public void refreshAfterCommit(String bizDate) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refreshDate(bizDate);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                refreshDate(bizDate);
+            }
+        });
+    }
+
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    /**
+     * 该日的日表行整体读回（导入只增改不删）；派生行从该日起整体替换，
+     * 因为导入一天会重算之后的上期、月初、年初基期，也可能让原有派生值不再产出。按顺序导入时只有一天。
+     */
+    synchronized void refreshDate(String bizDate) {
+        Map<Integer, ScopeCube> current = snapshot;
+        generation.incrementAndGet();
+        if (current == null) {
+            // 尚未加载或已失效：下次读取整体重载即可
+            return;
+        }
+        try {
+            Map<Integer, List<Cell>> factCells = new HashMap<>();
+            jdbcTemplate.query("SELECT scope_id, metric_id, branch_id, val FROM fact_metric_daily WHERE biz_date = ?",
+                    rs -> {
+                        factCells.computeIfAbsent(rs.getInt(1), k -> new ArrayList<>())
+                                .add(new Cell(bizDate, rs.getInt(2), rs.getInt(3), toDouble(rs.getBigDecimal(4))));
+                    }, bizDate);
+            Map<Integer, List<Cell>> derivedCells = new HashMap<>();
+            jdbcTemplate.query("SELECT scope_id, metric_id, branch_id, biz_date, val FROM fact_metric_derived WHERE biz_date >= ?",
+                    rs -> {
+                        derivedCells.computeIfAbsent(rs.getInt(1), k -> new ArrayList<>())
+                                .add(new Cell(rs.getString(4), rs.getInt(2), rs.getInt(3), toDouble(rs.getBigDecimal(5))));
+                    }, bizDate);
+            Map<Integer, ScopeCube> next = new HashMap<>(current);
+            for (Integer scopeId : factCells.keySet()) {
+                ScopeCube cube = next.getOrDefault(scopeId, ScopeCube.EMPTY);
+                next.put(scopeId, cube.apply(bizDate, factCells.get(scopeId), derivedCells.getOrDefault(scopeId, List.of())));
+            }
+            snapshot = next;
+        } catch (RuntimeException ex) {
+            log.warn("fact cube refresh failed date={}, will reload on next read", bizDate, ex);
+            snapshot = null;
+        }
+    }
+
+    private Map<Integer, ScopeCube> current() {
+        Map<Integer, ScopeCube> current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (loadLock) {
+            current = snapshot;
+            if (current != null) {
+                // 等锁期间已由其他线程加载完成
+                return current;
+            }
+            long loadedAt = generation.get();
+            try {
+                current = load();
+            } catch (RuntimeException ex) {
+                log.warn("fact cube load failed, queries fall back to database", ex);
+                return null;
+            }
+            synchronized (this) {
+                if (generation.get() == loadedAt) {
+                    snapshot = current;
+                }
+            }
+            return current;
+        }
+    }
+
+    private Map<Integer, ScopeCube> load() {
+        long started = System.currentTimeMillis();
+        Map<Integer, List<Cell>> factCells = new HashMap<>();
+        jdbcTemplate.query("SELECT scope_id, metric_id, branch_id, biz_date, val FROM fact_metric_daily", rs -> {
+            factCells.computeIfAbsent(rs.getInt(1), k -> new ArrayList<>())
+                    .add(new Cell(rs.getString(4), rs.getInt(2), rs.getInt(3), toDouble(rs.getBigDecimal(5))));
+        });
+        Map<Integer, List<Cell>> derivedCells = new HashMap<>();
+        jdbcTemplate.query("SELECT scope_id, metric_id, branch_id, biz_date, val FROM fact_metric_derived", rs -> {
+            derivedCells.computeIfAbsent(rs.getInt(1), k -> new ArrayList<>())
+                    .add(new Cell(rs.getString(4), rs.getInt(2), rs.getInt(3), toDouble(rs.getBigDecimal(5))));
+        });
+        Map<Integer, ScopeCube> loaded = new HashMap<>();
+        long cells = 0;
+        for (Map.Entry<Integer, List<Cell>> e : factCells.entrySet()) {
+            List<Cell> derived = derivedCells.getOrDefault(e.getKey(), List.of());
+            loaded.put(e.getKey(), ScopeCube.build(e.getValue(), derived));
+            cells += e.getValue().size() + derived.size();
+        }
+        log.info("fact cube loaded scopes={} cells={} costMs={}", loaded.size(), cells, System.currentTimeMillis() - started);
+        return loaded;
+    }
+
+    private static double toDouble(BigDecimal val) {
+        return val == null ? Double.NaN : val.doubleValue();
+    }
+
+    private static long key(int metricId, int branchId) {
+        return ((long) metricId << 32) | (branchId & 0xFFFFFFFFL);
+    }
+
+    private record Cell(String bizDate, int metricId, int branchId, double val) {
+    }
+
+    /** 一个口径的只读视图；返回的数组为内部快照，调用方不得修改 */
+    public final class View {
+        private final ScopeCube cube;
+
+        private View(ScopeCube cube) {
+            this.cube = cube;
+        }
+
+        /** 日期的下标；不是已加载日期时返回 -1 */
+        public int indexOf(String date) {
+            String normalized = DateUtil.normalizeDate(date);
+            if (normalized == null) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(cube.dates, normalized);
+            return i >= 0 ? i : -1;
+        }
+
+        /** 同一指标多网点的日表序列，与 branches 下标对齐；没有任何值的网点为 null */
+        public double[][] factByMetric(String metric, List<String> branches) {
+            return byMetric(cube.fact, metric, branches);
+        }
+
+        /** 同一指标多网点的派生指标序列，与 branches 下标对齐；没有任何值的网点为 null */
+        public double[][] derivedByMetric(String metric, List<String> branches) {
+            return byMetric(cube.derived, metric, branches);
+        }
+
+        /** 同一网点多指标的日表序列，与 metrics 下标对齐；没有任何值的指标为 null */
+        public double[][] factByBranch(List<String> metrics, String branch) {
+            double[][] series = new double[metrics.size()][];
+            int branchId = dictionary.branchId(branch);
+            if (branchId == FactKeyDictionary.UNKNOWN_ID) {
+                return series;
+            }
+            for (int i = 0; i < series.length; i++) {
+                series[i] = cube.fact.get(key(dictionary.metricId(metrics.get(i)), branchId));
+            }
+            return series;
+        }
+
+        /** 指标 id 每次调用只解析一次，未知指标不再逐个网点查字典 */
+        private double[][] byMetric(Map<Long, double[]> layer, String metric, List<String> branches) {
+            double[][] series = new double[branches.size()][];
+            int metricId = dictionary.metricId(metric);
+            if (metricId == FactKeyDictionary.UNKNOWN_ID) {
+                return series;
+            }
+            for (int i = 0; i < series.length; i++) {
+                series[i] = layer.get(key(metricId, dictionary.branchId(branches.get(i))));
+            }
+            return series;
+        }
+    }
+
+    /** 发布后只读；变更时复制受影响的序列 */
+    private static final class ScopeCube {
+        static final ScopeCube EMPTY = new ScopeCube(new String[0], Map.of(), Map.of());
+
+        /** yyyy-MM-dd 字符串的字典序即日期序 */
+        final String[] dates;
+        final Map<Long, double[]> fact;
+        final Map<Long, double[]> derived;
+
+        ScopeCube(String[] dates, Map<Long, double[]> fact, Map<Long, double[]> derived) {
+            this.dates = dates;
+            this.fact = fact;
+            this.derived = derived;
+        }
+
+        static ScopeCube build(List<Cell> factCells, List<Cell> derivedCells) {
+            String[] dates = factCells.stream().map(Cell::bizDate).distinct().sorted().toArray(String[]::new);
+            return new ScopeCube(dates, fill(new HashMap<>(), dates, factCells), fill(new HashMap<>(), dates, derivedCells));
+        }
+
+        /** 并入某日的日表行，并用 fromDate 起的派生行替换原有派生值 */
+        ScopeCube apply(String fromDate, List<Cell> factCells, List<Cell> derivedCells) {
+            int at = Arrays.binarySearch(dates, fromDate);
+            String[] nextDates = dates;
+            Map<Long, double[]> nextFact;
+            Map<Long, double[]> nextDerived;
+            if (at < 0) {
+                // 新日期：所有序列在插入点后移一格
+                int insert = -at - 1;
+                nextDates = new String[dates.length + 1];
+                System.arraycopy(dates, 0, nextDates, 0, insert);
+                nextDates[insert] = fromDate;
+                System.arraycopy(dates, insert, nextDates, insert + 1, dates.length - insert);
+                nextFact = widen(fact, insert, nextDates.length);
+                nextDerived = widen(derived, insert, nextDates.length);
+                at = insert;
+            } else {
+                nextFact = new HashMap<>(fact);
+                nextDerived = new HashMap<>(derived);
+            }
+            for (Map.Entry<Long, double[]> e : nextDerived.entrySet()) {
+                double[] copy = e.getValue().clone();
+                Arrays.fill(copy, at, copy.length, Double.NaN);
+                e.setValue(copy);
+            }
+            Map<Long, double[]> copied = new HashMap<>();
+            for (Cell cell : factCells) {
+                long k = key(cell.metricId(), cell.branchId());
+                double[] series = copied.get(k);
+                if (series == null) {
+                    double[] old = nextFact.get(k);
+                    series = old == null ? nan(nextDates.length) : old.clone();
+                    copied.put(k, series);
+                    nextFact.put(k, series);
+                }
+                series[at] = cell.val();
+            }
+            fill(nextDerived, nextDates, derivedCells);
+            return new ScopeCube(nextDates, nextFact, nextDerived);
+        }
+
+        /** 写入尚未发布的序列；derived 中不在日期数组里的日期（日表已归档）跳过 */
+        private static Map<Long, double[]> fill(Map<Long, double[]> series, String[] dates, List<Cell> cells) {
+            for (Cell cell : cells) {
+                int i = Arrays.binarySearch(dates, cell.bizDate());
+                if (i < 0) {
+                    continue;
+                }
+                series.computeIfAbsent(key(cell.metricId(), cell.branchId()), k -> nan(dates.length))[i] = cell.val();
+            }
+            return series;
+        }
+
+        private static Map<Long, double[]> widen(Map<Long, double[]> series, int insert, int length) {
+            Map<Long, double[]> widened = new HashMap<>(series.size() * 2);
+            for (Map.Entry<Long, double[]> e : series.entrySet()) {
+                double[] old = e.getValue();
+                double[] copy = new double[length];
+                System.arraycopy(old, 0, copy, 0, insert);
+                copy[insert] = Double.NaN;
+                System.arraycopy(old, insert, copy, insert + 1, old.length - insert);
+                widened.put(e.getKey(), copy);
+            }
+            return widened;
+        }
+
+        private static double[] nan(int length) {
+            double[] series = new double[length];
+            Arrays.fill(series, Double.NaN);
+            return series;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.loantrendhub.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 事实表维度字典：scope_def / branch_def / metric_def 的名称与整数 id 双向映射。
+ * 字典很小，整体缓存在内存里；查到未知名称或 id 时重载一次，仍查不到的记为缺失，
+ * 之后同一名称或 id 直接返回未知，不再查库，直到下一次重载（元数据重载、登记新口径或指标）。
+ * 写入时遇到新的口径或指标在独立事务中登记，文件事务回滚也不会留下悬空 id；
+ * branch_def 由人工维护，不自动登记，字典外的网点在解析阶段已进入 import_reject。
+ */
+@Repository
+public class FactKeyDictionary {
+    /** 查询条件里的未知名称翻译成该值，SQL 自然匹配不到任何行 */
+    public static final int UNKNOWN_ID = -1;
+    /** 每类缺失记录的上限，超出时清空重记，任意拼写的查询参数不会让它无限增长 */
+    private static final int MAX_MISSES = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate registerTx;
+    private volatile Snapshot snapshot;
+
+    /** FactSchemaMigration 作为依赖注入，保证旧表迁移先于字典加载 */
+    public FactKeyDictionary(JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             FactSchemaMigration migration) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.registerTx = new TransactionTemplate(transactionManager);
+        this.registerTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public int scopeId(String scope) {
+        return lookupId(scope, Kind.SCOPE);
+    }
+
+    public int branchId(String branch) {
+        return lookupId(branch, Kind.BRANCH);
+    }
+
+    public int metricId(String metric) {
+        return lookupId(metric, Kind.METRIC);
+    }
+
+    public String scopeName(int id) {
+        return lookupName(id, Kind.SCOPE);
+    }
+
+    public String branchName(int id) {
+        return lookupName(id, Kind.BRANCH);
+    }
+
+    public String metricName(int id) {
+        return lookupName(id, Kind.METRIC);
+    }
+
+    /** 写入用：名称不存在时先登记再返回 id */
+    public int ensureScopeId(String scope) {
+        return ensureId(scope, Kind.SCOPE);
+    }
+
+    /** 写入用：网点必须已在 branch_def 中 */
+    public int requireBranchId(String branch) {
+        int id = lookupId(branch, Kind.BRANCH);
+        if (id == UNKNOWN_ID) {
+            throw new IllegalStateException("branch not in branch_def: " + branch);
+        }
+        return id;
+    }
+
+    public int ensureMetricId(String metric) {
+        return ensureId(metric, Kind.METRIC);
+    }
+
+    /** MetadataCache.reload 调用：人工改过字典表后重新加载，并清空已记下的缺失 */
+    public synchronized void reload() {
+        Snapshot next = new Snapshot();
+        for (Kind kind : Kind.values()) {
+            jdbcTemplate.query(kind.loadSql, rs -> {
+                next.put(kind, rs.getString(2), rs.getInt(1));
+            });
+        }
+        snapshot = next;
+    }
+
+    private int lookupId(String name, Kind kind) {
+        if (name == null) {
+            return UNKNOWN_ID;
+        }
+        Snapshot s = current();
+        Integer id = s.ids(kind).get(name);
+        if (id == null && !s.isMissingName(kind, name)) {
+            id = resolveMissing(name, kind);
+        }
+        return id == null ? UNKNOWN_ID : id;
+    }
+
+    private String lookupName(int id, Kind kind) {
+        Snapshot s = current();
+        String name = s.names(kind).get(id);
+        if (name == null && !s.isMissingId(kind, id)) {
+            name = resolveMissingId(id, kind);
+        }
+        return name;
+    }
+
+    private int ensureId(String name, Kind kind) {
+        Integer id = current().ids(kind).get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = resolveMissing(name, kind);
+            if (id != null) {
+                return id;
+            }
+            registerTx.executeWithoutResult(status -> jdbcTemplate.update(kind.registerSql, kind.registerArgs(name)));
+            // 重载清掉查询时记下的缺失，新登记的名称才查得到
+            reload();
+            id = resolveMissing(name, kind);
+        }
+        if (id == null) {
+            throw new IllegalStateException("failed to register " + kind.name().toLowerCase() + ": " + name);
+        }
+        return id;
+    }
+
+    /**
+     * 先重载；仍查不到时按数据库排序规则再查一次（utf8mb4 比较不区分大小写与尾部空格，
+     * 与旧版按字符串唯一键写入时的判等一致），查到的写法记为该 id 的别名，查不到的记为缺失。
+     */
+    private synchronized Integer resolveMissing(String name, Kind kind) {
+        Snapshot s = snapshot;
+        if (s != null && s.isMissingName(kind, name)) {
+            // 等锁期间已有请求查过同一名称
+            return null;
+        }
+        reload();
+        Integer id = snapshot.ids(kind).get(name);
+        if (id != null) {
+            return id;
+        }
+        id = jdbcTemplate.query(kind.idByNameSql, rs -> rs.next() ? rs.getInt(1) : null, name);
+        if (id != null) {
+            snapshot = snapshot.withAlias(kind, name, id);
+        } else {
+            snapshot.markMissingName(kind, name);
+        }
+        return id;
+    }
+
+    private synchronized String resolveMissingId(int id, Kind kind) {
+        Snapshot s = snapshot;
+        if (s != null && s.isMissingId(kind, id)) {
+            return null;
+        }
+        reload();
+        String name = snapshot.names(kind).get(id);
+        if (name == null) {
+            snapshot.markMissingId(kind, id);
+        }
+        return name;
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            reload();
+            s = snapshot;
+        }
+        return s;
+    }
+
+    private enum Kind {
+        SCOPE("SELECT scope_id, scope FROM scope_def",
+                "SELECT scope_id FROM scope_def WHERE scope = ?",
+                "INSERT IGNORE INTO scope_def(scope) VALUES (?)"),
+        BRANCH("SELECT branch_id, branch FROM branch_def",
+                "SELECT branch_id FROM branch_def WHERE branch = ?",
+                null),
+        METRIC("SELECT metric_id, metric FROM metric_def",
+                "SELECT metric_id FROM metric_def WHERE metric = ?",
+                "INSERT IGNORE INTO metric_def(metric, name, unit, kind) VALUES (?, ?, '', 'LEVEL')");
+
+        private final String loadSql;
+        private final String idByNameSql;
+        private final String registerSql;
+
+        Kind(String loadSql, String idByNameSql, String registerSql) {
+            this.loadSql = loadSql;
+            this.idByNameSql = idByNameSql;
+            this.registerSql = registerSql;
+        }
+
+        Object[] registerArgs(String name) {
+            return this == METRIC ? new Object[]{name, name} : new Object[]{name};
+        }
+    }
+
+    /** 映射发布后只读，增加别名时复制一份；缺失记录随快照替换一并清空 */
+    private static final class Snapshot {
+        private final Map<Kind, Map<String, Integer>> ids = new HashMap<>();
+        private final Map<Kind, Map<Integer, String>> names = new HashMap<>();
+        private final Map<Kind, Set<String>> missingNames = new ConcurrentHashMap<>();
+        private final Map<Kind, Set<Integer>> missingIds = new ConcurrentHashMap<>();
+
+        Snapshot withAlias(Kind kind, String alias, int id) {
+            Snapshot copy = new Snapshot();
+            ids.forEach((k, m) -> copy.ids.put(k, new HashMap<>(m)));
+            names.forEach((k, m) -> copy.names.put(k, new HashMap<>(m)));
+            copy.ids.computeIfAbsent(kind, k -> new HashMap<>()).put(alias, id);
+            return copy;
+        }
+
+        void put(Kind kind, String name, int id) {
+            ids.computeIfAbsent(kind, k -> new HashMap<>()).put(name, id);
+            names.computeIfAbsent(kind, k -> new HashMap<>()).put(id, name);
+        }
+
+        Map<String, Integer> ids(Kind kind) {
+            return ids.getOrDefault(kind, Map.of());
+        }
+
+        Map<Integer, String> names(Kind kind) {
+            return names.getOrDefault(kind, Map.of());
+        }
+
+        boolean isMissingName(Kind kind, String name) {
+            Set<String> missing = missingNames.get(kind);
+            return missing != null && missing.contains(name);
+        }
+
+        boolean isMissingId(Kind kind, int id) {
+            Set<Integer> missing = missingIds.get(kind);
+            return missing != null && missing.contains(id);
+        }
+
+        void markMissingName(Kind kind, String name) {
+            remember(missingNames.computeIfAbsent(kind, k -> ConcurrentHashMap.newKeySet()), name);
+        }
+
+        void markMissingId(Kind kind, int id) {
+            remember(missingIds.computeIfAbsent(kind, k -> ConcurrentHashMap.newKeySet()), id);
+        }
+
+        private static <T> void remember(Set<T> missing, T value) {
+            if (missing.size() >= MAX_MISSES) {
+                missing.clear();
+            }
+            missing.add(value);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.loantrendhub.repo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * fact_metric_daily 按 biz_date 月份 RANGE COLUMNS 分区的维护。
+ * 分区按上界有序且首尾相接：p_hist（无下界）… 按月分区 … pmax（MAXVALUE），
+ * 非首尾分区以其下界所在月份命名（pYYYYMM），跨多个月的分区在需要时再拆分。
+ * 导入作业在写线程启动前确保业务日期所在月份（及之后若干月）各自独占一个分区；
+ * 拆分的通常是空的 pmax，代价很小。DDL 会隐式提交且要拿表的元数据锁，
+ * 不能在写事务内调用，也不能与其他写事务并发，否则所有访问该表的会话都会排在它后面；
+ * 建分区与归档都经 ReadModelMaintainer 的锁在导入线程上执行。
+ */
+@Repository
+public class FactPartitionRepo {
+    static final String TABLE = "fact_metric_daily";
+    private static final DateTimeFormatter MONTH_NAME = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int lookaheadMonths;
+    /** 已确认独占分区的月份，避免每个文件都查 information_schema */
+    private final Set<YearMonth> coveredMonths = new HashSet<>();
+
+    public FactPartitionRepo(JdbcTemplate jdbcTemplate,
+                             @Value("${app.ingest.partition-lookahead-months:1}") int lookaheadMonths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.lookaheadMonths = Math.max(0, lookaheadMonths);
+    }
+
+    /** 该日期所在月份及预留月份是否都已确认过，确认过的不会再执行 DDL */
+    public synchronized boolean isCovered(String bizDate) {
+        YearMonth month = YearMonth.from(LocalDate.parse(bizDate));
+        for (int i = 0; i <= lookaheadMonths; i++) {
+            if (!coveredMonths.contains(month.plusMonths(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void ensureMonthPartitions(String bizDate) {
+        YearMonth month = YearMonth.from(LocalDate.parse(bizDate));
+        for (int i = 0; i <= lookaheadMonths; i++) {
+            ensureMonth(month.plusMonths(i));
+        }
+    }
+
+    public List<PartitionRange> findPartitions() {
+        return jdbcTemplate.query(
+                """
+                SELECT partition_name, partition_description, table_rows
+                FROM information_schema.partitions
+                WHERE table_schema = DATABASE() AND table_name = ? AND partition_name IS NOT NULL
+                ORDER BY partition_ordinal_position
+                """,
+                rs -> {
+                    List<PartitionRange> list = new ArrayList<>();
+                    LocalDate from = null;
+                    while (rs.next()) {
+                        LocalDate to = parseBound(rs.getString("partition_description"));
+                        list.add(new PartitionRange(rs.getString("partition_name"), from, to, rs.getLong("table_rows")));
+                        from = to;
+                    }
+                    return list;
+                },
+                TABLE
+        );
+    }
+
+    /**
+     * 把一个月的分区整体换出到 fact_metric_archive_YYYYMM（非分区表），事实表中该月分区变为空。
+     * 只交换元数据，不逐行删除；该月的 fact_branch_daily、fact_metric_derived 与 ingest_ledger 记录同时清除，之后可重新导入。
+     * DDL 与清理不在一个事务里，中途失败后重试从断点继续：归档表已存在且该月分区已空时只补做清理。
+     * 由 ReadModelMaintainer 在导入线程上调用，不与导入作业或读模型刷新并发。
+     */
+    public synchronized ArchiveResult archiveMonth(YearMonth month) {
+        String partition = partitionName(month.atDay(1));
+        PartitionRange range = findPartitions().stream()
+                .filter(p -> p.name().equals(partition))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("no partition for month " + month));
+        if (!month.atDay(1).equals(range.from()) || !month.plusMonths(1).atDay(1).equals(range.to())) {
+            throw new IllegalArgumentException("partition " + partition + " does not cover exactly " + month);
+        }
+        String from = month.atDay(1).toString();
+        String to = month.plusMonths(1).atDay(1).toString();
+        String archiveTable = "fact_metric_archive_" + month.format(MONTH_NAME);
+        if (!tableExists(archiveTable)) {
+            jdbcTemplate.execute("CREATE TABLE " + archiveTable + " LIKE " + TABLE);
+        }
+        if (isPartitioned(archiveTable)) {
+            jdbcTemplate.execute("ALTER TABLE " + archiveTable + " REMOVE PARTITIONING");
+        }
+        boolean monthHasRows = hasRows("SELECT 1 FROM " + TABLE + " WHERE biz_date >= ? AND biz_date < ? LIMIT 1", from, to);
+        if (monthHasRows) {
+            if (hasRows("SELECT 1 FROM " + archiveTable + " LIMIT 1")) {
+                // 归档后该月又重新导入过，两份数据不能合并
+                throw new IllegalArgumentException("month " + month + " already archived to " + archiveTable);
+            }
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " EXCHANGE PARTITION " + partition + " WITH TABLE " + archiveTable);
+        }
+        Long rows = jdbcTemplate.queryForObject("SELECT COUNT(1) FROM " + archiveTable, Long.class);
+        // 宽表读模型与派生指标不分区，体量远小于窄表，直接按日期删除；周期汇总保留
+        for (String readModel : List.of("fact_branch_daily", "fact_metric_derived")) {
+            jdbcTemplate.update("DELETE FROM " + readModel + " WHERE biz_date >= ? AND biz_date < ?", from, to);
+        }
+        int ledger = jdbcTemplate.update("DELETE FROM ingest_ledger WHERE biz_date >= ? AND biz_date < ?", from, to);
+        return new ArchiveResult(month.toString(), partition, archiveTable, rows == null ? 0 : rows, ledger);
+    }
+
+    private boolean tableExists(String table) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM information_schema.tables WHERE table_schema = DATABASE() AND table_name = ?",
+                Integer.class,
+                table
+        );
+        return count != null && count > 0;
+    }
+
+    private boolean isPartitioned(String table) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM information_schema.partitions "
+                        + "WHERE table_schema = DATABASE() AND table_name = ? AND partition_name IS NOT NULL",
+                Integer.class,
+                table
+        );
+        return count != null && count > 0;
+    }
+
+    private boolean hasRows(String sql, Object... args) {
+        return !jdbcTemplate.queryForList(sql, args).isEmpty();
+    }
+
+    private void ensureMonth(YearMonth month) {
+        if (coveredMonths.contains(month)) {
+            return;
+        }
+        List<PartitionRange> partitions = findPartitions();
+        if (partitions.isEmpty()) {
+            // 未分区（迁移前的旧表），按普通表写入
+            coveredMonths.add(month);
+            return;
+        }
+        LocalDate start = month.atDay(1);
+        LocalDate end = month.plusMonths(1).atDay(1);
+        PartitionRange target = partitions.stream()
+                .filter(p -> p.contains(start))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("no partition covers " + start));
+        if (!start.equals(target.from()) || !end.equals(target.to())) {
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + target.name()
+                    + " INTO (" + String.join(", ", splitDefinitions(target, start, end)) + ")");
+        }
+        coveredMonths.add(month);
+    }
+
+    /** 把包含 [start, end) 的分区拆成：下界到 start、该月、end 到上界，两端为空区间时省略 */
+    private static List<String> splitDefinitions(PartitionRange target, LocalDate start, LocalDate end) {
+        List<String> parts = new ArrayList<>(3);
+        if (target.from() == null || target.from().isBefore(start)) {
+            parts.add(definition(target.from() == null ? "p_hist" : partitionName(target.from()), start));
+        }
+        parts.add(definition(partitionName(start), end));
+        if (target.to() == null) {
+            parts.add(definition("pmax", null));
+        } else if (target.to().isAfter(end)) {
+            parts.add(definition(partitionName(end), target.to()));
+        }
+        return parts;
+    }
+
+    /** 旧表首次分区用：p_hist、首月到末月逐月分区、pmax */
+    static String monthlyPartitionClause(YearMonth first, YearMonth last) {
+        List<String> parts = new ArrayList<>();
+        parts.add(definition("p_hist", first.atDay(1)));
+        for (YearMonth m = first; !m.isAfter(last); m = m.plusMonths(1)) {
+            parts.add(definition(partitionName(m.atDay(1)), m.plusMonths(1).atDay(1)));
+        }
+        parts.add(definition("pmax", null));
+        return "PARTITION BY RANGE COLUMNS(biz_date) (" + String.join(", ", parts) + ")";
+    }
+
+    private static String definition(String name, LocalDate lessThan) {
+        return "PARTITION " + name + " VALUES LESS THAN (" + (lessThan == null ? "MAXVALUE" : "'" + lessThan + "'") + ")";
+    }
+
+    private static String partitionName(LocalDate from) {
+        return "p" + from.format(MONTH_NAME);
+    }
+
+    private static LocalDate parseBound(String description) {
+        if (description == null || description.equalsIgnoreCase("MAXVALUE")) {
+            return null;
+        }
+        return LocalDate.parse(description.replace("'", "").trim());
+    }
+
+    /** from 为 null 表示无下界，to 为 null 表示 MAXVALUE；rows 为 information_schema 的估算值 */
+    public record PartitionRange(String name,
+                                 LocalDate from,
+                                 LocalDate to,
+                                 long rows) {
+        boolean contains(LocalDate date) {
+            return (from == null || !date.isBefore(from)) && (to == null || date.isBefore(to));
+        }
+    }
+
+    public record ArchiveResult(String month,
+                                String partition,
+                                String archiveTable,
+                                long archivedRows,
+                                int clearedLedgerRows) {
+    }
+}
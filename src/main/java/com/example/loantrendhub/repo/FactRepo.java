@@ -4,10 +4,12 @@ import com.example.loantrendhub.model.FactRow;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,10 +17,34 @@ import java.util.stream.Collectors;
 
 @Repository
 public class FactRepo {
+    /**
+     * 事实表只存维度 id，名称由 {@link FactKeyDictionary} 翻译。
+     * 读路径不取 source_file，趋势查询可以只读 idx_scope_metric_branch_date 覆盖索引
+     */
+    private static final String FACT_COLUMNS = "biz_date, scope_id, branch_id, metric_id, val";
+
+    /**
+     * 同一文件内重复的键只取 seq 最大的暂存行（与逐批 upsert 后写者为准一致），再与日表按唯一键比对，
+     * 只留下日表没有或值、来源文件有变化的行。NOT EXISTS 走 idx_stage_key，日表走 uk_biz_scope_branch_metric。
+     */
+    private static final String STAGED_CHANGES = """
+            FROM fact_metric_stage s
+            LEFT JOIN fact_metric_daily f
+              ON f.biz_date = s.biz_date AND f.scope_id = s.scope_id AND f.branch_id = s.branch_id AND f.metric_id = s.metric_id
+            WHERE s.load_id = ? AND s.biz_date = ?
+              AND NOT EXISTS (
+                  SELECT 1 FROM fact_metric_stage l
+                  WHERE l.load_id = s.load_id AND l.biz_date = s.biz_date AND l.scope_id = s.scope_id
+                    AND l.branch_id = s.branch_id AND l.metric_id = s.metric_id AND l.seq > s.seq)
+              AND (f.biz_date IS NULL OR f.val <> s.val OR NOT (f.source_file <=> s.source_file))
+            """;
+
     private final JdbcTemplate jdbcTemplate;
+    private final FactKeyDictionary dictionary;
 
-    public FactRepo(JdbcTemplate jdbcTemplate) {
+    public FactRepo(JdbcTemplate jdbcTemplate, FactKeyDictionary dictionary) {
         this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
     }
 
     public int[] upsertBatch(List<FactRow> rows) {
@@ -26,7 +52,7 @@ public class FactRepo {
             return new int[0];
         }
         String sql = """
-                INSERT INTO fact_metric_daily (biz_date, scope, branch, metric, val, source_file)
+                INSERT INTO fact_metric_daily (biz_date, scope_id, branch_id, metric_id, val, source_file)
                 VALUES (?,?,?,?,?,?)
                 ON DUPLICATE KEY UPDATE
                   val = VALUES(val),
@@ -35,9 +61,9 @@ public class FactRepo {
         List<Object[]> batchArgs = rows.stream()
                 .map(row -> new Object[]{
                         row.bizDate(),
-                        row.scope(),
-                        row.branch(),
-                        row.metric(),
+                        dictionary.ensureScopeId(row.scope()),
+                        dictionary.requireBranchId(row.branch()),
+                        dictionary.ensureMetricId(row.metric()),
                         row.val(),
                         row.sourceFile()
                 })
@@ -46,111 +72,70 @@ public class FactRepo {
         return jdbcTemplate.batchUpdate(sql, batchArgs);
     }
 
-    public void logImportReject(String sourceFile, Integer rowNo, String rawBranch, String normKey, String reason) {
-        jdbcTemplate.update(
-                "INSERT INTO import_reject(source_file, row_no, raw_branch, norm_key, reason) VALUES (?,?,?,?,?)",
-                sourceFile,
-                rowNo,
-                rawBranch,
-                normKey,
-                reason
-        );
-    }
-
-    public Map<String, String> dateRange() {
-        String sql = "SELECT MIN(biz_date) AS min_date, MAX(biz_date) AS max_date FROM fact_metric_daily";
-        return jdbcTemplate.query(sql, rs -> {
-            String min = "";
-            String max = "";
-            if (rs.next()) {
-                String a = rs.getString("min_date");
-                String b = rs.getString("max_date");
-                min = a == null ? "" : a;
-                max = b == null ? "" : b;
-            }
-            return Map.of("min", min, "max", max);
-        });
-    }
-    public Map<String, String> dateRangeByScope(String scope) {
-        if (scope == null || scope.isBlank()) {
-            return dateRange();
+    public int[] stageRows(String loadId, int seqStart, List<FactRow> rows) {
+        if (rows == null || rows.isEmpty()) {
+            return new int[0];
         }
-        String sql = "SELECT MIN(biz_date) AS min_date, MAX(biz_date) AS max_date FROM fact_metric_daily WHERE scope = ?";
-        return jdbcTemplate.query(sql, rs -> {
-            String min = "";
-            String max = "";
-            if (rs.next()) {
-                String a = rs.getString("min_date");
-                String b = rs.getString("max_date");
-                min = a == null ? "" : a;
-                max = b == null ? "" : b;
-            }
-            return Map.of("min", min, "max", max);
-        }, scope.trim());
+        String sql = "INSERT INTO fact_metric_stage(load_id, seq, biz_date, scope_id, branch_id, metric_id, val, source_file) VALUES (?,?,?,?,?,?,?,?)";
+        List<Object[]> batchArgs = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            FactRow row = rows.get(i);
+            batchArgs.add(new Object[]{
+                    loadId,
+                    seqStart + i,
+                    row.bizDate(),
+                    dictionary.ensureScopeId(row.scope()),
+                    dictionary.requireBranchId(row.branch()),
+                    dictionary.ensureMetricId(row.metric()),
+                    row.val(),
+                    row.sourceFile()
+            });
+        }
+        return jdbcTemplate.batchUpdate(sql, batchArgs);
     }
-    public List<String> findScopes() {
-        return jdbcTemplate.queryForList(
-                "SELECT DISTINCT scope FROM fact_metric_daily WHERE scope IS NOT NULL AND TRIM(scope) <> '' ORDER BY scope",
-                String.class
+
+    /** 暂存行相对日表的新增与变化行数，返回 [inserted, updated] */
+    public int[] countStagedChanges(String loadId, String bizDate) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(f.biz_date IS NULL), 0), COALESCE(SUM(f.biz_date IS NOT NULL), 0) " + STAGED_CHANGES,
+                (rs, rowNum) -> new int[]{rs.getInt(1), rs.getInt(2)},
+                loadId,
+                bizDate
         );
     }
 
-    public List<ScopeStat> findScopeStats(String targetDate) {
-        String effectiveDate = (targetDate == null || targetDate.isBlank()) ? "__NO_DATE__" : targetDate.trim();
-        return jdbcTemplate.query(
-                """
-                SELECT scope,
-                       MIN(biz_date) AS min_date,
-                       MAX(biz_date) AS max_date,
-                       COUNT(1) AS total_rows,
-                       SUM(CASE WHEN biz_date = ? THEN 1 ELSE 0 END) AS rows_on_target
-                FROM fact_metric_daily
-                WHERE scope IS NOT NULL AND TRIM(scope) <> ''
-                GROUP BY scope
-                ORDER BY scope
-                """,
-                (rs, rowNum) -> new ScopeStat(
-                        rs.getString("scope"),
-                        rs.getString("min_date"),
-                        rs.getString("max_date"),
-                        rs.getLong("total_rows"),
-                        rs.getLong("rows_on_target")
-                ),
-                effectiveDate
+    /** 一条 INSERT ... SELECT 只写入新增和变化的行；未变化的行不产生写入 */
+    public int mergeStagedRows(String loadId, String bizDate) {
+        return jdbcTemplate.update(
+                "INSERT INTO fact_metric_daily (biz_date, scope_id, branch_id, metric_id, val, source_file) "
+                        + "SELECT s.biz_date, s.scope_id, s.branch_id, s.metric_id, s.val, s.source_file " + STAGED_CHANGES
+                        + " ON DUPLICATE KEY UPDATE val = VALUES(val), source_file = VALUES(source_file)",
+                loadId,
+                bizDate
         );
     }
 
-    public Map<String, Object> branchDiagnostics(String scope) {
-        Map<String, Object> result = new LinkedHashMap<>();
-        String effectiveScope = (scope == null || scope.isBlank()) ? "" : scope.trim();
+    public int clearStagedRows(String loadId) {
+        return jdbcTemplate.update("DELETE FROM fact_metric_stage WHERE load_id = ?", loadId);
+    }
 
-        Integer dictBranches = jdbcTemplate.queryForObject(
-                "SELECT COUNT(1) FROM branch_def WHERE enabled = 1",
-                Integer.class
-        );
-        Integer rowsByScope;
-        Integer distinctFactBranches;
-        if (effectiveScope.isBlank()) {
-            rowsByScope = jdbcTemplate.queryForObject("SELECT COUNT(1) FROM fact_metric_daily", Integer.class);
-            distinctFactBranches = jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT branch) FROM fact_metric_daily", Integer.class);
-        } else {
-            rowsByScope = jdbcTemplate.queryForObject(
-                    "SELECT COUNT(1) FROM fact_metric_daily WHERE scope = ?",
-                    Integer.class,
-                    effectiveScope
-            );
-            distinctFactBranches = jdbcTemplate.queryForObject(
-                    "SELECT COUNT(DISTINCT branch) FROM fact_metric_daily WHERE scope = ?",
-                    Integer.class,
-                    effectiveScope
-            );
+    public int[] logImportRejects(List<ImportReject> rejects) {
+        if (rejects == null || rejects.isEmpty()) {
+            return new int[0];
         }
-
-        result.put("scope", effectiveScope);
-        result.put("dictBranches", dictBranches == null ? 0 : dictBranches);
-        result.put("rowsByScope", rowsByScope == null ? 0 : rowsByScope);
-        result.put("distinctFactBranches", distinctFactBranches == null ? 0 : distinctFactBranches);
-        return result;
+        List<Object[]> batchArgs = rejects.stream()
+                .map(reject -> new Object[]{
+                        reject.sourceFile(),
+                        reject.rowNo(),
+                        reject.rawBranch(),
+                        reject.normKey(),
+                        reject.reason()
+                })
+                .toList();
+        return jdbcTemplate.batchUpdate(
+                "INSERT INTO import_reject(source_file, row_no, raw_branch, norm_key, reason) VALUES (?,?,?,?,?)",
+                batchArgs
+        );
     }
 
     public List<String> findBranches(String scope) {
@@ -164,6 +149,11 @@ public class FactRepo {
         return findBranches(null);
     }
 
+    /** branch_def 全部网点（含停用）；导入只把字典内的网点写入事实表 */
+    public List<String> findDictionaryBranches() {
+        return jdbcTemplate.queryForList("SELECT branch FROM branch_def", String.class);
+    }
+
     public Map<String, String> findBranchAliasRawMap() {
         return jdbcTemplate.query(
                 "SELECT alias, branch FROM branch_alias",
@@ -213,22 +203,6 @@ public class FactRepo {
         return count != null && count > 0;
     }
 
-    public List<String> findDates(String scope, String start, String end) {
-        if (scope == null || scope.isBlank()) {
-            String sql = "SELECT DISTINCT biz_date FROM fact_metric_daily WHERE biz_date BETWEEN ? AND ? ORDER BY biz_date";
-            return jdbcTemplate.queryForList(sql, String.class, start, end);
-        }
-        String sql = "SELECT DISTINCT biz_date FROM fact_metric_daily WHERE scope = ? AND biz_date BETWEEN ? AND ? ORDER BY biz_date";
-        return jdbcTemplate.queryForList(sql, String.class, scope, start, end);
-    }
-    public List<String> findDatesDesc(String scope) {
-        if (scope == null || scope.isBlank()) {
-            String sql = "SELECT DISTINCT biz_date FROM fact_metric_daily ORDER BY biz_date DESC";
-            return jdbcTemplate.queryForList(sql, String.class);
-        }
-        String sql = "SELECT DISTINCT biz_date FROM fact_metric_daily WHERE scope = ? ORDER BY biz_date DESC";
-        return jdbcTemplate.queryForList(sql, String.class, scope);
-    }
     public List<FactRow> findByDateScopeMetrics(String date, String scope, List<String> metrics) {
         if (scope == null || scope.isBlank() || metrics == null || metrics.isEmpty()) {
             return List.of();
@@ -236,54 +210,59 @@ public class FactRepo {
         String placeholders = String.join(",", Collections.nCopies(metrics.size(), "?"));
         List<Object> args = new ArrayList<>();
         args.add(date);
-        args.add(scope);
-        args.addAll(metrics);
-        String sql = "SELECT biz_date, scope, branch, metric, val, source_file FROM fact_metric_daily " +
-                "WHERE biz_date = ? AND scope = ? AND metric IN (" + placeholders + ")";
+        args.add(dictionary.scopeId(scope));
+        args.addAll(metricIds(metrics));
+        String sql = "SELECT " + FACT_COLUMNS + " FROM fact_metric_daily " +
+                "WHERE biz_date = ? AND scope_id = ? AND metric_id IN (" + placeholders + ")";
         return jdbcTemplate.query(sql, this::mapFactRow, args.toArray());
     }
 
-    public List<FactRow> findSeriesByMetric(String scope, String metric, List<String> branches, String start, String end) {
+    /** 同一指标多网点：按 (biz_date, branch_id) 顺序直接写入 grid 中以网点为键的序列 */
+    public void fillSeriesByMetric(SeriesGrid grid, String scope, String metric, List<String> branches, String start, String end) {
         if (scope == null || scope.isBlank() || branches == null || branches.isEmpty()) {
-            return List.of();
+            return;
         }
         String placeholders = String.join(",", Collections.nCopies(branches.size(), "?"));
         List<Object> args = new ArrayList<>();
-        args.add(scope);
-        args.add(metric);
+        args.add(dictionary.scopeId(scope));
+        args.add(dictionary.metricId(metric));
         args.add(start);
         args.add(end);
-        args.addAll(branches);
-        String sql = "SELECT biz_date, scope, branch, metric, val, source_file FROM fact_metric_daily " +
-                "WHERE scope = ? AND metric = ? AND biz_date BETWEEN ? AND ? AND branch IN (" + placeholders + ") " +
-                "ORDER BY biz_date, branch";
-        return jdbcTemplate.query(sql, this::mapFactRow, args.toArray());
+        for (String branch : branches) {
+            args.add(dictionary.branchId(branch));
+        }
+        String sql = "SELECT biz_date, branch_id, val FROM fact_metric_daily " +
+                "WHERE scope_id = ? AND metric_id = ? AND biz_date BETWEEN ? AND ? AND branch_id IN (" + placeholders + ") " +
+                "ORDER BY biz_date, branch_id";
+        jdbcTemplate.query(sql, grid.keyedExtractor(grid.seriesById(branches, dictionary::branchId)), args.toArray());
     }
 
-    public List<FactRow> findSeriesByBranch(String scope, String branch, List<String> metrics, String start, String end) {
+    /** 同一网点多指标：按 (biz_date, metric_id) 顺序直接写入 grid 中以指标为键的序列 */
+    public void fillSeriesByBranch(SeriesGrid grid, String scope, String branch, List<String> metrics, String start, String end) {
         if (scope == null || scope.isBlank() || metrics == null || metrics.isEmpty()) {
-            return List.of();
+            return;
         }
         String placeholders = String.join(",", Collections.nCopies(metrics.size(), "?"));
         List<Object> args = new ArrayList<>();
-        args.add(scope);
-        args.add(branch);
+        args.add(dictionary.scopeId(scope));
+        args.add(dictionary.branchId(branch));
         args.add(start);
         args.add(end);
-        args.addAll(metrics);
-        String sql = "SELECT biz_date, scope, branch, metric, val, source_file FROM fact_metric_daily " +
-                "WHERE scope = ? AND branch = ? AND biz_date BETWEEN ? AND ? AND metric IN (" + placeholders + ") " +
-                "ORDER BY biz_date, metric";
-        return jdbcTemplate.query(sql, this::mapFactRow, args.toArray());
+        args.addAll(metricIds(metrics));
+        String sql = "SELECT biz_date, metric_id, val FROM fact_metric_daily " +
+                "WHERE scope_id = ? AND branch_id = ? AND biz_date BETWEEN ? AND ? AND metric_id IN (" + placeholders + ") " +
+                "ORDER BY biz_date, metric_id";
+        jdbcTemplate.query(sql, grid.keyedExtractor(grid.seriesById(metrics, dictionary::metricId)), args.toArray());
     }
 
     public List<FactRow> findSeries(String scope, String branch, String metric, String start, String end) {
         if (scope == null || scope.isBlank()) {
             return List.of();
         }
-        String sql = "SELECT biz_date, scope, branch, metric, val, source_file FROM fact_metric_daily " +
-                "WHERE scope = ? AND branch = ? AND metric = ? AND biz_date BETWEEN ? AND ? ORDER BY biz_date";
-        return jdbcTemplate.query(sql, this::mapFactRow, scope, branch, metric, start, end);
+        String sql = "SELECT " + FACT_COLUMNS + " FROM fact_metric_daily " +
+                "WHERE scope_id = ? AND branch_id = ? AND metric_id = ? AND biz_date BETWEEN ? AND ? ORDER BY biz_date";
+        return jdbcTemplate.query(sql, this::mapFactRow,
+                dictionary.scopeId(scope), dictionary.branchId(branch), dictionary.metricId(metric), start, end);
     }
 
     public List<HeatmapCell> findHeatmapMatrix(String date, String scope, List<String> metrics) {
@@ -291,7 +270,7 @@ public class FactRepo {
             return List.of();
         }
         String metricTable = metrics.stream()
-                .map(v -> "SELECT ? AS metric")
+                .map(v -> "SELECT ? AS metric, ? AS metric_id")
                 .collect(Collectors.joining(" UNION ALL "));
         String sql = """
                 SELECT b.branch,
@@ -302,17 +281,20 @@ public class FactRepo {
                 """ + metricTable + """
                 ) m
                 LEFT JOIN fact_metric_daily f
-                  ON f.branch = b.branch
+                  ON f.branch_id = b.branch_id
                  AND f.biz_date = ?
-                 AND f.scope = ?
-                 AND f.metric = m.metric
+                 AND f.scope_id = ?
+                 AND f.metric_id = m.metric_id
                 WHERE b.enabled = 1
                 ORDER BY b.sort_no, b.branch
                 """;
-        List<Object> args = new ArrayList<>(metrics.size() + 2);
-        args.addAll(metrics);
+        List<Object> args = new ArrayList<>(metrics.size() * 2 + 2);
+        for (String metric : metrics) {
+            args.add(metric);
+            args.add(dictionary.metricId(metric));
+        }
         args.add(date);
-        args.add(scope);
+        args.add(dictionary.scopeId(scope));
         return jdbcTemplate.query(sql, (rs, rowNum) -> new HeatmapCell(
                 rs.getString("branch"),
                 rs.getString("metric"),
@@ -325,64 +307,63 @@ public class FactRepo {
             return false;
         }
         Integer one = jdbcTemplate.query(
-                "SELECT 1 FROM fact_metric_daily WHERE scope = ? AND metric = ? LIMIT 1",
+                "SELECT 1 FROM fact_metric_daily WHERE scope_id = ? AND metric_id = ? LIMIT 1",
                 rs -> rs.next() ? 1 : 0,
-                scope,
-                metric
+                dictionary.scopeId(scope),
+                dictionary.metricId(metric)
         );
         return one != null && one == 1;
     }
 
-    public Map<String, Long> countRowsBySourceFileByBizDate(String sourceFile) {
-        return countRowsBySourceFile(sourceFile, "biz_date");
-    }
-
-    public Map<String, Long> countRowsBySourceFileByScope(String sourceFile) {
-        return countRowsBySourceFile(sourceFile, "scope");
+    /** 某业务日期已落库的值，按 scope|branch|metric 索引；走 uk 前缀 biz_date，只读一天的数据 */
+    public Map<String, StoredValue> findStoredValuesByDate(String bizDate) {
+        String sql = "SELECT scope_id, branch_id, metric_id, val, source_file FROM fact_metric_daily WHERE biz_date = ?";
+        return jdbcTemplate.query(sql, rs -> {
+            Map<String, StoredValue> map = new HashMap<>();
+            while (rs.next()) {
+                map.put(factKey(dictionary.scopeName(rs.getInt("scope_id")),
+                                dictionary.branchName(rs.getInt("branch_id")),
+                                dictionary.metricName(rs.getInt("metric_id"))),
+                        new StoredValue(rs.getBigDecimal("val"), rs.getString("source_file")));
+            }
+            return map;
+        }, bizDate);
     }
 
-    public Map<String, Long> countRowsBySourceFileByMetric(String sourceFile) {
-        return countRowsBySourceFile(sourceFile, "metric");
+    public static String factKey(String scope, String branch, String metric) {
+        return scope + "|" + branch + "|" + metric;
     }
 
-    private Map<String, Long> countRowsBySourceFile(String sourceFile, String groupColumn) {
-        if (sourceFile == null || sourceFile.isBlank()) {
-            return Map.of();
+    private List<Integer> metricIds(List<String> metrics) {
+        List<Integer> ids = new ArrayList<>(metrics.size());
+        for (String metric : metrics) {
+            ids.add(dictionary.metricId(metric));
         }
-        String safeColumn = switch (groupColumn) {
-            case "biz_date", "scope", "metric" -> groupColumn;
-            default -> throw new IllegalArgumentException("Unsupported group column: " + groupColumn);
-        };
-        String sql = "SELECT " + safeColumn + " AS group_key, COUNT(1) AS cnt " +
-                "FROM fact_metric_daily WHERE source_file = ? " +
-                "GROUP BY " + safeColumn + " ORDER BY cnt DESC, group_key";
-        return jdbcTemplate.query(sql, rs -> {
-            Map<String, Long> map = new LinkedHashMap<>();
-            while (rs.next()) {
-                map.put(String.valueOf(rs.getString("group_key")), rs.getLong("cnt"));
-            }
-            return map;
-        }, sourceFile);
+        return ids;
     }
 
     private FactRow mapFactRow(ResultSet rs, int rowNum) throws SQLException {
         return new FactRow(
                 rs.getString("biz_date"),
-                rs.getString("scope"),
-                rs.getString("branch"),
-                rs.getString("metric"),
+                dictionary.scopeName(rs.getInt("scope_id")),
+                dictionary.branchName(rs.getInt("branch_id")),
+                dictionary.metricName(rs.getInt("metric_id")),
                 rs.getObject("val") == null ? null : rs.getDouble("val"),
-                rs.getString("source_file"),
+                null,
                 null,
                 null
         );
     }
 
-    public record ScopeStat(String scope,
-                            String minDate,
-                            String maxDate,
-                            long totalRows,
-                            long rowsOnTargetDate) {
+    public record StoredValue(BigDecimal val,
+                              String sourceFile) {
+    }
+
+    public record ImportReject(String sourceFile,
+                               Integer rowNo,
+                               String rawBranch,
+                               String normKey,
+                               String reason) {
     }
 
     public record HeatmapCell(String branch,
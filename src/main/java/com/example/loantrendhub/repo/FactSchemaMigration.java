@@ -0,0 +1,277 @@
+package com.example.loantrendhub.repo;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把旧版事实表（scope/branch/metric 存字符串）就地转换为字典编码的整数键，把索引调整为与查询对齐的结构，
+ * 按月 RANGE 分区，并在宽表读模型、周期汇总、业务日历、元数据汇总、派生指标、指标覆盖为空时从窄表回填。
+ * 在 schema-mysql.sql 执行之后运行；新库建表即为新结构，这里检测不到旧列、旧索引直接跳过。
+ * 每一步都先查 information_schema，可以在中断后重复执行。
+ */
+@Component
+public class FactSchemaMigration {
+    private static final Logger log = LoggerFactory.getLogger(FactSchemaMigration.class);
+    /** 旧表里字典外的网点迁移时按停用登记，排在字典网点之后，只为保住已有事实行 */
+    private static final int LEGACY_BRANCH_SORT_NO = 100000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FactSchemaMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        if (!columnExists("branch_def", "branch_id")) {
+            jdbcTemplate.execute("ALTER TABLE branch_def ADD COLUMN branch_id INT UNSIGNED NOT NULL AUTO_INCREMENT AFTER branch, "
+                    + "ADD UNIQUE KEY uk_branch_def_id (branch_id)");
+            log.info("fact schema migration: branch_def.branch_id added");
+        }
+        if (!columnExists("metric_def", "metric_id")) {
+            jdbcTemplate.execute("ALTER TABLE metric_def ADD COLUMN metric_id SMALLINT UNSIGNED NOT NULL AUTO_INCREMENT AFTER metric, "
+                    + "ADD UNIQUE KEY uk_metric_def_id (metric_id)");
+            log.info("fact schema migration: metric_def.metric_id added");
+        }
+        if (columnExists("fact_metric_daily", "branch")) {
+            migrateFactTable();
+        }
+        if (!indexExists("fact_metric_daily", "idx_scope_metric_branch_date")) {
+            alignFactIndexes();
+        }
+        if (!isPartitioned("fact_metric_daily")) {
+            partitionFactTable();
+        }
+        if (tableIsEmpty("fact_branch_daily") && !tableIsEmpty("fact_metric_daily")) {
+            long started = System.currentTimeMillis();
+            int rows = jdbcTemplate.update(BranchSnapshotRepo.rebuildAllSql());
+            log.info("fact schema migration: fact_branch_daily rebuilt rows={} costMs={}", rows, System.currentTimeMillis() - started);
+        }
+        if (tableIsEmpty("fact_metric_rollup") && !tableIsEmpty("fact_metric_daily")) {
+            long started = System.currentTimeMillis();
+            int rows = 0;
+            for (String sql : MetricRollupRepo.rebuildAllSql()) {
+                rows += jdbcTemplate.update(sql, MetricRollupRepo.rebuildAllArgs());
+            }
+            log.info("fact schema migration: fact_metric_rollup rebuilt rows={} costMs={}", rows, System.currentTimeMillis() - started);
+        }
+        if (columnExists("biz_calendar", "month_first_date")) {
+            // 月初、年初、去年同日没有读取方，只保留上一业务日期
+            jdbcTemplate.execute("ALTER TABLE biz_calendar DROP COLUMN month_first_date, "
+                    + "DROP COLUMN year_first_date, DROP COLUMN last_year_date");
+            log.info("fact schema migration: biz_calendar base-date columns dropped");
+        }
+        if (tableIsEmpty("biz_calendar") && !tableIsEmpty("fact_metric_daily")) {
+            long started = System.currentTimeMillis();
+            BizCalendarRepo.rebuildAll(jdbcTemplate);
+            log.info("fact schema migration: biz_calendar rebuilt costMs={}", System.currentTimeMillis() - started);
+        }
+        if (tableIsEmpty("scope_stat") && !tableIsEmpty("fact_metric_daily")) {
+            long started = System.currentTimeMillis();
+            ScopeStatRepo.rebuildAll(jdbcTemplate);
+            log.info("fact schema migration: scope_stat rebuilt costMs={}", System.currentTimeMillis() - started);
+        }
+        if (tableIsEmpty("fact_metric_derived") && !tableIsEmpty("fact_metric_daily")) {
+            long started = System.currentTimeMillis();
+            int rows = 0;
+            for (Integer scopeId : jdbcTemplate.queryForList("SELECT scope_id FROM scope_def", Integer.class)) {
+                rows += jdbcTemplate.update(DerivedMetricRepo.rebuildScopeSql(), DerivedMetricRepo.rebuildScopeArgs(scopeId));
+            }
+            log.info("fact schema migration: fact_metric_derived rebuilt rows={} costMs={}", rows, System.currentTimeMillis() - started);
+        }
+        if (tableIsEmpty("metric_coverage") && !tableIsEmpty("fact_metric_daily")) {
+            long started = System.currentTimeMillis();
+            MetricCoverageRepo.rebuildAll(jdbcTemplate);
+            log.info("fact schema migration: metric_coverage rebuilt costMs={}", System.currentTimeMillis() - started);
+        }
+        if (!columnExists("ingest_ledger", "superseded")) {
+            // 旧记录没有别名指纹，各自再导入一次后恢复跳过；同一日期只保留最近一次导入为有效
+            jdbcTemplate.execute("ALTER TABLE ingest_ledger ADD COLUMN alias_fingerprint CHAR(16) NULL AFTER file_size, "
+                    + "ADD COLUMN superseded TINYINT NOT NULL DEFAULT 0 AFTER alias_fingerprint");
+            jdbcTemplate.update("""
+                    UPDATE ingest_ledger l
+                    JOIN (SELECT biz_date, MAX(updated_at) AS latest FROM ingest_ledger GROUP BY biz_date) t ON t.biz_date = l.biz_date
+                    SET l.superseded = 1
+                    WHERE l.updated_at < t.latest
+                    """);
+            log.info("fact schema migration: ingest_ledger.alias_fingerprint/superseded added");
+        }
+        if (columnExists("fact_metric_stage", "branch")) {
+            // 暂存表只在单个文件事务内有数据，清空后直接改结构
+            jdbcTemplate.update("DELETE FROM fact_metric_stage");
+            jdbcTemplate.execute("""
+                    ALTER TABLE fact_metric_stage
+                      DROP COLUMN scope,
+                      DROP COLUMN branch,
+                      DROP COLUMN metric,
+                      ADD COLUMN scope_id TINYINT UNSIGNED NOT NULL AFTER biz_date,
+                      ADD COLUMN branch_id INT UNSIGNED NOT NULL AFTER scope_id,
+                      ADD COLUMN metric_id SMALLINT UNSIGNED NOT NULL AFTER branch_id
+                    """);
+            log.info("fact schema migration: fact_metric_stage converted");
+        }
+        if (!indexExists("fact_metric_stage", "PRIMARY")) {
+            jdbcTemplate.update("DELETE FROM fact_metric_stage");
+            jdbcTemplate.execute("ALTER TABLE fact_metric_stage ADD PRIMARY KEY (load_id, seq), "
+                    + "ADD KEY idx_stage_key (load_id, biz_date, scope_id, branch_id, metric_id)");
+            log.info("fact schema migration: fact_metric_stage keyed");
+        }
+    }
+
+    private void migrateFactTable() {
+        long started = System.currentTimeMillis();
+
+        // 事实表中出现过但字典里没有的名称先登记：未映射网点按停用登记，不影响按 enabled 过滤的查询
+        jdbcTemplate.update("""
+                INSERT IGNORE INTO scope_def(scope)
+                SELECT DISTINCT f.scope FROM fact_metric_daily f
+                LEFT JOIN scope_def s ON s.scope = f.scope
+                WHERE s.scope_id IS NULL
+                """);
+        int branches = jdbcTemplate.update("""
+                INSERT IGNORE INTO branch_def(branch, sort_no, enabled)
+                SELECT DISTINCT f.branch, ?, 0 FROM fact_metric_daily f
+                LEFT JOIN branch_def b ON b.branch = f.branch
+                WHERE b.branch IS NULL
+                """, LEGACY_BRANCH_SORT_NO);
+        int metrics = jdbcTemplate.update("""
+                INSERT IGNORE INTO metric_def(metric, name, unit, kind)
+                SELECT DISTINCT f.metric, f.metric, '', 'LEVEL' FROM fact_metric_daily f
+                LEFT JOIN metric_def m ON m.metric = f.metric
+                WHERE m.metric IS NULL
+                """);
+
+        List<String> addColumns = new ArrayList<>();
+        if (!columnExists("fact_metric_daily", "scope_id")) {
+            addColumns.add("ADD COLUMN scope_id TINYINT UNSIGNED NULL AFTER biz_date");
+        }
+        if (!columnExists("fact_metric_daily", "branch_id")) {
+            addColumns.add("ADD COLUMN branch_id INT UNSIGNED NULL AFTER scope_id");
+        }
+        if (!columnExists("fact_metric_daily", "metric_id")) {
+            addColumns.add("ADD COLUMN metric_id SMALLINT UNSIGNED NULL AFTER branch_id");
+        }
+        if (!addColumns.isEmpty()) {
+            jdbcTemplate.execute("ALTER TABLE fact_metric_daily " + String.join(", ", addColumns));
+        }
+
+        int backfilled = jdbcTemplate.update("""
+                UPDATE fact_metric_daily f
+                JOIN scope_def s ON s.scope = f.scope
+                JOIN branch_def b ON b.branch = f.branch
+                JOIN metric_def m ON m.metric = f.metric
+                SET f.scope_id = s.scope_id,
+                    f.branch_id = b.branch_id,
+                    f.metric_id = m.metric_id
+                """);
+        Integer unmapped = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM fact_metric_daily WHERE scope_id IS NULL OR branch_id IS NULL OR metric_id IS NULL",
+                Integer.class
+        );
+        if (unmapped != null && unmapped > 0) {
+            throw new IllegalStateException("fact schema migration: " + unmapped + " rows could not be mapped to dictionary ids");
+        }
+
+        // 单条 ALTER 完成换键与删列，中途失败时旧结构保持不变
+        jdbcTemplate.execute("""
+                ALTER TABLE fact_metric_daily
+                  DROP INDEX uk_biz_scope_branch_metric,
+                  DROP INDEX idx_scope,
+                  DROP INDEX idx_branch,
+                  DROP INDEX idx_metric,
+                  DROP COLUMN scope,
+                  DROP COLUMN branch,
+                  DROP COLUMN metric,
+                  MODIFY scope_id TINYINT UNSIGNED NOT NULL,
+                  MODIFY branch_id INT UNSIGNED NOT NULL,
+                  MODIFY metric_id SMALLINT UNSIGNED NOT NULL,
+                  ADD UNIQUE KEY uk_biz_scope_branch_metric (biz_date, scope_id, branch_id, metric_id)
+                """);
+        log.info("fact schema migration: fact_metric_daily converted rows={} newBranches={} newMetrics={} costMs={}",
+                backfilled, branches, metrics, System.currentTimeMillis() - started);
+    }
+
+    /** 建查询对齐的覆盖索引，并删掉被唯一键或新索引前缀覆盖、只拖慢写入的单列索引 */
+    private void alignFactIndexes() {
+        long started = System.currentTimeMillis();
+        List<String> changes = new ArrayList<>();
+        changes.add("ADD KEY idx_scope_metric_branch_date (scope_id, metric_id, branch_id, biz_date, val)");
+        if (!indexExists("fact_metric_daily", "idx_scope_date")) {
+            changes.add("ADD KEY idx_scope_date (scope_id, biz_date)");
+        }
+        for (String legacy : List.of("idx_biz_date", "idx_scope", "idx_branch", "idx_metric")) {
+            if (indexExists("fact_metric_daily", legacy)) {
+                changes.add("DROP INDEX " + legacy);
+            }
+        }
+        jdbcTemplate.execute("ALTER TABLE fact_metric_daily " + String.join(", ", changes));
+        log.info("fact schema migration: fact_metric_daily indexes aligned changes={} costMs={}",
+                changes, System.currentTimeMillis() - started);
+    }
+
+    /** 主键补上分区列后按月 RANGE 分区：现有数据的每个月各一个分区，外加下个月 */
+    private void partitionFactTable() {
+        long started = System.currentTimeMillis();
+        Integer pkHasDate = jdbcTemplate.queryForObject(
+                """
+                SELECT COUNT(1) FROM information_schema.statistics
+                WHERE table_schema = DATABASE() AND table_name = 'fact_metric_daily'
+                  AND index_name = 'PRIMARY' AND column_name = 'biz_date'
+                """,
+                Integer.class
+        );
+        if (pkHasDate == null || pkHasDate == 0) {
+            jdbcTemplate.execute("ALTER TABLE fact_metric_daily DROP PRIMARY KEY, ADD PRIMARY KEY (id, biz_date)");
+        }
+        Map<String, Object> range = jdbcTemplate.queryForMap("SELECT MIN(biz_date) AS min_date, MAX(biz_date) AS max_date FROM fact_metric_daily");
+        YearMonth current = YearMonth.now();
+        YearMonth first = range.get("min_date") == null ? current : YearMonth.from(LocalDate.parse(range.get("min_date").toString()));
+        YearMonth last = range.get("max_date") == null ? current : YearMonth.from(LocalDate.parse(range.get("max_date").toString()));
+        jdbcTemplate.execute("ALTER TABLE fact_metric_daily " + FactPartitionRepo.monthlyPartitionClause(first, last.plusMonths(1)));
+        log.info("fact schema migration: fact_metric_daily partitioned by month from={} to={} costMs={}",
+                first, last.plusMonths(1), System.currentTimeMillis() - started);
+    }
+
+    private boolean tableIsEmpty(String table) {
+        Integer one = jdbcTemplate.query("SELECT 1 FROM " + table + " LIMIT 1", rs -> rs.next() ? 1 : 0);
+        return one == null || one == 0;
+    }
+
+    private boolean isPartitioned(String table) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM information_schema.partitions WHERE table_schema = DATABASE() AND table_name = ? AND partition_name IS NOT NULL",
+                Integer.class,
+                table
+        );
+        return count != null && count > 0;
+    }
+
+    private boolean indexExists(String table, String index) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?",
+                Integer.class,
+                table,
+                index
+        );
+        return count != null && count > 0;
+    }
+
+    private boolean columnExists(String table, String column) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?",
+                Integer.class,
+                table,
+                column
+        );
+        return count != null && count > 0;
+    }
+}
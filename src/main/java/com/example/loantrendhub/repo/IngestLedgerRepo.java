@@ -0,0 +1,101 @@
+package com.example.loantrendhub.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public class IngestLedgerRepo {
+    private final JdbcTemplate jdbcTemplate;
+
+    public IngestLedgerRepo(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 仍是所属业务日期最近一次导入的台账记录；被同日期后续导入覆盖过的内容不返回，
+     * 重新上传较早的正确文件时照常入库（后上传者生效）。
+     */
+    public Map<String, LedgerEntry> findCurrentByHashes(Collection<String> hashes) {
+        List<String> keys = hashes == null ? List.of() : hashes.stream()
+                .filter(v -> v != null && !v.isBlank())
+                .distinct()
+                .toList();
+        if (keys.isEmpty()) {
+            return Map.of();
+        }
+        String placeholders = String.join(",", Collections.nCopies(keys.size(), "?"));
+        String sql = "SELECT content_hash, source_file, biz_date, row_count, saved_count, reject_count, file_size, alias_fingerprint " +
+                "FROM ingest_ledger WHERE superseded = 0 AND content_hash IN (" + placeholders + ")";
+        return jdbcTemplate.query(sql, rs -> {
+            Map<String, LedgerEntry> map = new LinkedHashMap<>();
+            while (rs.next()) {
+                LedgerEntry entry = new LedgerEntry(
+                        rs.getString("content_hash"),
+                        rs.getString("source_file"),
+                        rs.getString("biz_date"),
+                        rs.getInt("row_count"),
+                        rs.getInt("saved_count"),
+                        rs.getInt("reject_count"),
+                        rs.getLong("file_size"),
+                        rs.getString("alias_fingerprint")
+                );
+                map.put(entry.contentHash(), entry);
+            }
+            return map;
+        }, keys.toArray());
+    }
+
+    /**
+     * 在文件事务内登记，并把同一业务日期此前的记录标为已被覆盖。
+     * 先按日期读出待覆盖的键再按主键更新：同日期写入在流水线中串行，只锁这几行，不在 biz_date 索引上加间隙锁。
+     */
+    public void record(LedgerEntry entry) {
+        List<String> previous = jdbcTemplate.queryForList(
+                "SELECT content_hash FROM ingest_ledger WHERE biz_date = ? AND superseded = 0 AND content_hash <> ?",
+                String.class, entry.bizDate(), entry.contentHash());
+        if (!previous.isEmpty()) {
+            jdbcTemplate.update("UPDATE ingest_ledger SET superseded = 1 WHERE content_hash IN ("
+                    + String.join(",", Collections.nCopies(previous.size(), "?")) + ")", previous.toArray());
+        }
+        jdbcTemplate.update(
+                """
+                INSERT INTO ingest_ledger (content_hash, source_file, biz_date, row_count, saved_count, reject_count, file_size, alias_fingerprint)
+                VALUES (?,?,?,?,?,?,?,?)
+                ON DUPLICATE KEY UPDATE
+                  source_file = VALUES(source_file),
+                  biz_date = VALUES(biz_date),
+                  row_count = VALUES(row_count),
+                  saved_count = VALUES(saved_count),
+                  reject_count = VALUES(reject_count),
+                  file_size = VALUES(file_size),
+                  alias_fingerprint = VALUES(alias_fingerprint),
+                  superseded = 0,
+                  updated_at = CURRENT_TIMESTAMP
+                """,
+                entry.contentHash(),
+                entry.sourceFile(),
+                entry.bizDate(),
+                entry.rowCount(),
+                entry.savedCount(),
+                entry.rejectCount(),
+                entry.fileSize(),
+                entry.aliasFingerprint()
+        );
+    }
+
+    public record LedgerEntry(String contentHash,
+                              String sourceFile,
+                              String bizDate,
+                              int rowCount,
+                              int savedCount,
+                              int rejectCount,
+                              long fileSize,
+                              String aliasFingerprint) {
+    }
+}
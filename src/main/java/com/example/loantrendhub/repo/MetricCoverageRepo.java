@@ -0,0 +1,233 @@
+package com.example.loantrendhub.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * metric_coverage：每个 (口径, 业务日期) 上至少有一个启用网点取到值的指标，按来源分层：
+ * F 为日表，D 为派生指标（与热力图取值口径一致）。导入提交后由 ReadModelMaintainer 逐日维护；
+ * 覆盖只计启用网点，启用或停用网点后须调用 POST /api/meta/reload 整表重算。
+ * 内存中每个 (口径, 日期) 一对位图（按 metric_id 置位），“所选指标全部就绪的最近日期”逐日只做一次按字比较。
+ * 提交后只读回该日及之后的行并入快照；按顺序导入时只有一天。
+ */
+@Repository
+public class MetricCoverageRepo {
+    private static final String FACT = "F";
+    private static final String DERIVED = "D";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FactKeyDictionary dictionary;
+    /** null 表示需要重载 */
+    private volatile Map<Integer, NavigableMap<String, DateCoverage>> snapshot;
+    /** 每次变更加一；加载期间发生变更时不采用加载结果 */
+    private final AtomicLong generation = new AtomicLong();
+
+    public MetricCoverageRepo(JdbcTemplate jdbcTemplate, FactKeyDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    /** 由 ReadModelMaintainer 在派生指标之后调用：重算该日的日表覆盖，及所涉口径该日起的派生覆盖 */
+    public void refreshFrom(String bizDate) {
+        jdbcTemplate.update("DELETE FROM metric_coverage WHERE biz_date = ? AND layer = 'F'", bizDate);
+        jdbcTemplate.update(factCoverageSql("f.biz_date = ?"), bizDate);
+        List<Integer> scopeIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT scope_id FROM fact_metric_daily WHERE biz_date = ?", Integer.class, bizDate);
+        for (Integer scopeId : scopeIds) {
+            // 派生值按上期、月初、年初基期重算过该日之后的日期，覆盖随之整体替换
+            jdbcTemplate.update("DELETE FROM metric_coverage WHERE biz_date >= ? AND scope_id = ? AND layer = 'D'", bizDate, scopeId);
+            jdbcTemplate.update(derivedCoverageSql("x.biz_date >= ? AND x.scope_id = ?"), bizDate, scopeId);
+        }
+        refreshAfterCommit(bizDate);
+    }
+
+    /** 归档后该月不再有日表与派生值 */
+    public void removeMonth(YearMonth month) {
+        jdbcTemplate.update("DELETE FROM metric_coverage WHERE biz_date >= ? AND biz_date < ?",
+                month.atDay(1).toString(), month.plusMonths(1).atDay(1).toString());
+        invalidate();
+    }
+
+    /** 启用网点变化后整表重算，由 ReadModelMaintainer 在元数据重载时调用；返回写入的覆盖行数 */
+    public int rebuild() {
+        jdbcTemplate.update("DELETE FROM metric_coverage");
+        rebuildAll(jdbcTemplate);
+        afterCommit(this::invalidate);
+        return jdbcTemplate.queryForObject("SELECT COUNT(1) FROM metric_coverage", Integer.class);
+    }
+
+    /** 全量回填，FactSchemaMigration 在覆盖表为空时执行，须在派生指标回填之后 */
+    static void rebuildAll(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update(factCoverageSql("1 = 1"));
+        jdbcTemplate.update(derivedCoverageSql("1 = 1"));
+    }
+
+    /**
+     * 不晚于 upperBound、所选指标全部就绪的最近日期；没有则返回 null。
+     * factMetrics 按日表判断，derivedMetrics（DELTA/RATE）按派生层判断。
+     */
+    public String latestCoveredDate(String scope, List<String> factMetrics, List<String> derivedMetrics, String upperBound) {
+        NavigableMap<String, DateCoverage> dates = current().get(dictionary.scopeId(scope));
+        if (dates == null) {
+            return null;
+        }
+        long[] needFact = mask(factMetrics);
+        long[] needDerived = mask(derivedMetrics);
+        if (needFact == null || needDerived == null) {
+            // 有未登记的指标，任何日期都不会就绪
+            return null;
+        }
+        for (Map.Entry<String, DateCoverage> e : dates.headMap(upperBound, true).descendingMap().entrySet()) {
+            DateCoverage coverage = e.getValue();
+            if (covers(coverage.fact, needFact) && covers(coverage.derived, needDerived)) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    private void refreshAfterCommit(String bizDate) {
+        afterCommit(() -> refreshSnapshot(bizDate));
+    }
+
+    /** 快照只在提交后变更，回滚则保留 */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /** 读回 bizDate 及之后的覆盖行，替换各口径对应的尾部 */
+    private synchronized void refreshSnapshot(String bizDate) {
+        Map<Integer, NavigableMap<String, DateCoverage>> current = snapshot;
+        generation.incrementAndGet();
+        if (current == null) {
+            return;
+        }
+        try {
+            Map<Integer, NavigableMap<String, DateCoverage>> tail = read("WHERE biz_date >= ?", bizDate);
+            Map<Integer, NavigableMap<String, DateCoverage>> next = new HashMap<>();
+            current.forEach((scopeId, dates) -> next.put(scopeId, new TreeMap<>(dates.headMap(bizDate, false))));
+            tail.forEach((scopeId, dates) -> next.computeIfAbsent(scopeId, k -> new TreeMap<>()).putAll(dates));
+            snapshot = next;
+        } catch (RuntimeException ex) {
+            // 读取失败时置空，下次读取整体重载
+            snapshot = null;
+        }
+    }
+
+    private Map<Integer, NavigableMap<String, DateCoverage>> current() {
+        Map<Integer, NavigableMap<String, DateCoverage>> current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        long loadedAt = generation.get();
+        current = read("", new Object[0]);
+        synchronized (this) {
+            if (generation.get() == loadedAt) {
+                snapshot = current;
+            }
+        }
+        return current;
+    }
+
+    private Map<Integer, NavigableMap<String, DateCoverage>> read(String where, Object... args) {
+        Map<Integer, NavigableMap<String, List<int[]>>> rows = new HashMap<>();
+        jdbcTemplate.query("SELECT scope_id, biz_date, layer, metric_id FROM metric_coverage " + where, rs -> {
+            rows.computeIfAbsent(rs.getInt(1), k -> new TreeMap<>())
+                    .computeIfAbsent(rs.getString(2), k -> new ArrayList<>())
+                    .add(new int[]{DERIVED.equals(rs.getString(3)) ? 1 : 0, rs.getInt(4)});
+        }, args);
+        Map<Integer, NavigableMap<String, DateCoverage>> loaded = new HashMap<>();
+        rows.forEach((scopeId, dates) -> {
+            NavigableMap<String, DateCoverage> coverage = new TreeMap<>();
+            dates.forEach((date, cells) -> coverage.put(date, DateCoverage.of(cells)));
+            loaded.put(scopeId, coverage);
+        });
+        return loaded;
+    }
+
+    private static String factCoverageSql(String where) {
+        return "INSERT IGNORE INTO metric_coverage (biz_date, scope_id, layer, metric_id) "
+                + "SELECT DISTINCT f.biz_date, f.scope_id, '" + FACT + "', f.metric_id FROM fact_metric_daily f "
+                + "JOIN branch_def b ON b.branch_id = f.branch_id AND b.enabled = 1 "
+                + "WHERE " + where + " AND f.val IS NOT NULL";
+    }
+
+    private static String derivedCoverageSql(String where) {
+        return "INSERT IGNORE INTO metric_coverage (biz_date, scope_id, layer, metric_id) "
+                + "SELECT DISTINCT x.biz_date, x.scope_id, '" + DERIVED + "', x.metric_id FROM fact_metric_derived x "
+                + "JOIN branch_def b ON b.branch_id = x.branch_id AND b.enabled = 1 "
+                + "WHERE " + where + " AND x.val IS NOT NULL";
+    }
+
+    /** 所选指标的位图；含未登记指标时返回 null */
+    private long[] mask(List<String> metrics) {
+        long[] words = new long[0];
+        for (String metric : metrics) {
+            int id = dictionary.metricId(metric);
+            if (id < 0) {
+                return null;
+            }
+            words = set(words, id);
+        }
+        return words;
+    }
+
+    private static boolean covers(long[] have, long[] need) {
+        for (int i = 0; i < need.length; i++) {
+            long h = i < have.length ? have[i] : 0L;
+            if ((need[i] & ~h) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] set(long[] words, int bit) {
+        int word = bit >>> 6;
+        long[] grown = word < words.length ? words : Arrays.copyOf(words, word + 1);
+        grown[word] |= 1L << (bit & 63);
+        return grown;
+    }
+
+    /** 发布后只读 */
+    private record DateCoverage(long[] fact, long[] derived) {
+        static DateCoverage of(List<int[]> cells) {
+            long[] fact = new long[0];
+            long[] derived = new long[0];
+            for (int[] cell : cells) {
+                if (cell[0] == 1) {
+                    derived = set(derived, cell[1]);
+                } else {
+                    fact = set(fact, cell[1]);
+                }
+            }
+            return new DateCoverage(fact, derived);
+        }
+    }
+}
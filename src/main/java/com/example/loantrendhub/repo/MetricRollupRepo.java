@@ -0,0 +1,205 @@
+package com.example.loantrendhub.repo;
+
+import com.example.loantrendhub.model.Granularity;
+import com.example.loantrendhub.util.DateUtil;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * fact_metric_rollup：每个 (口径, 指标, 网点) 在周/月/季/年上的期末值、合计、最小、最大与天数。
+ * 周、月从日表聚合（一次最多 31 天），季、年从月汇总再聚合（一次最多 12 行/键），
+ * 导入一天只重算包含该日的四个周期，不随历史长度增长。
+ * 趋势按周期首日写入 SeriesGrid，横轴标签见 {@link Granularity#label}。
+ * 归档只换出日表分区，汇总保留，长周期趋势在归档后仍可查询。
+ */
+@Repository
+public class MetricRollupRepo {
+    private static final String UPSERT_PREFIX = "INSERT INTO fact_metric_rollup "
+            + "(grain, scope_id, metric_id, branch_id, period_start, period_end, last_val, sum_val, min_val, max_val, day_count) ";
+
+    private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE "
+            + "period_end = VALUES(period_end), last_val = VALUES(last_val), sum_val = VALUES(sum_val), "
+            + "min_val = VALUES(min_val), max_val = VALUES(max_val), day_count = VALUES(day_count)";
+
+    private static final LocalDate MIN_DATE = LocalDate.of(1000, 1, 1);
+    private static final LocalDate MAX_DATE = LocalDate.of(9999, 1, 1);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FactKeyDictionary dictionary;
+
+    public MetricRollupRepo(JdbcTemplate jdbcTemplate, FactKeyDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    /** 周期内取哪个值作为趋势点 */
+    public enum Agg {
+        LAST("last_val"),
+        AVG("sum_val / day_count"),
+        MIN("min_val"),
+        MAX("max_val"),
+        /** 流量类指标（如日变动）按周期累计 */
+        SUM("sum_val");
+
+        private final String expr;
+
+        Agg(String expr) {
+            this.expr = expr;
+        }
+
+        public static Agg parse(String raw) {
+            if (raw == null || raw.isBlank()) {
+                return LAST;
+            }
+            try {
+                return valueOf(raw.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("agg 只支持 last|avg|min|max|sum：" + raw);
+            }
+        }
+    }
+
+    /** 由 ReadModelMaintainer 调用：该业务日期的日表已提交，重算它所在的周、月，再由月汇总重算季、年 */
+    public int refreshDate(String bizDate) {
+        LocalDate date = LocalDate.parse(bizDate);
+        int rows = 0;
+        for (Granularity grain : List.of(Granularity.WEEK, Granularity.MONTH)) {
+            LocalDate from = grain.periodStart(date);
+            rows += jdbcTemplate.update(fromDailySql(grain), from.toString(), grain.nextPeriodStart(from).toString());
+        }
+        for (Granularity grain : List.of(Granularity.QUARTER, Granularity.YEAR)) {
+            LocalDate from = grain.periodStart(date);
+            rows += jdbcTemplate.update(fromMonthsSql(grain), from.toString(), grain.nextPeriodStart(from).toString());
+        }
+        return rows;
+    }
+
+    /** 全量回填，FactSchemaMigration 在汇总表为空时执行；季、年依赖月汇总，顺序不能换 */
+    static List<String> rebuildAllSql() {
+        return List.of(
+                fromDailySql(Granularity.WEEK),
+                fromDailySql(Granularity.MONTH),
+                fromMonthsSql(Granularity.QUARTER),
+                fromMonthsSql(Granularity.YEAR)
+        );
+    }
+
+    static Object[] rebuildAllArgs() {
+        return new Object[]{MIN_DATE.toString(), MAX_DATE.toString()};
+    }
+
+    /** [start 所在周期, end] 内有数据的周期首日（epoch day），升序 */
+    public int[] findPeriodDays(Granularity grain, String scope, String start, String end) {
+        if (scope == null || scope.isBlank()) {
+            return new int[0];
+        }
+        return jdbcTemplate.query(
+                "SELECT DISTINCT period_start FROM fact_metric_rollup "
+                        + "WHERE grain = ? AND scope_id = ? AND period_start BETWEEN ? AND ? ORDER BY period_start",
+                (rs, rowNum) -> SeriesGrid.epochDay(rs, 1),
+                code(grain), dictionary.scopeId(scope), floor(grain, start), end
+        ).stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** 同一指标多网点：按周期首日写入 grid 中以网点为键的序列 */
+    public void fillSeriesByMetric(SeriesGrid grid, Granularity grain, Agg agg, String scope, String metric,
+                                   List<String> branches, String start, String end) {
+        if (scope == null || scope.isBlank() || metric == null || metric.isBlank() || branches == null || branches.isEmpty()) {
+            return;
+        }
+        List<Object> args = new ArrayList<>();
+        args.add(code(grain));
+        args.add(dictionary.scopeId(scope));
+        args.add(dictionary.metricId(metric));
+        for (String branch : branches) {
+            args.add(dictionary.branchId(branch));
+        }
+        args.add(floor(grain, start));
+        args.add(end);
+        String sql = "SELECT period_start, branch_id, " + agg.expr + " FROM fact_metric_rollup "
+                + "WHERE grain = ? AND scope_id = ? AND metric_id = ? "
+                + "AND branch_id IN (" + String.join(",", Collections.nCopies(branches.size(), "?")) + ") "
+                + "AND period_start BETWEEN ? AND ? ORDER BY period_start, branch_id";
+        jdbcTemplate.query(sql, grid.keyedExtractor(grid.seriesById(branches, dictionary::branchId)), args.toArray());
+    }
+
+    /** 同一网点多指标：按周期首日写入 grid 中以指标为键的序列 */
+    public void fillSeriesByBranch(SeriesGrid grid, Granularity grain, Agg agg, String scope, String branch,
+                                   List<String> metrics, String start, String end) {
+        if (scope == null || scope.isBlank() || branch == null || branch.isBlank() || metrics == null || metrics.isEmpty()) {
+            return;
+        }
+        List<Object> args = new ArrayList<>();
+        args.add(code(grain));
+        args.add(dictionary.scopeId(scope));
+        for (String metric : metrics) {
+            args.add(dictionary.metricId(metric));
+        }
+        args.add(dictionary.branchId(branch));
+        args.add(floor(grain, start));
+        args.add(end);
+        String sql = "SELECT period_start, metric_id, " + agg.expr + " FROM fact_metric_rollup "
+                + "WHERE grain = ? AND scope_id = ? "
+                + "AND metric_id IN (" + String.join(",", Collections.nCopies(metrics.size(), "?")) + ") "
+                + "AND branch_id = ? AND period_start BETWEEN ? AND ? ORDER BY period_start, metric_id";
+        jdbcTemplate.query(sql, grid.keyedExtractor(grid.seriesById(metrics, dictionary::metricId)), args.toArray());
+    }
+
+    /** 日表 [?, ?) 内按周期聚合；期末值取周期内最后一个业务日期的值 */
+    private static String fromDailySql(Granularity grain) {
+        String period = periodExpr(grain, "biz_date");
+        return UPSERT_PREFIX
+                + "SELECT '" + code(grain) + "', scope_id, metric_id, branch_id, period_start, "
+                + "MAX(biz_date), MAX(last_val), SUM(val), MIN(val), MAX(val), COUNT(1) FROM ("
+                + "SELECT scope_id, metric_id, branch_id, biz_date, val, " + period + " AS period_start, "
+                + "FIRST_VALUE(val) OVER (PARTITION BY scope_id, metric_id, branch_id, " + period + " ORDER BY biz_date DESC) AS last_val "
+                + "FROM fact_metric_daily WHERE biz_date >= ? AND biz_date < ?"
+                + ") t GROUP BY scope_id, metric_id, branch_id, period_start"
+                + UPSERT_SUFFIX;
+    }
+
+    /** 月汇总 [?, ?) 内再聚合成季、年；INSERT … SELECT 同表由 MySQL 先物化结果 */
+    private static String fromMonthsSql(Granularity grain) {
+        String period = periodExpr(grain, "period_start");
+        return UPSERT_PREFIX
+                + "SELECT '" + code(grain) + "', scope_id, metric_id, branch_id, target_start, "
+                + "MAX(period_end), MAX(period_last), SUM(sum_val), MIN(min_val), MAX(max_val), SUM(day_count) FROM ("
+                + "SELECT scope_id, metric_id, branch_id, period_end, sum_val, min_val, max_val, day_count, " + period + " AS target_start, "
+                + "FIRST_VALUE(last_val) OVER (PARTITION BY scope_id, metric_id, branch_id, " + period + " ORDER BY period_end DESC) AS period_last "
+                + "FROM fact_metric_rollup WHERE grain = 'M' AND period_start >= ? AND period_start < ?"
+                + ") t GROUP BY scope_id, metric_id, branch_id, target_start"
+                + UPSERT_SUFFIX;
+    }
+
+    private static String periodExpr(Granularity grain, String column) {
+        return switch (grain) {
+            case WEEK -> "DATE_SUB(" + column + ", INTERVAL WEEKDAY(" + column + ") DAY)";
+            case MONTH -> "DATE_SUB(" + column + ", INTERVAL DAYOFMONTH(" + column + ") - 1 DAY)";
+            case QUARTER -> "DATE_ADD(MAKEDATE(YEAR(" + column + "), 1), INTERVAL QUARTER(" + column + ") - 1 QUARTER)";
+            case YEAR -> "MAKEDATE(YEAR(" + column + "), 1)";
+            case DAY -> throw new IllegalArgumentException("DAY has no rollup");
+        };
+    }
+
+    private static String code(Granularity grain) {
+        if (grain == Granularity.DAY) {
+            throw new IllegalArgumentException("DAY has no rollup");
+        }
+        return grain.name().substring(0, 1);
+    }
+
+    /** 起始日期落在周期中间时，该周期整体纳入 */
+    private static String floor(Granularity grain, String start) {
+        String normalized = DateUtil.normalizeDate(start);
+        if (normalized == null) {
+            throw new IllegalArgumentException("start 不是有效日期：" + start);
+        }
+        return grain.periodStart(LocalDate.parse(normalized)).toString();
+    }
+}
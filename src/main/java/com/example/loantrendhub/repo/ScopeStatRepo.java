@@ -0,0 +1,172 @@
+package com.example.loantrendhub.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 元数据汇总：scope_date_stat 为每个 (口径, 业务日期) 的行数与网点数，scope_branch 为口径下出现过的网点，
+ * scope_stat 为每个口径的起止日期、日期数、总行数与网点数。导入提交后由 ReadModelMaintainer 维护，
+ * /api/meta、/api/scopes、/api/branches/debug 只读这几张小表，不再对事实表做 GROUP BY / COUNT(DISTINCT)。
+ */
+@Repository
+public class ScopeStatRepo {
+    /** 条件由调用方拼接，参数为条件中的占位符 */
+    private static final String DATE_STAT_UPSERT = "INSERT INTO scope_date_stat (scope_id, biz_date, row_count, branch_count) "
+            + "SELECT scope_id, biz_date, COUNT(1), COUNT(DISTINCT branch_id) FROM fact_metric_daily %s GROUP BY scope_id, biz_date "
+            + "ON DUPLICATE KEY UPDATE row_count = VALUES(row_count), branch_count = VALUES(branch_count)";
+
+    private static final String SCOPE_BRANCH_INSERT = "INSERT IGNORE INTO scope_branch (scope_id, branch_id) "
+            + "SELECT DISTINCT scope_id, branch_id FROM fact_metric_daily %s";
+
+    /** 从按日汇总重算口径汇总：每个口径读的行数等于它的业务日期数，与事实表大小无关 */
+    private static final String SCOPE_STAT_UPSERT = """
+            INSERT INTO scope_stat (scope_id, min_date, max_date, date_count, total_rows, branch_count)
+            SELECT d.scope_id, MIN(d.biz_date), MAX(d.biz_date), COUNT(1), SUM(d.row_count),
+                   (SELECT COUNT(1) FROM scope_branch b WHERE b.scope_id = d.scope_id)
+            FROM scope_date_stat d
+            WHERE d.scope_id = ?
+            GROUP BY d.scope_id
+            ON DUPLICATE KEY UPDATE
+                min_date = VALUES(min_date),
+                max_date = VALUES(max_date),
+                date_count = VALUES(date_count),
+                total_rows = VALUES(total_rows),
+                branch_count = VALUES(branch_count)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final FactKeyDictionary dictionary;
+
+    public ScopeStatRepo(JdbcTemplate jdbcTemplate, FactKeyDictionary dictionary) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dictionary = dictionary;
+    }
+
+    /** 由 ReadModelMaintainer 调用：该业务日期有新增行时重算当天计数及所涉口径的汇总；只更新值不改变计数 */
+    public void refreshDate(String bizDate) {
+        jdbcTemplate.update(DATE_STAT_UPSERT.formatted("WHERE biz_date = ?"), bizDate);
+        jdbcTemplate.update(SCOPE_BRANCH_INSERT.formatted("WHERE biz_date = ?"), bizDate);
+        for (Integer scopeId : jdbcTemplate.queryForList(
+                "SELECT scope_id FROM scope_date_stat WHERE biz_date = ?", Integer.class, bizDate)) {
+            jdbcTemplate.update(SCOPE_STAT_UPSERT, scopeId);
+        }
+    }
+
+    /** 归档后重算：网点集合可能随该月一起消失，按口径从剩余数据重建（归档为低频运维操作） */
+    public void removeMonth(YearMonth month) {
+        String from = month.atDay(1).toString();
+        String to = month.plusMonths(1).atDay(1).toString();
+        List<Integer> scopeIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT scope_id FROM scope_date_stat WHERE biz_date >= ? AND biz_date < ?", Integer.class, from, to);
+        jdbcTemplate.update("DELETE FROM scope_date_stat WHERE biz_date >= ? AND biz_date < ?", from, to);
+        for (Integer scopeId : scopeIds) {
+            jdbcTemplate.update("DELETE FROM scope_branch WHERE scope_id = ?", scopeId);
+            jdbcTemplate.update(SCOPE_BRANCH_INSERT.formatted("WHERE scope_id = ?"), scopeId);
+            jdbcTemplate.update("DELETE FROM scope_stat WHERE scope_id = ?", scopeId);
+            jdbcTemplate.update(SCOPE_STAT_UPSERT, scopeId);
+        }
+    }
+
+    /** 全量回填，FactSchemaMigration 在汇总为空时执行 */
+    static void rebuildAll(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update(DATE_STAT_UPSERT.formatted(""));
+        jdbcTemplate.update(SCOPE_BRANCH_INSERT.formatted(""));
+        for (Integer scopeId : jdbcTemplate.queryForList("SELECT DISTINCT scope_id FROM scope_date_stat", Integer.class)) {
+            jdbcTemplate.update(SCOPE_STAT_UPSERT, scopeId);
+        }
+    }
+
+    /** 有数据的口径，按名称排序 */
+    public List<String> findScopes() {
+        return jdbcTemplate.queryForList("SELECT scope_id FROM scope_stat", Integer.class).stream()
+                .map(dictionary::scopeName)
+                .filter(scope -> scope != null && !scope.isBlank())
+                .sorted()
+                .toList();
+    }
+
+    /** 各口径汇总及目标日期的行数；目标日期为空时该项为 0 */
+    public List<ScopeStat> findScopeStats(String targetDate) {
+        String effectiveDate = (targetDate == null || targetDate.isBlank()) ? null : targetDate.trim();
+        return jdbcTemplate.query(
+                """
+                SELECT s.scope_id, s.min_date, s.max_date, s.total_rows, COALESCE(d.row_count, 0) AS rows_on_target
+                FROM scope_stat s
+                LEFT JOIN scope_date_stat d ON d.scope_id = s.scope_id AND d.biz_date = ?
+                """,
+                (rs, rowNum) -> new ScopeStat(
+                        dictionary.scopeName(rs.getInt("scope_id")),
+                        rs.getString("min_date"),
+                        rs.getString("max_date"),
+                        rs.getLong("total_rows"),
+                        rs.getLong("rows_on_target")
+                ),
+                effectiveDate
+        ).stream()
+                .filter(stat -> stat.scope() != null && !stat.scope().isBlank())
+                .sorted(Comparator.comparing(ScopeStat::scope))
+                .toList();
+    }
+
+    /** 口径为空时为全部口径的起止日期；无数据时 min/max 为空串 */
+    public Map<String, String> dateRange(String scope) {
+        boolean all = scope == null || scope.isBlank();
+        String sql = "SELECT MIN(min_date) AS min_date, MAX(max_date) AS max_date FROM scope_stat"
+                + (all ? "" : " WHERE scope_id = ?");
+        Object[] args = all ? new Object[0] : new Object[]{dictionary.scopeId(scope.trim())};
+        return jdbcTemplate.query(sql, rs -> {
+            String min = "";
+            String max = "";
+            if (rs.next()) {
+                String a = rs.getString("min_date");
+                String b = rs.getString("max_date");
+                min = a == null ? "" : a;
+                max = b == null ? "" : b;
+            }
+            return Map.of("min", min, "max", max);
+        }, args);
+    }
+
+    public Map<String, Object> branchDiagnostics(String scope) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        String effectiveScope = (scope == null || scope.isBlank()) ? "" : scope.trim();
+
+        Integer dictBranches = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM branch_def WHERE enabled = 1",
+                Integer.class
+        );
+        Long rowsByScope;
+        Integer distinctFactBranches;
+        if (effectiveScope.isBlank()) {
+            rowsByScope = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(total_rows), 0) FROM scope_stat", Long.class);
+            distinctFactBranches = jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT branch_id) FROM scope_branch", Integer.class);
+        } else {
+            int scopeId = dictionary.scopeId(effectiveScope);
+            List<Map<String, Object>> stat = jdbcTemplate.queryForList(
+                    "SELECT total_rows, branch_count FROM scope_stat WHERE scope_id = ?", scopeId);
+            Map<String, Object> row = stat.isEmpty() ? Collections.emptyMap() : stat.get(0);
+            rowsByScope = row.get("total_rows") == null ? 0L : ((Number) row.get("total_rows")).longValue();
+            distinctFactBranches = row.get("branch_count") == null ? 0 : ((Number) row.get("branch_count")).intValue();
+        }
+
+        result.put("scope", effectiveScope);
+        result.put("dictBranches", dictBranches == null ? 0 : dictBranches);
+        result.put("rowsByScope", rowsByScope == null ? 0L : rowsByScope);
+        result.put("distinctFactBranches", distinctFactBranches == null ? 0 : distinctFactBranches);
+        return result;
+    }
+
+    public record ScopeStat(String scope,
+                            String minDate,
+                            String maxDate,
+                            long totalRows,
+                            long rowsOnTargetDate) {
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.loantrendhub.repo;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * 趋势查询的列式结果：横轴为按时间升序的一组日期（日粒度为业务日期，粗粒度为周期首日），以 epoch day 表示；
+ * 每个键（网点或指标）一条按列下标排列的 double[]，缺值为 NaN。
+ * 仓库层按 (日期, 键 id, 值) 直接写入，不经过 FactRow、按日期字符串分组的 Map 与装箱的 Double。
+ */
+public final class SeriesGrid {
+    private final int[] days;
+    /** 第 i 个元素为 days[0] + i 这一天的列下标，不在横轴上为 -1 */
+    private final int[] slots;
+    private final List<String> keys;
+    private final Map<String, Integer> keyIndex;
+    private final double[][] values;
+
+    public SeriesGrid(int[] days, List<String> keys) {
+        this.days = days;
+        this.slots = slots(days);
+        this.keys = List.copyOf(keys);
+        this.keyIndex = new HashMap<>();
+        for (int i = 0; i < this.keys.size(); i++) {
+            keyIndex.putIfAbsent(this.keys.get(i), i);
+        }
+        this.values = new double[this.keys.size()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new double[days.length];
+            Arrays.fill(values[i], Double.NaN);
+        }
+    }
+
+    public int columns() {
+        return days.length;
+    }
+
+    public int day(int column) {
+        return days[column];
+    }
+
+    public List<String> keys() {
+        return keys;
+    }
+
+    /** 键的序列下标；不在网格中返回 -1 */
+    public int indexOf(String key) {
+        Integer index = keyIndex.get(key);
+        return index == null ? -1 : index;
+    }
+
+    /** 日期的列下标；不在横轴上返回 -1 */
+    public int column(long epochDay) {
+        if (days.length == 0) {
+            return -1;
+        }
+        long offset = epochDay - days[0];
+        return offset < 0 || offset >= slots.length ? -1 : slots[(int) offset];
+    }
+
+    /** 第 index 条序列；可直接写入 */
+    public double[] series(int index) {
+        return values[index];
+    }
+
+    /** 有值的点数 */
+    public int valueCount() {
+        int count = 0;
+        for (double[] row : values) {
+            for (double v : row) {
+                if (Double.isFinite(v)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** 只保留给定的列（升序下标），用于采样 */
+    public SeriesGrid select(int[] columns) {
+        int[] keptDays = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            keptDays[i] = days[columns[i]];
+        }
+        SeriesGrid selected = new SeriesGrid(keptDays, keys);
+        for (int s = 0; s < values.length; s++) {
+            for (int i = 0; i < columns.length; i++) {
+                selected.values[s][i] = values[s][columns[i]];
+            }
+        }
+        return selected;
+    }
+
+    /** 横轴日期 */
+    public static int[] days(List<String> dates) {
+        int[] days = new int[dates.size()];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = (int) LocalDate.parse(dates.get(i)).toEpochDay();
+        }
+        return days;
+    }
+
+    static int epochDay(ResultSet rs, int column) throws SQLException {
+        return (int) rs.getObject(column, LocalDate.class).toEpochDay();
+    }
+
+    /** 字典 id → 序列下标，只含 queried 中在网格里的键；未登记的 id 跳过 */
+    int[] seriesById(List<String> queried, ToIntFunction<String> idOf) {
+        int[] ids = new int[queried.size()];
+        int max = -1;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = idOf.applyAsInt(queried.get(i));
+            max = Math.max(max, ids[i]);
+        }
+        int[] lookup = new int[max + 1];
+        Arrays.fill(lookup, -1);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] >= 0) {
+                lookup[ids[i]] = indexOf(queried.get(i));
+            }
+        }
+        return lookup;
+    }
+
+    /** 读 (日期, 键 id, 值) 三列的结果集，键 id 经 seriesById 换成序列下标；空值与横轴外的日期跳过 */
+    ResultSetExtractor<SeriesGrid> keyedExtractor(int[] seriesById) {
+        return rs -> {
+            while (rs.next()) {
+                int id = rs.getInt(2);
+                double val = rs.getDouble(3);
+                if (rs.wasNull() || id < 0 || id >= seriesById.length || seriesById[id] < 0) {
+                    continue;
+                }
+                int column = column(epochDay(rs, 1));
+                if (column >= 0) {
+                    values[seriesById[id]][column] = val;
+                }
+            }
+            return this;
+        };
+    }
+
+    private static int[] slots(int[] days) {
+        if (days.length == 0) {
+            return new int[0];
+        }
+        int[] slots = new int[days[days.length - 1] - days[0] + 1];
+        Arrays.fill(slots, -1);
+        for (int i = 0; i < days.length; i++) {
+            slots[days[i] - days[0]] = i;
+        }
+        return slots;
+    }
+}
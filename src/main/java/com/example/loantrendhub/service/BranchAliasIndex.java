@@ -0,0 +1,124 @@
+package com.example.loantrendhub.service;
+
+import com.example.loantrendhub.util.BranchNormalizeUtil;
+import com.example.loantrendhub.util.FileHashUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 导入时的网点别名索引：按作业一次性从 branch_alias / branch_def 构建，之后只读。
+ * 原始别名、规范键和标准网点名合并到同一张表，每个键预先算好解析结果（含是否启用），
+ * 常见情况下（展示名即匹配键）一次哈希查找即可完成解析。
+ * 优先级与原三段式查找一致：原始别名(展示名) > 原始别名(去首尾空白的原文) > 规范键 > 标准网点名本身。
+ * branch_def 由人工维护：解析不到或指向字典外网点的行只记拒绝、不产出事实行（canonBranch 为 null）。
+ */
+final class BranchAliasIndex {
+    static final String NO_ALIAS_MAPPING = "no_alias_mapping";
+    static final String BRANCH_NOT_IN_DICT = "branch_not_in_dict:";
+
+    private final Map<String, Entry> entries;
+    private final String fingerprint;
+
+    private BranchAliasIndex(Map<String, Entry> entries, String fingerprint) {
+        this.entries = entries;
+        this.fingerprint = fingerprint;
+    }
+
+    /** canonicalBranches 为启用网点，dictionaryBranches 为 branch_def 全部网点（含停用） */
+    static BranchAliasIndex build(Map<String, String> aliasRawMap,
+                                  Map<String, String> aliasNormMap,
+                                  Set<String> canonicalBranches,
+                                  Set<String> dictionaryBranches) {
+        Map<String, Resolution> resolutions = new HashMap<>();
+        Map<String, Entry> entries = new HashMap<>();
+        aliasRawMap.forEach((alias, branch) -> {
+            if (alias != null && branch != null) {
+                entries.computeIfAbsent(alias, k -> new Entry()).byRaw =
+                        resolutions.computeIfAbsent(branch, b -> resolutionFor(b, canonicalBranches, dictionaryBranches));
+            }
+        });
+        aliasNormMap.forEach((normKey, branch) -> {
+            if (normKey != null && branch != null) {
+                entries.computeIfAbsent(normKey, k -> new Entry()).byNorm =
+                        resolutions.computeIfAbsent(branch, b -> resolutionFor(b, canonicalBranches, dictionaryBranches));
+            }
+        });
+        for (String branch : canonicalBranches) {
+            entries.computeIfAbsent(branch, k -> new Entry()).self = new Resolution(branch, null);
+        }
+        return new BranchAliasIndex(Map.copyOf(entries), fingerprint(aliasRawMap, aliasNormMap, canonicalBranches, dictionaryBranches));
+    }
+
+    /** 别名与启用网点的指纹：导入台账据此判断同一内容在别名调整后是否需要重新解析 */
+    String fingerprint() {
+        return fingerprint;
+    }
+
+    Resolution resolve(String rawBranch, BranchNormalizeUtil.BranchNormalized normalized) {
+        String display = normalized.displayCandidate();
+        String normKey = normalized.normKey();
+        Entry byDisplay = entries.get(display);
+        if (byDisplay != null && byDisplay.byRaw != null) {
+            return byDisplay.byRaw;
+        }
+        String trimmedRaw = rawBranch == null ? "" : rawBranch.trim();
+        if (!trimmedRaw.isBlank() && !trimmedRaw.equals(display)) {
+            Entry byTrimmed = entries.get(trimmedRaw);
+            if (byTrimmed != null && byTrimmed.byRaw != null) {
+                return byTrimmed.byRaw;
+            }
+        }
+        if (!normKey.isBlank()) {
+            Entry byNorm = normKey.equals(display) ? byDisplay : entries.get(normKey);
+            if (byNorm != null && byNorm.byNorm != null) {
+                return byNorm.byNorm;
+            }
+        }
+        if (byDisplay != null && byDisplay.self != null) {
+            return byDisplay.self;
+        }
+        return new Resolution(null, NO_ALIAS_MAPPING);
+    }
+
+    private static String fingerprint(Map<String, String> aliasRawMap,
+                                      Map<String, String> aliasNormMap,
+                                      Set<String> canonicalBranches,
+                                      Set<String> dictionaryBranches) {
+        StringBuilder text = new StringBuilder();
+        appendSorted(text, 'R', aliasRawMap);
+        appendSorted(text, 'N', aliasNormMap);
+        canonicalBranches.stream().sorted().forEach(branch -> text.append('B').append(branch).append('\n'));
+        dictionaryBranches.stream().sorted().forEach(branch -> text.append('D').append(branch).append('\n'));
+        return FileHashUtil.sha256Hex(text.toString()).substring(0, 16);
+    }
+
+    private static void appendSorted(StringBuilder text, char tag, Map<String, String> map) {
+        map.entrySet().stream()
+                .filter(e -> e.getKey() != null && e.getValue() != null)
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> text.append(tag).append(e.getKey()).append('\u0001').append(e.getValue()).append('\n'));
+    }
+
+    /** 停用网点照常写入（启用后即可查到历史），字典外的别名目标只记拒绝 */
+    private static Resolution resolutionFor(String branch, Set<String> canonicalBranches, Set<String> dictionaryBranches) {
+        if (canonicalBranches.contains(branch)) {
+            return new Resolution(branch, null);
+        }
+        return dictionaryBranches.contains(branch)
+                ? new Resolution(branch, "branch_not_enabled:" + branch)
+                : new Resolution(null, BRANCH_NOT_IN_DICT + branch);
+    }
+
+    /** 只在 build 中填充，之后只读 */
+    private static final class Entry {
+        private Resolution byRaw;
+        private Resolution byNorm;
+        private Resolution self;
+    }
+
+    /** canonBranch 为 null 时该行不写入事实表 */
+    record Resolution(String canonBranch, String rejectReason) {
+    }
+}
@@ -1,19 +1,14 @@
 package com.example.loantrendhub.service;
 
-import com.example.loantrendhub.repo.FactRepo;
 import com.example.loantrendhub.util.BranchNormalizeUtil;
 import org.springframework.stereotype.Service;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
 @Service
 public class BranchResolver {
-    private final FactRepo factRepo;
+    private final MetadataCache metadataCache;
 
-    public BranchResolver(FactRepo factRepo) {
-        this.factRepo = factRepo;
+    public BranchResolver(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
     }
 
     public String resolve(String rawBranch) {
@@ -21,11 +16,10 @@ public class BranchResolver {
         if (normalized.displayCandidate().isBlank() || normalized.normKey().isBlank()) {
             return null;
         }
-        Set<String> canonical = new HashSet<>(factRepo.findAllBranches());
-        if (canonical.contains(normalized.displayCandidate())) {
+        MetadataCache.Snapshot metadata = metadataCache.current();
+        if (metadata.isEnabledBranch(normalized.displayCandidate())) {
             return normalized.displayCandidate();
         }
-        Map<String, String> aliasByNorm = factRepo.findBranchAliasNormMap();
-        return aliasByNorm.get(normalized.normKey());
+        return metadata.aliasNormMap().get(normalized.normKey());
     }
 }
\ No newline at end of file
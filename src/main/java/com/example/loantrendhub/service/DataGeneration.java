@@ -0,0 +1,23 @@
+package com.example.loantrendhub.service;
+
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据版本号：导入任务结束、归档、元数据重载后加一，查询接口的 ETag 由它与请求参数导出。
+ * 以启动时刻的毫秒数起步，重启后不会与重启前发出的 ETag 重号。
+ */
+@Service
+public class DataGeneration {
+    private final AtomicLong generation = new AtomicLong(System.currentTimeMillis());
+
+    public long current() {
+        return generation.get();
+    }
+
+    /** 发布新版本：此前发出的 ETag 全部失效 */
+    public long publish() {
+        return generation.incrementAndGet();
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.loantrendhub.service;
+
+import com.example.loantrendhub.model.FactRow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 单个文件内解析线程与写入线程之间的有界通道：解析器按块推入 FactRow，写入线程在文件事务内逐块取出。
+ * 队列满时解析线程阻塞，单个文件占用的堆内存不超过 capacity 个块。
+ * 写入方结束（成功、失败或放弃）时调用 {@link #cancel()}，阻塞中的解析线程随即退出。
+ */
+final class FileRowChannel implements Consumer<FactRow> {
+    private static final long OFFER_WAIT_MILLIS = 100;
+
+    private final int chunkSize;
+    private final BlockingQueue<Object> queue;
+    private final CompletableFuture<String> bizDate = new CompletableFuture<>();
+    private List<FactRow> pending;
+    private End end;
+    private volatile boolean cancelled;
+
+    FileRowChannel(int chunkSize, int capacity) {
+        this.chunkSize = chunkSize;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.pending = new ArrayList<>(chunkSize);
+    }
+
+    /** 首行到达（或解析结束）时完成；解析在产出任何行之前失败则异常完成。null 表示没有识别出业务日期 */
+    CompletableFuture<String> bizDate() {
+        return bizDate;
+    }
+
+    // ---- 解析线程 ----
+
+    @Override
+    public void accept(FactRow row) {
+        if (!bizDate.isDone()) {
+            bizDate.complete(row.bizDate());
+        }
+        pending.add(row);
+        if (pending.size() >= chunkSize) {
+            put(pending);
+            pending = new ArrayList<>(chunkSize);
+        }
+    }
+
+    void finish(ReportSheetParser.Result result) {
+        if (!pending.isEmpty()) {
+            put(pending);
+            pending = List.of();
+        }
+        put(new End(result, null));
+        bizDate.complete(result.bizDate());
+    }
+
+    void fail(Throwable error) {
+        bizDate.completeExceptionally(error);
+        if (!cancelled) {
+            put(new End(null, error));
+        }
+    }
+
+    private void put(Object item) {
+        if (cancelled) {
+            throw new CancellationException("row channel cancelled by writer");
+        }
+        try {
+            while (!queue.offer(item, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled) {
+                    throw new CancellationException("row channel cancelled by writer");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for writer");
+        }
+    }
+
+    // ---- 写入线程 ----
+
+    /** 下一块数据；解析结束返回 null，解析失败抛出 IllegalStateException */
+    @SuppressWarnings("unchecked")
+    List<FactRow> next() throws InterruptedException {
+        if (end != null) {
+            return null;
+        }
+        Object item = queue.take();
+        if (item instanceof End e) {
+            end = e;
+            if (e.error() != null) {
+                throw new IllegalStateException("parse failed: " + e.error().getMessage(), e.error());
+            }
+            return null;
+        }
+        return (List<FactRow>) item;
+    }
+
+    /** {@link #next()} 返回 null 之后可用 */
+    ReportSheetParser.Result result() {
+        return end == null ? null : end.result();
+    }
+
+    void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+
+    private record End(ReportSheetParser.Result result, Throwable error) {
+    }
+}
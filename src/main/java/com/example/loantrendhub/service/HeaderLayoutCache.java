@@ -0,0 +1,93 @@
+package com.example.loantrendhub.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 表头版式缓存：以表头区域指纹为键，缓存表头深度、网点列、各列口径与指标。
+ * 日报同一模板的文件命中后直接复用版式，不再做关键字扫描和逐列指标识别。
+ */
+@Service
+public class HeaderLayoutCache {
+    private final Map<String, Entry> layouts = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    public HeaderLayoutCache(@Value("${app.ingest.layout-cache-size:64}") int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    SheetLayout lookup(String fingerprint) {
+        Entry entry = layouts.get(fingerprint);
+        if (entry == null) {
+            return null;
+        }
+        entry.hits.incrementAndGet();
+        entry.lastHitAt = Instant.now().toString();
+        return entry.layout;
+    }
+
+    /** 超过上限时不再收录新版式，已知版式继续生效 */
+    void remember(String fingerprint, SheetLayout layout, String sourceFile) {
+        if (layouts.size() >= maxEntries) {
+            return;
+        }
+        layouts.putIfAbsent(fingerprint, new Entry(layout, sourceFile, Instant.now().toString()));
+    }
+
+    public List<Map<String, Object>> snapshot() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        layouts.forEach((fingerprint, entry) -> rows.add(Map.of(
+                "fingerprint", fingerprint,
+                "headerDepth", entry.layout.headerDepth(),
+                "branchCol", entry.layout.branchCol(),
+                "scopeByCol", entry.layout.scopeByCol(),
+                "metricByCol", entry.layout.metricByCol(),
+                "firstSource", entry.firstSource,
+                "firstSeenAt", entry.firstSeenAt,
+                "lastHitAt", entry.lastHitAt == null ? "" : entry.lastHitAt,
+                "hits", entry.hits.get()
+        )));
+        rows.sort((a, b) -> String.valueOf(a.get("firstSeenAt")).compareTo(String.valueOf(b.get("firstSeenAt"))));
+        return rows;
+    }
+
+    public int clear() {
+        int size = layouts.size();
+        layouts.clear();
+        return size;
+    }
+
+    record SheetLayout(int headerDepth,
+                       int branchCol,
+                       Map<Integer, String> scopeByCol,
+                       Map<Integer, String> metricByCol) {
+        /** 按列号有序，保证命中缓存与现场识别时 FactRow 的输出顺序一致 */
+        SheetLayout {
+            scopeByCol = Collections.unmodifiableMap(new TreeMap<>(scopeByCol));
+            metricByCol = Collections.unmodifiableMap(new TreeMap<>(metricByCol));
+        }
+    }
+
+    private static final class Entry {
+        final SheetLayout layout;
+        final String firstSource;
+        final String firstSeenAt;
+        final AtomicLong hits = new AtomicLong();
+        volatile String lastHitAt;
+
+        Entry(SheetLayout layout, String firstSource, String firstSeenAt) {
+            this.layout = layout;
+            this.firstSource = firstSource;
+            this.firstSeenAt = firstSeenAt;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.loantrendhub.service;
 
+import com.example.loantrendhub.util.FileHashUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -8,15 +9,18 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class ImportJobService {
@@ -25,15 +29,22 @@ public class ImportJobService {
     private final ExecutorService importPool = Executors.newFixedThreadPool(1);
     private final Map<String, JobState> jobs = new ConcurrentHashMap<>();
     private final IngestService ingestService;
+    private final DataGeneration dataGeneration;
     private final int maxFiles;
 
     public ImportJobService(IngestService ingestService,
+                            DataGeneration dataGeneration,
                             @Value("${app.upload.max-files:200}") int maxFiles) {
         this.ingestService = ingestService;
+        this.dataGeneration = dataGeneration;
         this.maxFiles = maxFiles;
     }
 
     public Map<String, Object> submit(List<MultipartFile> files) throws Exception {
+        return submit(files, IngestService.IngestOptions.defaults());
+    }
+
+    public Map<String, Object> submit(List<MultipartFile> files, IngestService.IngestOptions options) throws Exception {
         if (files == null || files.isEmpty()) {
             throw new IllegalArgumentException("No files selected");
         }
@@ -53,10 +64,29 @@ public class ImportJobService {
         state.totalFiles = stagedFiles.size();
         state.status = "RUNNING";
 
-        importPool.submit(() -> run(jobId, state, stagedFiles));
+        importPool.submit(() -> run(jobId, state, stagedFiles, options));
         return Map.of("jobId", jobId, "status", state.status, "totalFiles", state.totalFiles);
     }
 
+    /**
+     * 月份归档与导入作业共用单线程的导入池：分区 DDL 不会与正在写入的文件事务并发。
+     * 前面有导入作业时等它结束后再执行，请求线程同步等待结果。
+     */
+    public Map<String, Object> archiveMonth(String month) {
+        Future<Map<String, Object>> archive = importPool.submit(() -> ingestService.archiveMonth(month));
+        try {
+            return archive.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for archive of " + month, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("archive of " + month + " failed", ex.getCause());
+        }
+    }
+
     public Map<String, Object> get(String jobId) {
         JobState state = jobs.get(jobId);
         if (state == null) {
@@ -65,17 +95,20 @@ public class ImportJobService {
         return state.toMap(jobId);
     }
 
-    private void run(String jobId, JobState state, List<StoredUpload> stagedFiles) {
+    private void run(String jobId, JobState state, List<StoredUpload> stagedFiles, IngestService.IngestOptions options) {
         try {
-            Map<String, Object> result = ingestService.ingestStored(stagedFiles);
+            Map<String, Object> result = ingestService.ingestStored(stagedFiles, options, state::fileDone);
+            // 先发布再置完成状态，前端轮询到 SUCCESS 后的刷新不会命中旧 ETag
+            dataGeneration.publish();
             state.status = "SUCCESS";
             state.completedAt = Instant.now().toString();
             state.result = result;
-            state.doneFiles = stagedFiles.size();
         } catch (Exception ex) {
             Throwable root = rootCause(ex);
             String reason = root.getMessage() == null ? root.getClass().getSimpleName() : root.getMessage();
             log.error("import job {} failed", jobId, ex);
+            // 文件逐个提交，失败中止的任务也可能已写入部分文件
+            dataGeneration.publish();
             state.status = "FAILED";
             state.completedAt = Instant.now().toString();
             state.error = reason;
@@ -101,13 +134,17 @@ public class ImportJobService {
             }
             String original = file.getOriginalFilename() == null ? "unknown.xlsx" : file.getOriginalFilename();
             Path path = baseDir.resolve(System.currentTimeMillis() + "_" + UUID.randomUUID() + "_" + original);
-            Files.copy(file.getInputStream(), path, StandardCopyOption.REPLACE_EXISTING);
-            staged.add(new StoredUpload(original, path));
+            String contentHash = FileHashUtil.copyAndHash(file.getInputStream(), path);
+            staged.add(new StoredUpload(original, path, contentHash));
         }
         return staged;
     }
 
-    public record StoredUpload(String sourceName, Path path) {
+    /** contentHash 为落盘时顺带计算的 SHA-256；为 null 时由 IngestService 补算 */
+    public record StoredUpload(String sourceName, Path path, String contentHash) {
+        public StoredUpload(String sourceName, Path path) {
+            this(sourceName, path, null);
+        }
     }
 
     private Throwable rootCause(Throwable throwable) {
@@ -119,23 +156,33 @@ public class ImportJobService {
     }
 
     private static final class JobState {
-        String status;
-        int totalFiles;
-        int doneFiles;
-        String createdAt;
-        String completedAt;
-        String error;
-        Map<String, Object> result;
+        volatile String status;
+        volatile int totalFiles;
+        final AtomicInteger doneFiles = new AtomicInteger();
+        final List<Map<String, Object>> files = new CopyOnWriteArrayList<>();
+        volatile String createdAt;
+        volatile String completedAt;
+        volatile String error;
+        volatile Map<String, Object> result;
 
         static JobState pending() {
             JobState s = new JobState();
             s.status = "PENDING";
             s.createdAt = Instant.now().toString();
             s.totalFiles = 0;
-            s.doneFiles = 0;
             return s;
         }
 
+        /** 导入流水线的写入线程逐个回调，前端轮询 /api/job/{id} 可看到逐文件进度 */
+        void fileDone(IngestService.FileReport report) {
+            doneFiles.incrementAndGet();
+            files.add(Map.of(
+                    "file", report.sourceName(),
+                    "status", report.status(),
+                    "detail", report.detail()
+            ));
+        }
+
         Map<String, Object> toMap(String jobId) {
             return Map.of(
                     "jobId", jobId,
@@ -143,7 +190,8 @@ public class ImportJobService {
                     "createdAt", createdAt,
                     "completedAt", completedAt == null ? "" : completedAt,
                     "totalFiles", totalFiles,
-                    "doneFiles", doneFiles,
+                    "doneFiles", doneFiles.get(),
+                    "files", List.copyOf(files),
                     "error", error == null ? "" : error,
                     "result", result == null ? Map.of() : result
             );
@@ -1,32 +1,53 @@
 package com.example.loantrendhub.service;
 
 import com.example.loantrendhub.model.FactRow;
+import com.example.loantrendhub.repo.FactPartitionRepo;
 import com.example.loantrendhub.repo.FactRepo;
-import com.example.loantrendhub.util.BranchNormalizeUtil;
+import com.example.loantrendhub.repo.IngestLedgerRepo;
 import com.example.loantrendhub.util.DateUtil;
-import com.example.loantrendhub.util.ExcelUtil.HeaderResolver;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellType;
+import com.example.loantrendhub.util.ExcelUtil.SheetRow;
+import com.example.loantrendhub.util.ExcelUtil.XlsxSheetStreamer;
+import com.example.loantrendhub.util.FileHashUtil;
+import jakarta.annotation.PreDestroy;
 import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,17 +55,57 @@ import java.util.regex.Pattern;
 public class IngestService {
     private static final Logger log = LoggerFactory.getLogger(IngestService.class);
     private static final Pattern DATE_PATTERN = Pattern.compile("(20\\d{2})[.-/](\\d{1,2})[.-/](\\d{1,2})");
-    private static final Set<String> INVALID_BRANCH = Set.of(
-            "\u5355\u4f4d", "\u5408\u8ba1", "\u5404\u9879\u8d37\u6b3e", "\u603b\u8ba1", "\u5236\u8868", "\u8bf4\u660e", "\u5c0f\u8ba1"
-    );
     private static final int UPSERT_BATCH_SIZE = 1000;
+    private static final String STATUS_OK = "OK";
+    private static final String STATUS_SKIP = "SKIP";
+    private static final String STATUS_ERR = "ERR";
 
     private final FactRepo factRepo;
+    private final IngestLedgerRepo ingestLedgerRepo;
+    private final FactPartitionRepo partitionRepo;
+    private final MetadataCache metadataCache;
+    private final ReadModelMaintainer readModels;
+    private final HeaderLayoutCache layoutCache;
     private final TransactionTemplate transactionTemplate;
-
-    public IngestService(FactRepo factRepo, TransactionTemplate transactionTemplate) {
+    private final TransactionTemplate bulkTransactionTemplate;
+    private final boolean streamingEnabled;
+    private final ExecutorService parsePool;
+    private final ExecutorService writePool;
+    private final int maxInFlightFiles;
+    private final int writeQueueChunks;
+    private final FailureMode failureMode;
+    private final LoadMode defaultLoadMode;
+
+    public IngestService(FactRepo factRepo,
+                         IngestLedgerRepo ingestLedgerRepo,
+                         FactPartitionRepo partitionRepo,
+                         MetadataCache metadataCache,
+                         ReadModelMaintainer readModels,
+                         HeaderLayoutCache layoutCache,
+                         TransactionTemplate transactionTemplate,
+                         @Value("${app.ingest.streaming:true}") boolean streamingEnabled,
+                         @Value("${app.ingest.parse-workers:4}") int parseWorkers,
+                         @Value("${app.ingest.write-concurrency:2}") int writeConcurrency,
+                         @Value("${app.ingest.max-in-flight-files:8}") int maxInFlightFiles,
+                         @Value("${app.ingest.write-queue-chunks:4}") int writeQueueChunks,
+                         @Value("${app.ingest.failure-mode:ABORT}") FailureMode failureMode,
+                         @Value("${app.ingest.load-mode:UPSERT}") LoadMode defaultLoadMode) {
         this.factRepo = factRepo;
+        this.ingestLedgerRepo = ingestLedgerRepo;
+        this.partitionRepo = partitionRepo;
+        this.metadataCache = metadataCache;
+        this.readModels = readModels;
+        this.layoutCache = layoutCache;
         this.transactionTemplate = transactionTemplate;
+        this.bulkTransactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.bulkTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.streamingEnabled = streamingEnabled;
+        this.parsePool = Executors.newFixedThreadPool(Math.max(1, parseWorkers));
+        this.writePool = Executors.newFixedThreadPool(Math.max(1, writeConcurrency));
+        this.maxInFlightFiles = Math.max(1, maxInFlightFiles);
+        this.writeQueueChunks = Math.max(1, writeQueueChunks);
+        this.failureMode = failureMode;
+        this.defaultLoadMode = defaultLoadMode;
     }
 
     public Map<String, Object> ingest(List<MultipartFile> files) throws Exception {
@@ -62,388 +123,534 @@ public class IngestService {
     }
 
     public Map<String, Object> ingestStored(List<ImportJobService.StoredUpload> files) throws Exception {
-        int totalRows = 0;
-        int totalSaved = 0;
-        int totalUnknown = 0;
-        List<String> accepted = new ArrayList<>();
-        List<String> messages = new ArrayList<>();
+        return ingestStored(files, IngestOptions.defaults(), report -> {
+        });
+    }
 
-        Map<String, String> aliasRawMap = factRepo.findBranchAliasRawMap();
-        Map<String, String> aliasNormMap = factRepo.findBranchAliasNormMap();
-        Set<String> canonicalBranches = new HashSet<>(factRepo.findAllBranches());
+    /**
+     * 多文件导入流水线：解析在 parsePool 上并发进行，入库按上传顺序调度到 writePool。
+     * 同一业务日期的文件串行写入，保证后上传的文件覆盖先上传的；不同日期可并发写入。
+     * 单个文件内解析与写入也是流水线：解析器把行按块推入有界的 {@link FileRowChannel}，
+     * 写入线程在文件事务内边取边写，每个文件最多缓存 writeQueueChunks 块；
+     * 最多 maxInFlightFiles 个文件处于“已开始产出、尚未写完”的状态。
+     * 内容哈希在 ingest_ledger 中仍是该业务日期最近一次导入、且导入后别名未调整过的文件（或同批次内重复）不打开工作簿，直接跳过。
+     */
+    public Map<String, Object> ingestStored(List<ImportJobService.StoredUpload> files,
+                                            IngestOptions options,
+                                            Consumer<FileReport> progress) throws Exception {
+        // 作业开始时重建元数据快照：直接改库维护的别名、网点在本次导入生效，查询也随之看到
+        BranchAliasIndex aliasIndex = metadataCache.reload().aliasIndex();
+
+        LoadMode loadMode = options.loadMode() == null ? defaultLoadMode : options.loadMode();
+        int fileCount = files.size();
+        String[] hashes = new String[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            ImportJobService.StoredUpload file = files.get(i);
+            hashes[i] = file.contentHash() != null ? file.contentHash() : FileHashUtil.sha256Hex(file.path());
+        }
+        Map<String, IngestLedgerRepo.LedgerEntry> known = options.force()
+                ? Map.of()
+                : ingestLedgerRepo.findCurrentByHashes(Arrays.asList(hashes));
+        String[] duplicateOf = new String[fileCount];
+        Map<String, String> firstSourceByHash = new HashMap<>();
+        for (int i = 0; i < fileCount; i++) {
+            IngestLedgerRepo.LedgerEntry entry = known.get(hashes[i]);
+            String firstSource = firstSourceByHash.putIfAbsent(hashes[i], files.get(i).sourceName());
+            // 别名或启用网点调整过的内容需要按新别名重新解析
+            if (entry != null && aliasIndex.fingerprint().equals(entry.aliasFingerprint())) {
+                duplicateOf[i] = "identical content already imported as " + entry.sourceFile() + " (date=" + entry.bizDate() + ")";
+            } else if (firstSource != null) {
+                duplicateOf[i] = "identical content to " + firstSource + " in the same upload";
+            }
+        }
 
-        for (ImportJobService.StoredUpload file : files) {
-            String source = file.sourceName();
-            String bizDate = extractBizDate(source);
+        // 写线程启动前按文件名里的日期一次性建好月份分区；日期取自表头的文件在派发时补建
+        Set<YearMonth> fileMonths = new HashSet<>();
+        for (int i = 0; i < fileCount; i++) {
+            String nameDate = duplicateOf[i] == null ? extractBizDate(files.get(i).sourceName()) : null;
+            if (nameDate != null && fileMonths.add(YearMonth.from(LocalDate.parse(nameDate)))) {
+                readModels.ensureMonthPartitions(nameDate);
+            }
+        }
 
-            try (InputStream in = Files.newInputStream(file.path()); Workbook wb = WorkbookFactory.create(in)) {
-                Sheet sheet = wb.getSheetAt(0);
-                if (bizDate == null) {
-                    bizDate = extractBizDateFromSheet(sheet);
+        FileOutcome[] outcomes = new FileOutcome[fileCount];
+        FileRowChannel[] channels = new FileRowChannel[fileCount];
+        boolean[] handedOff = new boolean[fileCount];
+        List<CompletableFuture<Void>> parses = new ArrayList<>(fileCount);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        Map<String, CompletableFuture<Void>> lastWriteByDate = new HashMap<>();
+        Semaphore pendingWrites = new Semaphore(maxInFlightFiles);
+        AtomicReference<FileOutcome> firstFailure = new AtomicReference<>();
+
+        int submitted = 0;
+        for (int i = 0; i < fileCount && !aborted(firstFailure); i++) {
+            while (submitted < fileCount && submitted < i + maxInFlightFiles) {
+                if (duplicateOf[submitted] == null) {
+                    ImportJobService.StoredUpload file = files.get(submitted);
+                    FileRowChannel channel = new FileRowChannel(UPSERT_BATCH_SIZE, writeQueueChunks);
+                    channels[submitted] = channel;
+                    parses.add(CompletableFuture.runAsync(() -> parseInto(file, aliasIndex, channel), parsePool));
                 }
-                if (bizDate == null) {
-                    messages.add("[SKIP] " + source + ": no biz date found");
-                    continue;
+                submitted++;
+            }
+
+            ImportJobService.StoredUpload file = files.get(i);
+            FileRowChannel channel = channels[i];
+            FileOutcome early = null;
+            String bizDate = null;
+            if (channel == null) {
+                early = FileOutcome.skipped(file.sourceName(), duplicateOf[i]);
+            } else {
+                try {
+                    bizDate = channel.bizDate().join();
+                    if (bizDate == null) {
+                        early = FileOutcome.skipped(file.sourceName(), "no biz date found");
+                    }
+                } catch (CompletionException ex) {
+                    early = FileOutcome.failed(file.sourceName(), ex.getCause());
                 }
+            }
+            if (early != null) {
+                outcomes[i] = early;
+                if (early.error() != null) {
+                    firstFailure.compareAndSet(null, early);
+                }
+                progress.accept(early.report());
+                continue;
+            }
 
-                ParseResult parsed = parseSheet(sheet, bizDate, source, aliasRawMap, aliasNormMap, canonicalBranches);
-                int fileSaved = persistFileInChunks(parsed.rows());
-                Map<String, Long> byBizDate = factRepo.countRowsBySourceFileByBizDate(source);
-                Map<String, Long> byScope = factRepo.countRowsBySourceFileByScope(source);
-                Map<String, Long> byMetric = factRepo.countRowsBySourceFileByMetric(source);
-                totalRows += parsed.rows().size();
-                totalSaved += fileSaved;
-                totalUnknown += parsed.unknownCount();
-                accepted.add(source);
-                messages.add("[OK] " + source + ": date=" + bizDate + " rows=" + parsed.rows().size() + " saved=" + fileSaved + " reject=" + parsed.unknownCount());
-                messages.add("[STAT] " + source + " rowsByBizDate=" + byBizDate);
-                messages.add("[STAT] " + source + " rowsByScope=" + byScope);
-                messages.add("[STAT] " + source + " rowsByMetric=" + byMetric);
-                messages.addAll(parsed.warnings());
-                log.info("import summary source={} rows={} saved={} reject={} rowsByBizDate={} rowsByScope={} rowsByMetric={}",
-                        source, parsed.rows().size(), fileSaved, parsed.unknownCount(), byBizDate, byScope, byMetric);
-            } catch (Exception ex) {
-                Throwable root = rootCause(ex);
-                String reason = root.getMessage() == null ? root.getClass().getSimpleName() : root.getMessage();
-                log.error("ingest file failed: {}", source, ex);
-                messages.add("[ERR] " + source + ": " + reason);
-                throw new IllegalStateException("Import failed (" + source + "): " + reason, ex);
+            if (!partitionRepo.isCovered(bizDate)) {
+                // 分区 DDL 要等已派发的写事务全部结束后在派发线程上执行，不与任何写事务或读模型刷新并发
+                CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+                readModels.ensureMonthPartitions(bizDate);
             }
+            pendingWrites.acquire();
+            handedOff[i] = true;
+            int index = i;
+            FileTask task = new FileTask(file, hashes[i], bizDate, aliasIndex.fingerprint());
+            CompletableFuture<Void> previous = lastWriteByDate.getOrDefault(bizDate, CompletableFuture.completedFuture(null));
+            CompletableFuture<Void> write = previous.thenRunAsync(() -> {
+                try {
+                    FileOutcome outcome = aborted(firstFailure)
+                            ? FileOutcome.skipped(file.sourceName(), "aborted after earlier failure")
+                            : persistStreamed(task, channel, aliasIndex, loadMode);
+                    outcomes[index] = outcome;
+                    if (outcome.error() != null) {
+                        firstFailure.compareAndSet(null, outcome);
+                    }
+                    progress.accept(outcome.report());
+                } finally {
+                    channel.cancel();
+                    pendingWrites.release();
+                }
+            }, writePool);
+            lastWriteByDate.put(bizDate, write);
+            writes.add(write);
+        }
+        // 中止或跳过的文件没有写入方消费，取消通道让仍在解析的线程退出
+        for (int i = 0; i < fileCount; i++) {
+            if (channels[i] != null && !handedOff[i]) {
+                channels[i].cancel();
+            }
+        }
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+        CompletableFuture.allOf(parses.toArray(CompletableFuture[]::new)).join();
+        // 已提交的文件即便作业随后中止也要刷新读模型；返回前刷完，作业结束发布的数据版本才对应完整的读模型
+        readModels.drain();
+
+        FileOutcome failure = firstFailure.get();
+        if (failure != null && failureMode == FailureMode.ABORT) {
+            Throwable root = rootCause(failure.error());
+            String reason = root.getMessage() == null ? root.getClass().getSimpleName() : root.getMessage();
+            throw new IllegalStateException("Import failed (" + failure.source() + "): " + reason, failure.error());
+        }
+
+        int totalRows = 0;
+        int totalUnknown = 0;
+        UpsertOutcome totalUpserts = UpsertOutcome.NONE;
+        List<String> accepted = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        for (FileOutcome outcome : outcomes) {
+            if (outcome == null) {
+                continue;
+            }
+            totalRows += outcome.rows();
+            totalUpserts = totalUpserts.plus(outcome.upserts());
+            totalUnknown += outcome.unknown();
+            if (STATUS_OK.equals(outcome.status())) {
+                accepted.add(outcome.source());
+            } else if (STATUS_SKIP.equals(outcome.status())) {
+                skipped.add(outcome.source());
+            } else if (STATUS_ERR.equals(outcome.status())) {
+                failed.add(outcome.source());
+            }
+            messages.addAll(outcome.messages());
         }
 
         return Map.of(
                 "acceptedFiles", accepted,
+                "skippedFiles", skipped,
+                "failedFiles", failed,
                 "rows", totalRows,
-                "saved", totalSaved,
+                "saved", totalUpserts.saved(),
+                "inserted", totalUpserts.inserted(),
+                "updated", totalUpserts.updated(),
+                "unchanged", totalUpserts.unchanged(),
                 "unknown", totalUnknown,
                 "messages", messages
         );
     }
 
-    private int persistFileInChunks(List<FactRow> parsed) {
-        return transactionTemplate.execute(status -> {
-            int saved = 0;
-            for (int i = 0; i < parsed.size(); i += UPSERT_BATCH_SIZE) {
-                int end = Math.min(i + UPSERT_BATCH_SIZE, parsed.size());
-                List<FactRow> chunk = parsed.subList(i, end);
-                saved += Arrays.stream(factRepo.upsertBatch(chunk)).sum();
+    private boolean aborted(AtomicReference<FileOutcome> firstFailure) {
+        return failureMode == FailureMode.ABORT && firstFailure.get() != null;
+    }
+
+    private void parseInto(ImportJobService.StoredUpload file, BranchAliasIndex aliasIndex, FileRowChannel channel) {
+        String source = file.sourceName();
+        try {
+            ReportSheetParser parser = new ReportSheetParser(source, extractBizDate(source),
+                    aliasIndex, layoutCache, channel);
+            channel.finish(parseFile(file.path(), parser));
+        } catch (CancellationException ex) {
+            log.debug("parse of {} stopped: {}", source, ex.getMessage());
+        } catch (Exception ex) {
+            log.error("ingest file failed: {}", source, ex);
+            try {
+                channel.fail(ex);
+            } catch (CancellationException ignored) {
             }
-            return saved;
-        });
+        }
     }
 
-    private Throwable rootCause(Throwable throwable) {
-        Throwable current = throwable;
-        while (current.getCause() != null && current.getCause() != current) {
-            current = current.getCause();
+    private FileOutcome persistStreamed(FileTask task, FileRowChannel channel, BranchAliasIndex aliasIndex, LoadMode loadMode) {
+        String source = task.file().sourceName();
+        try {
+            long started = System.nanoTime();
+            FileWrite write = persistFileWithRetry(task, channel, aliasIndex, loadMode);
+            long writeMillis = (System.nanoTime() - started) / 1_000_000;
+            UpsertOutcome upserts = write.upserts();
+            FileStats stats = write.stats();
+            int rows = write.rows();
+            int unknown = write.result().unknownCount();
+
+            List<String> messages = new ArrayList<>();
+            messages.add("[OK] " + source + ": date=" + task.bizDate() + " rows=" + rows + " saved=" + upserts.saved()
+                    + " inserted=" + upserts.inserted() + " updated=" + upserts.updated() + " unchanged=" + upserts.unchanged()
+                    + " reject=" + unknown);
+            messages.add("[STAT] " + source + " rowsByBizDate=" + stats.byBizDate());
+            messages.add("[STAT] " + source + " rowsByScope=" + stats.byScope());
+            messages.add("[STAT] " + source + " rowsByMetric=" + stats.byMetric());
+            messages.addAll(write.result().warnings());
+            log.info("import summary source={} mode={} writeMs={} rows={} inserted={} updated={} unchanged={} reject={} rowsByBizDate={} rowsByScope={} rowsByMetric={}",
+                    source, loadMode, writeMillis, rows, upserts.inserted(), upserts.updated(), upserts.unchanged(), unknown,
+                    stats.byBizDate(), stats.byScope(), stats.byMetric());
+            return new FileOutcome(source, STATUS_OK, rows, upserts, unknown, messages, null);
+        } catch (Exception ex) {
+            log.error("ingest file failed: {}", source, ex);
+            return FileOutcome.failed(source, ex);
         }
-        return current;
     }
 
-    private ParseResult parseSheet(
-            Sheet sheet,
-            String bizDate,
-            String sourceFile,
-            Map<String, String> aliasRawMap,
-            Map<String, String> aliasNormMap,
-            Set<String> canonicalBranches
-    ) {
-        DataFormatter formatter = new DataFormatter();
-
-        int maxCol = 0;
-        for (Row row : sheet) {
-            if (row != null && row.getLastCellNum() > maxCol) {
-                maxCol = row.getLastCellNum();
+    /** xlsx 默认走 SAX 流式单遍读取；xls 或关闭 streaming 时回落到 WorkbookFactory 全量加载 */
+    private ReportSheetParser.Result parseFile(Path path, ReportSheetParser parser) throws Exception {
+        if (streamingEnabled && XlsxSheetStreamer.isXlsx(path)) {
+            XlsxSheetStreamer.streamFirstSheet(path, parser::accept);
+            return parser.finish();
+        }
+        try (InputStream in = Files.newInputStream(path); Workbook wb = WorkbookFactory.create(in)) {
+            DataFormatter formatter = new DataFormatter();
+            for (Row row : wb.getSheetAt(0)) {
+                parser.accept(SheetRow.of(row, formatter));
             }
         }
+        return parser.finish();
+    }
 
-        int headerDepth = detectHeaderDepth(sheet, formatter);
-        int branchCol = detectBranchCol(sheet, formatter, headerDepth);
-        Map<Integer, String> scopeByCol = detectScopeByColumn(sheet, maxCol, formatter);
+    /**
+     * 并发写入不同业务日期时可能撞上 InnoDB 死锁，整文件事务重试一次。
+     * 首次写入已消费掉通道中的行，重试时在当前写线程上重新解析临时文件，通道不设上限。
+     */
+    private FileWrite persistFileWithRetry(FileTask task, FileRowChannel channel, BranchAliasIndex aliasIndex, LoadMode loadMode)
+            throws Exception {
+        try {
+            return persistFileOnce(task, channel, loadMode);
+        } catch (PessimisticLockingFailureException ex) {
+            log.warn("upsert hit lock conflict, retrying file transaction: {}", ex.getMessage());
+            channel.cancel();
+            FileRowChannel replay = new FileRowChannel(UPSERT_BATCH_SIZE, Integer.MAX_VALUE);
+            parseInto(task.file(), aliasIndex, replay);
+            return persistFileOnce(task, replay, loadMode);
+        }
+    }
 
-        Map<Integer, String> metricByCol = new HashMap<>();
-        for (int c = 0; c < maxCol; c++) {
-            StringBuilder header = new StringBuilder();
-            for (int r = 0; r <= headerDepth; r++) {
-                Row row = sheet.getRow(r);
-                if (row == null) {
+    /**
+     * 事实数据与导入台账在同一事务内提交，台账有记录即代表该内容已完整落库。
+     * UPSERT 先读出该业务日期已有的值，之后每取到一块就逐行比对，只对新增和变化的行执行 upsert；
+     * BULK 不做逐行比对，整文件写入暂存表后由 SQL 一次算出新增/变化行并合并，事务用读已提交，
+     * INSERT ... SELECT 对日表做一致性读而不加共享锁。
+     * 同一日期的写入在流水线中串行，比对结果在事务内不会被其他导入改变。
+     */
+    private FileWrite persistFileOnce(FileTask task, FileRowChannel channel, LoadMode loadMode) throws Exception {
+        long fileSize = Files.size(task.file().path());
+        TransactionTemplate tx = loadMode == LoadMode.BULK ? bulkTransactionTemplate : transactionTemplate;
+        return tx.execute(status -> {
+            FileStats stats = new FileStats();
+            String loadId = loadMode == LoadMode.BULK ? UUID.randomUUID().toString() : null;
+            Map<String, FactRepo.StoredValue> stored = loadId == null ? factRepo.findStoredValuesByDate(task.bizDate()) : null;
+            int staged = 0;
+            int rows = 0;
+            int inserted = 0;
+            int updated = 0;
+            List<FactRow> chunk;
+            while ((chunk = nextChunk(channel)) != null) {
+                if (loadId != null) {
+                    for (FactRow row : chunk) {
+                        stats.add(row);
+                    }
+                    rows += chunk.size();
+                    factRepo.stageRows(loadId, staged, chunk);
+                    staged += chunk.size();
                     continue;
                 }
-                String txt = formatter.formatCellValue(row.getCell(c));
-                if (!txt.isBlank()) {
-                    header.append(' ').append(txt.trim());
+                List<FactRow> changed = new ArrayList<>(chunk.size());
+                for (FactRow row : chunk) {
+                    rows++;
+                    stats.add(row);
+                    String key = FactRepo.factKey(row.scope(), row.branch(), row.metric());
+                    FactRepo.StoredValue incoming = new FactRepo.StoredValue(toStoredScale(row.val()), row.sourceFile());
+                    FactRepo.StoredValue previous = stored.put(key, incoming);
+                    if (previous == null) {
+                        inserted++;
+                    } else if (sameValue(previous, incoming)) {
+                        continue;
+                    } else {
+                        updated++;
+                    }
+                    changed.add(row);
                 }
+                factRepo.upsertBatch(changed);
             }
-            String metric = HeaderResolver.resolveMetric(header.toString());
-            if (metric != null) {
-                metricByCol.put(c, metric);
-            }
-        }
-
-        int dataStart = headerDepth + 1;
-        List<FactRow> rows = new ArrayList<>();
-        List<String> warnings = new ArrayList<>();
-        int unknownCount = 0;
-
-        for (int r = dataStart; r <= sheet.getLastRowNum(); r++) {
-            Row row = sheet.getRow(r);
-            if (row == null) {
-                continue;
-            }
-
-            String rawBranch = formatter.formatCellValue(row.getCell(branchCol));
-            BranchNormalizeUtil.BranchNormalized normalized = BranchNormalizeUtil.normalize(rawBranch);
-            String displayBranch = normalized.displayCandidate();
-            String normKey = normalized.normKey();
-            if (displayBranch.isBlank()) {
-                continue;
-            }
-            if (INVALID_BRANCH.stream().anyMatch(displayBranch::contains)) {
-                continue;
+            if (loadId != null && staged > 0) {
+                // 同一文件内的重复键只按最终值计一次，其余计入 unchanged
+                int[] changes = factRepo.countStagedChanges(loadId, task.bizDate());
+                inserted = changes[0];
+                updated = changes[1];
+                if (inserted + updated > 0) {
+                    factRepo.mergeStagedRows(loadId, task.bizDate());
+                }
+                factRepo.clearStagedRows(loadId);
             }
-
-            ResolveBranchResult resolved = resolveBranch(rawBranch, displayBranch, normKey, aliasRawMap, aliasNormMap, canonicalBranches);
-            if (resolved.rejectReason() != null) {
-                unknownCount++;
-                String reason = resolved.rejectReason();
-                factRepo.logImportReject(sourceFile, r + 1, rawBranch == null ? "" : rawBranch, normKey, reason);
-                warnings.add("[WARN] file=" + sourceFile + " row=" + (r + 1) + " raw='" + rawBranch + "' norm='" + normKey + "' reason=" + reason + " fallback='" + resolved.canonBranch() + "'");
+            if (inserted + updated > 0) {
+                // 文件事务只写日表；其余读模型登记该日期，提交后由 ReadModelMaintainer 逐日串行刷新
+                readModels.markDirty(task.bizDate(), inserted > 0);
             }
-            if (resolved.canonBranch() == null || resolved.canonBranch().isBlank()) {
-                continue;
+            ReportSheetParser.Result result = channel.result();
+            UpsertOutcome outcome = new UpsertOutcome(inserted, updated, rows - inserted - updated);
+            List<FactRepo.ImportReject> rejects = result.rejects();
+            for (int i = 0; i < rejects.size(); i += UPSERT_BATCH_SIZE) {
+                factRepo.logImportRejects(rejects.subList(i, Math.min(i + UPSERT_BATCH_SIZE, rejects.size())));
             }
+            ingestLedgerRepo.record(new IngestLedgerRepo.LedgerEntry(
+                    task.contentHash(),
+                    task.file().sourceName(),
+                    task.bizDate(),
+                    rows,
+                    outcome.saved(),
+                    result.unknownCount(),
+                    fileSize,
+                    task.aliasFingerprint()
+            ));
+            return new FileWrite(outcome, stats, rows, result);
+        });
+    }
 
-            for (Map.Entry<Integer, String> entry : metricByCol.entrySet()) {
-                int c = entry.getKey();
-                String scope = DateUtil.normalizeScope(scopeByCol.getOrDefault(c, "PHY"));
-                Double val = parseNumeric(row.getCell(c), formatter);
-                if (val == null) {
-                    continue;
-                }
-                rows.add(new FactRow(bizDate, scope, resolved.canonBranch(), entry.getValue(), val, sourceFile, rawBranch, normKey));
-            }
+    private static List<FactRow> nextChunk(FileRowChannel channel) {
+        try {
+            return channel.next();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for parsed rows", ex);
         }
+    }
 
-        if (rows.isEmpty() && unknownCount == 0) {
-            throw new IllegalArgumentException("Parsed result is empty. Please check header and branch column.");
-        }
-        return new ParseResult(rows, unknownCount, warnings);
+    /** fact_metric_daily.val 为 DECIMAL(20,4)，按同样精度比较才能识别未变化的行 */
+    private static BigDecimal toStoredScale(Double val) {
+        return val == null ? null : BigDecimal.valueOf(val).setScale(4, RoundingMode.HALF_UP);
     }
 
-    private ResolveBranchResult resolveBranch(
-            String rawBranch,
-            String displayBranch,
-            String normKey,
-            Map<String, String> aliasRawMap,
-            Map<String, String> aliasNormMap,
-            Set<String> canonicalBranches
-    ) {
-        String trimmedRaw = rawBranch == null ? "" : rawBranch.trim();
-        String canonical = aliasRawMap.get(displayBranch);
-        if (canonical == null && !trimmedRaw.isBlank()) {
-            canonical = aliasRawMap.get(trimmedRaw);
-        }
-        if (canonical == null && !normKey.isBlank()) {
-            canonical = aliasNormMap.get(normKey);
-        }
-        if (canonical == null && canonicalBranches.contains(displayBranch)) {
-            canonical = displayBranch;
+    private static boolean sameValue(FactRepo.StoredValue previous, FactRepo.StoredValue incoming) {
+        boolean sameVal = previous.val() == null
+                ? incoming.val() == null
+                : incoming.val() != null && previous.val().compareTo(incoming.val()) == 0;
+        return sameVal && Objects.equals(previous.sourceFile(), incoming.sourceFile());
+    }
+
+    public List<Map<String, Object>> partitions() {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (FactPartitionRepo.PartitionRange p : partitionRepo.findPartitions()) {
+            rows.add(Map.of(
+                    "name", p.name(),
+                    "from", p.from() == null ? "" : p.from().toString(),
+                    "to", p.to() == null ? "MAXVALUE" : p.to().toString(),
+                    "estimatedRows", p.rows()
+            ));
         }
-        if (canonical == null) {
-            return new ResolveBranchResult(displayBranch, "no_alias_mapping");
+        return rows;
+    }
+
+    /** month 形如 2024-01 或 202401；由 ImportJobService 在导入线程上调用，与导入作业串行 */
+    public Map<String, Object> archiveMonth(String month) {
+        YearMonth target;
+        try {
+            String m = month == null ? "" : month.trim();
+            target = YearMonth.parse(m.length() == 6 ? m.substring(0, 4) + "-" + m.substring(4) : m);
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("month 格式应为 yyyy-MM：" + month);
         }
-        if (!canonicalBranches.contains(canonical)) {
-            return new ResolveBranchResult(canonical, "branch_not_enabled:" + canonical);
+        if (!target.isBefore(YearMonth.now())) {
+            throw new IllegalArgumentException("只能归档已结束的月份：" + target);
         }
-        return new ResolveBranchResult(canonical, null);
+        FactPartitionRepo.ArchiveResult result = readModels.archiveMonth(target);
+        log.info("archived month={} partition={} table={} rows={} ledgerCleared={}",
+                result.month(), result.partition(), result.archiveTable(), result.archivedRows(), result.clearedLedgerRows());
+        return Map.of(
+                "month", result.month(),
+                "partition", result.partition(),
+                "archiveTable", result.archiveTable(),
+                "archivedRows", result.archivedRows(),
+                "clearedLedgerRows", result.clearedLedgerRows()
+        );
     }
 
-    private int detectHeaderDepth(Sheet sheet, DataFormatter formatter) {
-        int max = Math.min(12, sheet.getLastRowNum());
-        int depth = 5;
-        for (int r = 0; r <= max; r++) {
-            Row row = sheet.getRow(r);
-            if (row == null) {
-                continue;
-            }
-            String line = rowToText(row, formatter).replace(" ", "");
-            if (line.contains("\u5b9e\u4f53\u8d37\u6b3e")
-                    || line.contains("\u7eaf\u8d26\u9762")
-                    || line.contains("\u8fd8\u539f")
-                    || line.contains("\u8f83\u4e0a\u65e5")
-                    || line.contains("\u8f83\u4e0a\u6708")
-                    || line.contains("\u8f83\u5e74\u521d")
-                    || line.contains("\u589e\u91cf\u8f83\u540c\u671f")
-                    || line.contains("\u589e\u5e45")
-                    || line.contains("\u6237\u6570")
-                    || line.contains("\u4f59\u989d")
-                    || line.contains("\u5355\u4f4d")) {
-                depth = r;
-            }
-        }
-        return depth;
+    @PreDestroy
+    void shutdownPools() {
+        parsePool.shutdownNow();
+        writePool.shutdownNow();
     }
 
-    private int detectBranchCol(Sheet sheet, DataFormatter formatter, int headerDepth) {
-        int maxCol = 0;
-        for (int r = 0; r <= headerDepth; r++) {
-            Row row = sheet.getRow(r);
-            if (row != null && row.getLastCellNum() > maxCol) {
-                maxCol = row.getLastCellNum();
-            }
+    private static Throwable rootCause(Throwable throwable) {
+        Throwable current = throwable;
+        while (current.getCause() != null && current.getCause() != current) {
+            current = current.getCause();
         }
+        return current;
+    }
 
-        for (int r = 0; r <= headerDepth; r++) {
-            Row row = sheet.getRow(r);
-            if (row == null) {
-                continue;
-            }
-            for (int c = 0; c < Math.max(maxCol, row.getLastCellNum()); c++) {
-                String t = formatter.formatCellValue(row.getCell(c)).trim();
-                if ("\u7f51\u70b9".equals(t) || t.contains("\u5355\u4f4d")) {
-                    return c;
-                }
-            }
+    private String extractBizDate(String source) {
+        String normalized = DateUtil.normalizeDate(source);
+        if (normalized != null) {
+            return normalized;
         }
+        Matcher m = DATE_PATTERN.matcher(source);
+        if (!m.find()) {
+            return null;
+        }
+        return DateUtil.normalizeDate(m.group(1) + "-" + m.group(2) + "-" + m.group(3));
+    }
 
-        int dataStart = headerDepth + 1;
-        int sampleEnd = Math.min(sheet.getLastRowNum(), dataStart + 10);
-        int[] scores = new int[Math.max(maxCol, 2)];
+    /** ABORT：任一文件失败即停止调度后续文件并使作业失败；CONTINUE：记录失败文件并继续导入其余文件 */
+    public enum FailureMode {
+        ABORT,
+        CONTINUE
+    }
 
-        for (int r = dataStart; r <= sampleEnd; r++) {
-            Row row = sheet.getRow(r);
-            if (row == null) {
-                continue;
-            }
-            for (int c = 0; c < scores.length; c++) {
-                String text = formatter.formatCellValue(row.getCell(c)).trim();
-                if (!text.isBlank() && looksLikeBranch(text)) {
-                    scores[c]++;
-                }
-            }
-        }
+    /** UPSERT：分批 INSERT ... ON DUPLICATE KEY UPDATE；BULK：暂存表 + 按业务日期集合式合并，适合历史回灌 */
+    public enum LoadMode {
+        UPSERT,
+        BULK
+    }
 
-        int bestCol = 0;
-        int bestScore = -1;
-        for (int c = 0; c < scores.length; c++) {
-            if (scores[c] > bestScore) {
-                bestScore = scores[c];
-                bestCol = c;
-            }
+    /**
+     * force=true 时忽略导入台账，内容相同的文件也重新解析入库；
+     * loadMode 为 null 时使用 app.ingest.load-mode。
+     */
+    public record IngestOptions(boolean force, LoadMode loadMode) {
+        public static IngestOptions defaults() {
+            return new IngestOptions(false, null);
         }
-        return bestCol;
     }
 
-    private boolean looksLikeBranch(String s) {
-        if (s.length() < 2) {
-            return false;
-        }
-        return s.contains("\u652f\u884c")
-                || s.contains("\u5206\u7406\u5904")
-                || s.contains("\u8425\u4e1a\u90e8")
-                || s.contains("\u4fe1\u7528\u793e")
-                || !s.matches(".*\\d.*");
+    public record FileReport(String sourceName, String status, String detail) {
     }
 
-    private String rowToText(Row row, DataFormatter formatter) {
-        StringBuilder sb = new StringBuilder();
-        short last = row.getLastCellNum();
-        for (int c = 0; c < last; c++) {
-            String t = formatter.formatCellValue(row.getCell(c));
-            if (!t.isBlank()) {
-                sb.append(t).append(' ');
-            }
-        }
-        return sb.toString();
+    private record FileTask(ImportJobService.StoredUpload file, String contentHash, String bizDate, String aliasFingerprint) {
     }
 
-    private Map<Integer, String> detectScopeByColumn(Sheet sheet, int maxCol, DataFormatter formatter) {
-        Map<Integer, String> res = new HashMap<>();
-        int adjStart = maxCol / 2;
+    private record FileWrite(UpsertOutcome upserts, FileStats stats, int rows, ReportSheetParser.Result result) {
+    }
 
-        for (int r = 0; r <= Math.min(8, sheet.getLastRowNum()); r++) {
-            Row row = sheet.getRow(r);
-            if (row == null) {
-                continue;
-            }
-            for (int c = 0; c < maxCol; c++) {
-                String t = formatter.formatCellValue(row.getCell(c)).replace(" ", "");
-                if (t.contains("\u8fd8\u539f") || t.contains("\u5265\u8f6c") || t.contains("\u6838\u9500")) {
-                    adjStart = Math.min(adjStart, c);
-                }
-            }
+    /** 逐行 upsert 结果：新增 / 值或来源文件有变化 / 与库中完全一致（不写库） */
+    private record UpsertOutcome(int inserted, int updated, int unchanged) {
+        static final UpsertOutcome NONE = new UpsertOutcome(0, 0, 0);
+
+        int saved() {
+            return inserted + updated;
         }
 
-        for (int c = 0; c < maxCol; c++) {
-            res.put(c, c >= adjStart ? "ADJ" : "PHY");
+        UpsertOutcome plus(UpsertOutcome other) {
+            return new UpsertOutcome(inserted + other.inserted, updated + other.updated, unchanged + other.unchanged);
         }
-        return res;
     }
 
-    private Double parseNumeric(Cell cell, DataFormatter formatter) {
-        if (cell == null) {
-            return null;
-        }
-        if (cell.getCellType() == CellType.NUMERIC) {
-            return cell.getNumericCellValue();
+    /** [STAT] 分组计数：写入时逐行累加，同一 (biz_date, scope, branch, metric) 只计一次，与落库行数一致 */
+    private static final class FileStats {
+        private final Map<String, Long> byBizDate = new HashMap<>();
+        private final Map<String, Long> byScope = new HashMap<>();
+        private final Map<String, Long> byMetric = new HashMap<>();
+        private final Set<String> seen = new HashSet<>();
+
+        void add(FactRow row) {
+            if (!seen.add(row.bizDate() + "|" + FactRepo.factKey(row.scope(), row.branch(), row.metric()))) {
+                return;
+            }
+            byBizDate.merge(row.bizDate(), 1L, Long::sum);
+            byScope.merge(row.scope(), 1L, Long::sum);
+            byMetric.merge(row.metric(), 1L, Long::sum);
         }
-        String raw = formatter.formatCellValue(cell);
-        if (raw == null || raw.isBlank()) {
-            return null;
+
+        Map<String, Long> byBizDate() {
+            return sortedByCount(byBizDate);
         }
-        String s = raw.replace(",", "").replace("%", "").trim();
-        try {
-            return Double.parseDouble(s);
-        } catch (NumberFormatException ex) {
-            return null;
+
+        Map<String, Long> byScope() {
+            return sortedByCount(byScope);
         }
-    }
 
-    private String extractBizDate(String source) {
-        String normalized = DateUtil.normalizeDate(source);
-        if (normalized != null) {
-            return normalized;
+        Map<String, Long> byMetric() {
+            return sortedByCount(byMetric);
         }
-        Matcher m = DATE_PATTERN.matcher(source);
-        if (!m.find()) {
-            return null;
+
+        /** 与原 GROUP BY ... ORDER BY cnt DESC, group_key 的输出顺序一致 */
+        private static Map<String, Long> sortedByCount(Map<String, Long> counts) {
+            Map<String, Long> sorted = new LinkedHashMap<>();
+            counts.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .forEachOrdered(e -> sorted.put(e.getKey(), e.getValue()));
+            return sorted;
         }
-        return DateUtil.normalizeDate(m.group(1) + "-" + m.group(2) + "-" + m.group(3));
     }
 
-    private String extractBizDateFromSheet(Sheet sheet) {
-        DataFormatter formatter = new DataFormatter();
-        try {
-            Row r = sheet.getRow(1);
-            if (r != null) {
-                String t = formatter.formatCellValue(r.getCell(1)).trim();
-                String d = DateUtil.normalizeDate(t);
-                if (d != null) {
-                    return d;
-                }
-            }
-        } catch (Exception ignored) {
+    private record FileOutcome(String source,
+                               String status,
+                               int rows,
+                               UpsertOutcome upserts,
+                               int unknown,
+                               List<String> messages,
+                               Throwable error) {
+        static FileOutcome skipped(String source, String reason) {
+            return new FileOutcome(source, STATUS_SKIP, 0, UpsertOutcome.NONE, 0, List.of("[SKIP] " + source + ": " + reason), null);
         }
 
-        for (int r = 0; r <= Math.min(8, sheet.getLastRowNum()); r++) {
-            Row row = sheet.getRow(r);
-            if (row == null) {
-                continue;
-            }
-            for (int c = 0; c < row.getLastCellNum(); c++) {
-                String t = formatter.formatCellValue(row.getCell(c)).trim();
-                String d = DateUtil.normalizeDate(t);
-                if (d != null) {
-                    return d;
-                }
-            }
+        static FileOutcome failed(String source, Throwable error) {
+            Throwable root = rootCause(error);
+            String reason = root.getMessage() == null ? root.getClass().getSimpleName() : root.getMessage();
+            return new FileOutcome(source, STATUS_ERR, 0, UpsertOutcome.NONE, 0, List.of("[ERR] " + source + ": " + reason), error);
         }
-        return null;
-    }
-
-    private record ParseResult(List<FactRow> rows, int unknownCount, List<String> warnings) {
-    }
 
-    private record ResolveBranchResult(String canonBranch, String rejectReason) {
+        FileReport report() {
+            return new FileReport(source, status, messages.isEmpty() ? "" : messages.get(0));
+        }
     }
 }
@@ -0,0 +1,200 @@
+package com.example.loantrendhub.service;
+
+import com.example.loantrendhub.model.MetricDef;
+import com.example.loantrendhub.repo.FactKeyDictionary;
+import com.example.loantrendhub.repo.FactRepo;
+import com.example.loantrendhub.repo.MetaRepo;
+import com.example.loantrendhub.repo.ScopeStatRepo;
+import com.example.loantrendhub.util.BranchNormalizeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 目录元数据快照：有数据的口径、启用网点、网点别名、指标定义，整体构建一次后只读，变更时整体替换。
+ * 查询路径只读快照不查库；导入提交后失效（可能出现新口径、新指标），导入作业开始时重建一次，
+ * 直接改库维护的别名与网点仍在下一次导入时生效；其余手工变更，以及启用或停用网点（指标覆盖只计启用网点，须整表重算），
+ * 调用 POST /api/meta/reload。
+ */
+@Service
+public class MetadataCache {
+    private static final Logger log = LoggerFactory.getLogger(MetadataCache.class);
+
+    private final FactRepo factRepo;
+    private final MetaRepo metaRepo;
+    private final ScopeStatRepo statRepo;
+    private final FactKeyDictionary dictionary;
+    /** null 表示需要重建 */
+    private volatile Snapshot snapshot;
+    /** 每次失效加一；构建期间发生失效时不采用构建结果 */
+    private final AtomicLong generation = new AtomicLong();
+
+    public MetadataCache(FactRepo factRepo, MetaRepo metaRepo, ScopeStatRepo statRepo, FactKeyDictionary dictionary) {
+        this.factRepo = factRepo;
+        this.metaRepo = metaRepo;
+        this.statRepo = statRepo;
+        this.dictionary = dictionary;
+    }
+
+    public Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        long builtAt = generation.get();
+        current = build();
+        synchronized (this) {
+            // 库未初始化完成时不缓存，初始化后下一次请求即可恢复
+            if (current.ready() && generation.get() == builtAt) {
+                snapshot = current;
+            }
+        }
+        return current;
+    }
+
+    /** 立即重建并替换；维度字典一并重载，此前记下的未知名称重新查库 */
+    public Snapshot reload() {
+        dictionary.reload();
+        invalidate();
+        return current();
+    }
+
+    public synchronized void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    /** 在读模型刷新事务内调用：提交后失效，回滚则保留当前快照 */
+    public void invalidateAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate();
+            }
+        });
+    }
+
+    private Snapshot build() {
+        long started = System.currentTimeMillis();
+        boolean ready = factRepo.countEnabledBranches() > 0
+                && factRepo.countBranchAlias() > 0
+                && factRepo.countMetricDefs() > 0
+                && factRepo.factTableExists();
+        List<String> enabledBranches = List.copyOf(factRepo.findAllBranches());
+        List<String> displayBranches = enabledBranches.stream()
+                .map(BranchNormalizeUtil::normalizeDisplay)
+                .filter(v -> v != null && !v.isBlank())
+                .distinct()
+                .toList();
+        Map<String, String> aliasRawMap = factRepo.findBranchAliasRawMap();
+        Map<String, String> aliasNormMap = factRepo.findBranchAliasNormMap();
+        List<MetricDef> metrics = List.copyOf(metaRepo.findMetrics());
+        Map<String, MetricDef> metricMap = new LinkedHashMap<>();
+        for (MetricDef metric : metrics) {
+            metricMap.put(metric.metric(), metric);
+        }
+        Snapshot built = new Snapshot(
+                ready,
+                List.copyOf(statRepo.findScopes()),
+                enabledBranches,
+                displayBranches,
+                Set.copyOf(enabledBranches),
+                Collections.unmodifiableMap(aliasNormMap),
+                BranchAliasIndex.build(aliasRawMap, aliasNormMap, Set.copyOf(enabledBranches),
+                        Set.copyOf(factRepo.findDictionaryBranches())),
+                metrics,
+                Collections.unmodifiableMap(metricMap)
+        );
+        log.info("metadata snapshot built ready={} scopes={} branches={} aliases={} metrics={} costMs={}",
+                ready, built.scopes().size(), enabledBranches.size(), aliasRawMap.size(), metrics.size(),
+                System.currentTimeMillis() - started);
+        return built;
+    }
+
+    /** 发布后只读 */
+    public static final class Snapshot {
+        private final boolean ready;
+        private final List<String> scopes;
+        private final List<String> enabledBranches;
+        private final List<String> displayBranches;
+        private final Set<String> enabledBranchSet;
+        private final Map<String, String> aliasNormMap;
+        private final BranchAliasIndex aliasIndex;
+        private final List<MetricDef> metrics;
+        private final Map<String, MetricDef> metricMap;
+
+        private Snapshot(boolean ready,
+                         List<String> scopes,
+                         List<String> enabledBranches,
+                         List<String> displayBranches,
+                         Set<String> enabledBranchSet,
+                         Map<String, String> aliasNormMap,
+                         BranchAliasIndex aliasIndex,
+                         List<MetricDef> metrics,
+                         Map<String, MetricDef> metricMap) {
+            this.ready = ready;
+            this.scopes = scopes;
+            this.enabledBranches = enabledBranches;
+            this.displayBranches = displayBranches;
+            this.enabledBranchSet = enabledBranchSet;
+            this.aliasNormMap = aliasNormMap;
+            this.aliasIndex = aliasIndex;
+            this.metrics = metrics;
+            this.metricMap = metricMap;
+        }
+
+        /** 网点、别名、指标字典均已初始化且事实表存在 */
+        public boolean ready() {
+            return ready;
+        }
+
+        /** 有数据的口径，按名称排序 */
+        public List<String> scopes() {
+            return scopes;
+        }
+
+        /** 启用网点的标准名，按 sort_no 排序 */
+        public List<String> enabledBranches() {
+            return enabledBranches;
+        }
+
+        /** 启用网点的展示名（规范化、去重） */
+        public List<String> displayBranches() {
+            return displayBranches;
+        }
+
+        public boolean isEnabledBranch(String branch) {
+            return enabledBranchSet.contains(branch);
+        }
+
+        /** 规范键 → 标准网点名 */
+        public Map<String, String> aliasNormMap() {
+            return aliasNormMap;
+        }
+
+        BranchAliasIndex aliasIndex() {
+            return aliasIndex;
+        }
+
+        public List<MetricDef> metrics() {
+            return metrics;
+        }
+
+        public Map<String, MetricDef> metricMap() {
+            return metricMap;
+        }
+    }
+}
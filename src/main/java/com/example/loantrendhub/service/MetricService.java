@@ -1,27 +1,25 @@
 package com.example.loantrendhub.service;
 
 import com.example.loantrendhub.model.MetricDef;
-import com.example.loantrendhub.repo.MetaRepo;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
+/** 指标定义取自元数据快照，返回的集合只读 */
 @Service
 public class MetricService {
-    private final MetaRepo metaRepo;
+    private final MetadataCache metadataCache;
 
-    public MetricService(MetaRepo metaRepo) {
-        this.metaRepo = metaRepo;
+    public MetricService(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
     }
 
     public List<MetricDef> listMetrics() {
-        return metaRepo.findMetrics();
+        return metadataCache.current().metrics();
     }
 
     public Map<String, MetricDef> metricMap() {
-        return listMetrics().stream().collect(Collectors.toMap(MetricDef::metric, Function.identity()));
+        return metadataCache.current().metricMap();
     }
 }
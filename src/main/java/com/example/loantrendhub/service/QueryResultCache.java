@@ -0,0 +1,160 @@
+package com.example.loantrendhub.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * 查询结果缓存：热力图与趋势按规范化参数（解析后的口径、排序后的指标、解析后的网点、日期窗口、粒度）缓存计算结果。
+ * 条目数与估算字节数两道上限，超出时淘汰最久未用的条目；数据版本号（DataGeneration）变化后整体作废。
+ * 同一版本下相同键的并发未命中只计算一次，其余请求等待其结果。缓存的值发布后只读。
+ */
+@Service
+public class QueryResultCache {
+    private final DataGeneration dataGeneration;
+    private final int maxEntries;
+    private final long maxBytes;
+    /** 访问顺序，链表头为最久未用；以下字段由 this 保护 */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long generation;
+    private long weight;
+    private final Map<Flight, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public QueryResultCache(DataGeneration dataGeneration,
+                            @Value("${app.query.cache.max-entries:512}") int maxEntries,
+                            @Value("${app.query.cache.max-mb:64}") int maxMb) {
+        this.dataGeneration = dataGeneration;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxBytes = Math.max(0, maxMb) * 1024L * 1024L;
+        this.generation = dataGeneration.current();
+    }
+
+    /** parts 须为不可变值（字符串、枚举、List.copyOf 等），按顺序参与比较 */
+    public static Key key(String kind, Object... parts) {
+        return new Key(kind, Arrays.asList(parts.clone()));
+    }
+
+    /** 命中直接返回；未命中时调用 loader，并按 weigher 估算的字节数收录 */
+    @SuppressWarnings("unchecked")
+    public <V> V get(Key key, Supplier<V> loader, ToLongFunction<? super V> weigher) {
+        if (maxEntries == 0 || maxBytes == 0) {
+            return loader.get();
+        }
+        long gen = dataGeneration.current();
+        synchronized (this) {
+            advance(gen);
+            Entry entry = gen == generation ? entries.get(key) : null;
+            if (entry != null) {
+                hits.incrementAndGet();
+                return (V) entry.value;
+            }
+        }
+        Flight flight = new Flight(gen, key);
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = loading.putIfAbsent(flight, mine);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return (V) await(running);
+        }
+        misses.incrementAndGet();
+        try {
+            V value = loader.get();
+            mine.complete(value);
+            put(gen, key, value, weigher.applyAsLong(value));
+            return value;
+        } catch (RuntimeException | Error ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(flight, mine);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get() + coalesced.get();
+        synchronized (this) {
+            return Map.ofEntries(
+                    Map.entry("generation", generation),
+                    Map.entry("entries", entries.size()),
+                    Map.entry("weightBytes", weight),
+                    Map.entry("maxEntries", maxEntries),
+                    Map.entry("maxBytes", maxBytes),
+                    Map.entry("hits", hitCount),
+                    Map.entry("misses", misses.get()),
+                    Map.entry("coalesced", coalesced.get()),
+                    Map.entry("evictions", evictions.get()),
+                    Map.entry("invalidations", invalidations.get()),
+                    Map.entry("hitRatio", lookups == 0 ? 0d : (double) hitCount / lookups)
+            );
+        }
+    }
+
+    /** 计算开始时的版本号已过时则不收录，避免旧数据挂到新版本下 */
+    private synchronized void put(long gen, Key key, Object value, long bytes) {
+        advance(gen);
+        if (gen != generation || gen != dataGeneration.current() || bytes > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, bytes));
+        weight += bytes - (previous == null ? 0 : previous.bytes);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || weight > maxBytes) && eldest.hasNext()) {
+            weight -= eldest.next().bytes;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /** 版本号只进不退：看到更新的版本时清空全部条目 */
+    private void advance(long gen) {
+        if (gen <= generation) {
+            return;
+        }
+        if (!entries.isEmpty()) {
+            invalidations.incrementAndGet();
+            entries.clear();
+        }
+        weight = 0;
+        generation = gen;
+    }
+
+    private static Object await(CompletableFuture<Object> running) {
+        try {
+            return running.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw ex;
+        }
+    }
+
+    public record Key(String kind, List<Object> parts) {
+    }
+
+    private record Flight(long generation, Key key) {
+    }
+
+    private record Entry(Object value, long bytes) {
+    }
+}
@@ -1,10 +1,20 @@
 package com.example.loantrendhub.service;
 
-import com.example.loantrendhub.model.FactRow;
+import com.example.loantrendhub.model.ColumnarHeatmap;
+import com.example.loantrendhub.model.ColumnarSeries;
+import com.example.loantrendhub.model.Granularity;
 import com.example.loantrendhub.model.HeatmapResponse;
 import com.example.loantrendhub.model.MetricDef;
 import com.example.loantrendhub.model.SeriesResponse;
+import com.example.loantrendhub.repo.BizCalendarRepo;
+import com.example.loantrendhub.repo.BranchSnapshotRepo;
+import com.example.loantrendhub.repo.DerivedMetricRepo;
+import com.example.loantrendhub.repo.FactCube;
 import com.example.loantrendhub.repo.FactRepo;
+import com.example.loantrendhub.repo.MetricCoverageRepo;
+import com.example.loantrendhub.repo.MetricRollupRepo;
+import com.example.loantrendhub.repo.ScopeStatRepo;
+import com.example.loantrendhub.repo.SeriesGrid;
 import com.example.loantrendhub.util.BranchNormalizeUtil;
 import com.example.loantrendhub.util.BranchNormalizer;
 import com.example.loantrendhub.util.DateUtil;
@@ -17,14 +27,14 @@ import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 public class QueryService {
@@ -32,28 +42,70 @@ public class QueryService {
     private static final double EPSILON = 1e-9;
     private static final Logger log = LoggerFactory.getLogger(QueryService.class);
     private final FactRepo factRepo;
+    private final BranchSnapshotRepo snapshotRepo;
+    private final MetricRollupRepo rollupRepo;
+    private final DerivedMetricRepo derivedRepo;
+    private final BizCalendarRepo calendarRepo;
+    private final ScopeStatRepo statRepo;
+    private final FactCube factCube;
+    private final MetricCoverageRepo coverageRepo;
     private final MetricService metricService;
+    private final MetadataCache metadataCache;
+    private final ReadModelMaintainer readModels;
+    private final QueryResultCache resultCache;
     private final int maxBranchSeries;
     private final int maxPoints;
 
     public QueryService(FactRepo factRepo,
+                        BranchSnapshotRepo snapshotRepo,
+                        MetricRollupRepo rollupRepo,
+                        DerivedMetricRepo derivedRepo,
+                        BizCalendarRepo calendarRepo,
+                        ScopeStatRepo statRepo,
+                        FactCube factCube,
+                        MetricCoverageRepo coverageRepo,
                         MetricService metricService,
+                        MetadataCache metadataCache,
+                        ReadModelMaintainer readModels,
+                        QueryResultCache resultCache,
                         @Value("${app.query.max-branch-series:200}") int maxBranchSeries,
                         @Value("${app.query.max-points:200000}") int maxPoints) {
         this.factRepo = factRepo;
+        this.snapshotRepo = snapshotRepo;
+        this.rollupRepo = rollupRepo;
+        this.derivedRepo = derivedRepo;
+        this.calendarRepo = calendarRepo;
+        this.statRepo = statRepo;
+        this.factCube = factCube;
+        this.coverageRepo = coverageRepo;
         this.metricService = metricService;
+        this.metadataCache = metadataCache;
+        this.readModels = readModels;
+        this.resultCache = resultCache;
         this.maxBranchSeries = maxBranchSeries;
         this.maxPoints = maxPoints;
     }
 
-    private void ensureMetadataReady() {
-        int branchCount = factRepo.countEnabledBranches();
-        int aliasCount = factRepo.countBranchAlias();
-        int metricCount = factRepo.countMetricDefs();
-        boolean factExists = factRepo.factTableExists();
-        if (branchCount <= 0 || aliasCount <= 0 || metricCount <= 0 || !factExists) {
+    private MetadataCache.Snapshot ensureMetadataReady() {
+        MetadataCache.Snapshot metadata = metadataCache.current();
+        if (!metadata.ready()) {
             throw new MetadataNotReadyException("数据库初始化未完成，请检查 schema-mysql.sql 是否执行");
         }
+        return metadata;
+    }
+
+    /** 手工维护网点、别名、指标定义后重建元数据快照；指标覆盖只计启用网点，一并整表重算 */
+    public Map<String, Object> reloadMetadata() {
+        int coverageRows = readModels.rebuildCoverage();
+        MetadataCache.Snapshot metadata = metadataCache.reload();
+        return Map.of(
+                "ready", metadata.ready(),
+                "coverageRows", coverageRows,
+                "scopes", metadata.scopes().size(),
+                "branches", metadata.enabledBranches().size(),
+                "aliases", metadata.aliasNormMap().size(),
+                "metrics", metadata.metrics().size()
+        );
     }
 
     public Map<String, Object> dateRange() {
@@ -63,7 +115,7 @@ public class QueryService {
     public Map<String, Object> dateRangeByScope(String scope) {
         ensureMetadataReady();
         String resolvedScope = scope == null || scope.isBlank() ? "" : resolveScope(scope);
-        Map<String, String> raw = resolvedScope.isBlank() ? factRepo.dateRange() : factRepo.dateRangeByScope(resolvedScope);
+        Map<String, String> raw = statRepo.dateRange(resolvedScope);
         String min = raw.getOrDefault("min", "");
         String max = raw.getOrDefault("max", "");
         boolean hasData = min != null && !min.isBlank() && max != null && !max.isBlank();
@@ -76,15 +128,14 @@ public class QueryService {
     }
 
     public List<String> scopes() {
-        ensureMetadataReady();
-        return factRepo.findScopes();
+        return ensureMetadataReady().scopes();
     }
 
     public List<Map<String, Object>> scopeStats(String targetDate) {
         ensureMetadataReady();
-        List<FactRepo.ScopeStat> stats = factRepo.findScopeStats(targetDate);
+        List<ScopeStatRepo.ScopeStat> stats = statRepo.findScopeStats(targetDate);
         List<Map<String, Object>> rows = new ArrayList<>();
-        for (FactRepo.ScopeStat stat : stats) {
+        for (ScopeStatRepo.ScopeStat stat : stats) {
             rows.add(Map.of(
                     "key", stat.scope(),
                     "name", scopeDisplayName(stat.scope()),
@@ -97,23 +148,17 @@ public class QueryService {
         return rows;
     }
 
+    /** 网点字典不分口径，所有口径共用启用网点 */
     public List<String> branches(String scope) {
-        ensureMetadataReady();
-        String resolvedScope = resolveScope(scope);
-        return factRepo.findBranches(resolvedScope).stream()
-                .map(BranchNormalizeUtil::normalizeDisplay)
-                .filter(v -> v != null && !v.isBlank())
-                .distinct()
-                .toList();
+        return ensureMetadataReady().displayBranches();
     }
 
     public Map<String, Object> branchDiagnostics(String scope) {
-        return factRepo.branchDiagnostics(resolveScope(scope));
+        return statRepo.branchDiagnostics(resolveScope(scope));
     }
 
     public List<MetricDef> metrics() {
-        ensureMetadataReady();
-        return metricService.listMetrics();
+        return ensureMetadataReady().metrics();
     }
 
     public boolean metricAvailable(String scope, String metric) {
@@ -122,12 +167,12 @@ public class QueryService {
     }
 
     public Map<String, Object> meta() {
-        ensureMetadataReady();
+        MetadataCache.Snapshot metadata = ensureMetadataReady();
         Map<String, Object> dateRange = dateRange();
         String maxDate = String.valueOf(dateRange.getOrDefault("max", ""));
 
-        List<String> scopes = scopes();
-        List<String> cleanedBranches = factRepo.findAllBranches();
+        List<String> scopes = metadata.scopes();
+        List<String> cleanedBranches = metadata.enabledBranches();
         List<Map<String, Object>> scopeStats = scopeStats(maxDate);
 
         String suggestedScope = scopes.isEmpty() ? "" : scopes.get(0);
@@ -148,6 +193,51 @@ public class QueryService {
                 "dateRange", dateRange
         );
     }
+    /** 一致性检查：某日全部指标 × 启用网点，逐格比较立方体与库表 */
+    public Map<String, Object> verifyCube(String scope, String date) {
+        String resolvedScope = resolveScope(scope);
+        FactCube.View cube = factCube.view(resolvedScope);
+        String effectiveDate = (date == null || date.isBlank())
+                ? String.valueOf(dateRangeByScope(resolvedScope).getOrDefault("max", ""))
+                : date.trim();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("scope", resolvedScope);
+        result.put("date", effectiveDate);
+        result.put("cubeEnabled", cube != null);
+        if (cube == null || effectiveDate.isBlank()) {
+            return result;
+        }
+        List<String> branches = branches(resolvedScope);
+        List<String> metrics = metrics().stream().map(MetricDef::metric).toList();
+        Map<String, MetricDef> defs = metricService.metricMap();
+        Map<String, Double> fromCube = cubeHeatmapValues(cube, effectiveDate, branches, metrics, defs);
+        Map<String, Double> fromDb = dbHeatmapMatrixValues(resolvedScope, effectiveDate, branches, metrics, defs);
+        List<String> mismatches = new ArrayList<>();
+        int checked = 0;
+        int mismatchCount = 0;
+        for (String branch : branches) {
+            for (String metric : metrics) {
+                String key = branch + "\u0001" + metric;
+                Double a = fromCube.get(key);
+                Double b = fromDb.get(key);
+                if (b != null && !Double.isFinite(b)) {
+                    b = null;
+                }
+                checked++;
+                if (a == null ? b != null : b == null || Math.abs(a - b) > EPSILON) {
+                    mismatchCount++;
+                    if (mismatches.size() < 20) {
+                        mismatches.add(branch + "/" + metric + " cube=" + a + " db=" + b);
+                    }
+                }
+            }
+        }
+        result.put("cells", checked);
+        result.put("mismatchCount", mismatchCount);
+        result.put("mismatches", mismatches);
+        return result;
+    }
+
     public String latestHeatmapDate(String scope, List<String> metrics, String endDate) {
         String resolvedScope = resolveScope(scope);
 
@@ -174,46 +264,67 @@ public class QueryService {
             return null;
         }
 
+        // 按热力图的取值口径分层：DELTA/RATE 看派生层，其余看日表层；逐日一次位图比较
         Map<String, MetricDef> defs = metricService.metricMap();
-
-        List<String> dates = factRepo.findDatesDesc(resolvedScope).stream()
-                .filter(d -> d != null && !d.isBlank() && d.compareTo(upperBound) <= 0)
-                .toList();
-
-        for (String d : dates) {
-            Map<String, Double> matrixValues = buildHeatmapMatrixValues(resolvedScope, d, branches, selectedMetrics, defs);
-
-            boolean allMetricsReady = true;
-            for (String metric : selectedMetrics) {
-                boolean metricReady = branches.stream().anyMatch(branch -> {
-                    Double v = matrixValues.get(branch + "\u0001" + metric);
-                    return v != null && Double.isFinite(v);
-                });
-
-                if (log.isDebugEnabled()) {
-                    log.debug("latestHeatmapDate scope={} end={} date={} metric={} ready={}",
-                            resolvedScope, upperBound, d, metric, metricReady);
-                }
-
-                if (!metricReady) {
-                    allMetricsReady = false;
-                    break;
-                }
-            }
-
-            if (allMetricsReady) {
-                return d;
+        List<String> factMetrics = new ArrayList<>();
+        List<String> derivedMetrics = new ArrayList<>();
+        for (String metric : selectedMetrics) {
+            MetricDef md = defs.get(metric);
+            if (md != null && ("DELTA".equalsIgnoreCase(md.kind()) || "RATE".equalsIgnoreCase(md.kind()))) {
+                derivedMetrics.add(metric);
+            } else {
+                factMetrics.add(metric);
             }
         }
-
-        return null;
+        String latest = coverageRepo.latestCoveredDate(resolvedScope, factMetrics, derivedMetrics, upperBound);
+        if (log.isDebugEnabled()) {
+            log.debug("latestHeatmapDate scope={} end={} metrics={} date={}", resolvedScope, upperBound, selectedMetrics, latest);
+        }
+        return latest;
     }
 
+    /** 立方体可用时从内存取值，否则读库表 */
     private Map<String, Double> buildHeatmapMatrixValues(String scope,
                                                          String date,
                                                          List<String> branches,
                                                          List<String> selectedMetrics,
                                                          Map<String, MetricDef> defs) {
+        FactCube.View cube = factCube.view(scope);
+        if (cube != null) {
+            return cubeHeatmapValues(cube, date, branches, selectedMetrics, defs);
+        }
+        return dbHeatmapMatrixValues(scope, date, branches, selectedMetrics, defs);
+    }
+
+    /** 与 dbHeatmapMatrixValues 口径相同：DELTA/RATE 取派生层，其余取日表层 */
+    private Map<String, Double> cubeHeatmapValues(FactCube.View cube,
+                                                  String date,
+                                                  List<String> branches,
+                                                  List<String> selectedMetrics,
+                                                  Map<String, MetricDef> defs) {
+        Map<String, Double> values = new HashMap<>();
+        int idx = cube.indexOf(date);
+        if (idx < 0) {
+            return values;
+        }
+        for (String metric : selectedMetrics) {
+            MetricDef md = defs.get(metric);
+            boolean derived = md != null && ("DELTA".equalsIgnoreCase(md.kind()) || "RATE".equalsIgnoreCase(md.kind()));
+            double[][] series = derived ? cube.derivedByMetric(metric, branches) : cube.factByMetric(metric, branches);
+            for (int i = 0; i < series.length; i++) {
+                if (series[i] != null && Double.isFinite(series[i][idx])) {
+                    values.put(branches.get(i) + "\u0001" + metric, series[i][idx]);
+                }
+            }
+        }
+        return values;
+    }
+
+    private Map<String, Double> dbHeatmapMatrixValues(String scope,
+                                                      String date,
+                                                      List<String> branches,
+                                                      List<String> selectedMetrics,
+                                                      Map<String, MetricDef> defs) {
         List<String> rawMetrics = new ArrayList<>();
         List<String> derivedMetrics = new ArrayList<>();
         for (String metric : selectedMetrics) {
@@ -227,13 +338,21 @@ public class QueryService {
 
         Map<String, Double> matrixValues = new HashMap<>();
         if (!rawMetrics.isEmpty()) {
-            List<FactRepo.HeatmapCell> source = factRepo.findHeatmapMatrix(date, scope, rawMetrics);
+            List<String> wideMetrics = rawMetrics.stream().filter(BranchSnapshotRepo::covers).toList();
+            List<String> narrowMetrics = rawMetrics.stream().filter(m -> !BranchSnapshotRepo.covers(m)).toList();
+            List<FactRepo.HeatmapCell> source = new ArrayList<>();
+            if (!wideMetrics.isEmpty()) {
+                source.addAll(snapshotRepo.findHeatmapMatrix(date, scope, wideMetrics));
+            }
+            if (!narrowMetrics.isEmpty()) {
+                source.addAll(factRepo.findHeatmapMatrix(date, scope, narrowMetrics));
+            }
             for (FactRepo.HeatmapCell row : source) {
                 matrixValues.put(row.branch() + "\u0001" + row.metric(), row.val());
             }
         }
         if (!derivedMetrics.isEmpty()) {
-            matrixValues.putAll(computeDerivedHeatmapValues(scope, date, branches, derivedMetrics, defs));
+            matrixValues.putAll(computeDerivedHeatmapValues(scope, date, branches, derivedMetrics));
         }
         return matrixValues;
     }
@@ -310,20 +429,13 @@ public class QueryService {
         return 0d;
     }
     public HeatmapResponse heatmap(String scope, String date, List<String> metrics) {
-        String resolvedScope = resolveScope(scope);
-        List<String> selectedMetrics = (metrics == null ? List.<String>of() : metrics).stream()
-                .map(v -> v == null ? "" : v.trim())
-                .filter(v -> !v.isBlank())
-                .distinct()
-                .toList();
-
-        List<String> branches = branches(resolvedScope);
-        Map<String, MetricDef> defs = metricService.metricMap();
-
+        HeatmapMatrix matrix = heatmapMatrix(scope, date, metrics);
+        List<String> selectedMetrics = matrix.metrics();
+        List<String> branches = matrix.branches();
         if (selectedMetrics.isEmpty()) {
             return new HeatmapResponse(
                     date,
-                    resolvedScope,
+                    matrix.scope(),
                     List.of(),
                     branches,
                     -1d,
@@ -331,90 +443,39 @@ public class QueryService {
                     List.of(),
                     List.of(),
                     Map.of(),
-                    new HeatmapResponse.Meta(date, resolvedScope, "", 0, true)
+                    new HeatmapResponse.Meta(date, matrix.scope(), "", 0, true)
             );
         }
-        String effectiveDate = (date == null || date.isBlank())
-                ? latestHeatmapDate(resolvedScope, selectedMetrics, null)
-                : date;
-        Map<String, Double> matrixValues = buildHeatmapMatrixValues(resolvedScope, effectiveDate, branches, selectedMetrics, defs);
-        boolean hasAnyData = matrixValues.values().stream().anyMatch(v -> v != null && Double.isFinite(v));
-        if (!hasAnyData) {
-            String latest = latestHeatmapDate(resolvedScope, selectedMetrics, effectiveDate);
-            if (latest != null && !latest.isBlank() && !latest.equals(effectiveDate)) {
-                effectiveDate = latest;
-                matrixValues = buildHeatmapMatrixValues(resolvedScope, effectiveDate, branches, selectedMetrics, defs);
-            }
-        }
-        Map<String, Integer> metricIdx = new HashMap<>();
-        for (int i = 0; i < selectedMetrics.size(); i++) {
-            metricIdx.put(selectedMetrics.get(i), i);
-        }
-
-        Map<String, Integer> branchIdx = new HashMap<>();
-        for (int i = 0; i < branches.size(); i++) {
-            branchIdx.put(branches.get(i), i);
-        }
 
         List<List<Object>> data = new ArrayList<>();
         List<HeatmapResponse.Cell> cells = new ArrayList<>();
-        int dataRowCount = 0;
         int debugLogCount = 0;
-        Map<String, Double> metricMin = new HashMap<>();
-        Map<String, Double> metricMax = new HashMap<>();
-        for (String metric : selectedMetrics) {
-            Double minVal = null;
-            Double maxVal = null;
-            for (String branch : branches) {
-                Double v = matrixValues.get(branch + "\u0001" + metric);
-                if (v == null || !Double.isFinite(v)) {
-                    continue;
-                }
-                minVal = minVal == null ? v : Math.min(minVal, v);
-                maxVal = maxVal == null ? v : Math.max(maxVal, v);
-            }
-            metricMin.put(metric, minVal);
-            metricMax.put(metric, maxVal);
-        }
-        for (String branch : branches) {
-            Integer yi = branchIdx.get(branch);
-            if (yi == null) {
-                continue;
-            }
-            for (String metric : selectedMetrics) {
-                Integer xi = metricIdx.get(metric);
-                if (xi == null) {
-                    continue;
-                }
-                Double rawValue = matrixValues.get(branch + "\u0001" + metric);
-                boolean hasData = rawValue != null && Double.isFinite(rawValue);
-                Double safeRaw = hasData ? rawValue : null;
-                Double colorValue = hasData
-                        ? normalizeHeatColorValue(safeRaw, metricMin.get(metric), metricMax.get(metric), isLevelMetric(metric, defs))
-                        : null;
+        for (int yi = 0; yi < branches.size(); yi++) {
+            String branch = branches.get(yi);
+            for (int xi = 0; xi < selectedMetrics.size(); xi++) {
+                String metric = selectedMetrics.get(xi);
+                int idx = yi * selectedMetrics.size() + xi;
+                boolean hasData = Double.isFinite(matrix.raw()[idx]);
+                Double safeRaw = hasData ? matrix.raw()[idx] : null;
+                Double colorValue = hasData && !Double.isNaN(matrix.color()[idx]) ? matrix.color()[idx] : null;
                 data.add(Arrays.asList(xi, yi, colorValue, safeRaw, hasData));
                 cells.add(new HeatmapResponse.Cell(branch, metric, safeRaw, hasData));
                 if (hasData && debugLogCount < 8 && log.isDebugEnabled()) {
                     log.debug("heat cell metric={}, branch={}, raw={}, color={}", metric, branch, safeRaw, colorValue);
                     debugLogCount++;
                 }
-                if (hasData) {
-                    dataRowCount++;
-                }
             }
         }
 
-        boolean allNull = dataRowCount == 0;
-
         Map<String, HeatmapResponse.MetricMeta> metricDefs = new LinkedHashMap<>();
         for (String metric : selectedMetrics) {
-            MetricDef d = defs.get(metric);
+            MetricDef d = matrix.defs().get(metric);
             metricDefs.put(metric, d == null ? new HeatmapResponse.MetricMeta(metric, "") : new HeatmapResponse.MetricMeta(d.name(), d.unit()));
         }
 
         return new HeatmapResponse(
-                effectiveDate,
-                resolvedScope,
+                matrix.date(),
+                matrix.scope(),
                 selectedMetrics,
                 branches,
                 -1d,
@@ -422,50 +483,165 @@ public class QueryService {
                 data,
                 cells,
                 metricDefs,
+                matrix.meta()
+        );
+    }
+
+    /** v2 热力图：与 heatmap 取值、配色一致，按 fields 只输出需要的部分 */
+    public ColumnarHeatmap heatmapColumnar(String scope, String date, List<String> metrics, Set<ColumnarHeatmap.Field> fields) {
+        HeatmapMatrix matrix = heatmapMatrix(scope, date, metrics);
+        List<String> names = null;
+        List<String> units = null;
+        if (fields.contains(ColumnarHeatmap.Field.DEFS)) {
+            names = new ArrayList<>(matrix.metrics().size());
+            units = new ArrayList<>(matrix.metrics().size());
+            for (String metric : matrix.metrics()) {
+                MetricDef d = matrix.defs().get(metric);
+                names.add(d == null ? metric : d.name());
+                units.add(d == null ? "" : d.unit());
+            }
+        }
+        return new ColumnarHeatmap(
+                matrix.metrics().isEmpty() ? date : matrix.date(),
+                matrix.scope(),
+                matrix.metrics(),
+                matrix.branches(),
+                fields.contains(ColumnarHeatmap.Field.RAW) ? matrix.raw() : null,
+                fields.contains(ColumnarHeatmap.Field.COLOR) ? matrix.color() : null,
+                names,
+                units,
+                fields.contains(ColumnarHeatmap.Field.META) ? matrix.meta() : null
+        );
+    }
+
+    /** v2 趋势：取值与 multiTrend 相同 */
+    public ColumnarSeries multiTrendColumnar(String scope,
+                                             String metric,
+                                             List<String> branches,
+                                             String branch,
+                                             List<String> metrics,
+                                             String start,
+                                             String end,
+                                             Granularity grain,
+                                             MetricRollupRepo.Agg agg,
+                                             Set<ColumnarSeries.Field> fields) {
+        return ColumnarSeries.of(multiTrend(scope, metric, branches, branch, metrics, start, end, grain, agg), fields);
+    }
+
+    /** v2 增长率：取值与 growthSeries 相同 */
+    public ColumnarSeries growthSeriesColumnar(String scope,
+                                               String deltaMetric,
+                                               String baseMetric,
+                                               List<String> branches,
+                                               String start,
+                                               String end,
+                                               Granularity grain,
+                                               MetricRollupRepo.Agg agg,
+                                               Set<ColumnarSeries.Field> fields) {
+        return ColumnarSeries.of(growthSeries(scope, deltaMetric, baseMetric, branches, start, end, grain, agg), fields);
+    }
+
+    /**
+     * 热力图的取值与配色：raw/color 按网点逐行展开（下标 = 网点下标 × 指标数 + 指标下标），缺值为 NaN。
+     * date 为空时取所选指标全部就绪的最近日期；所给日期全无数据时回退到不晚于它的最近就绪日期。
+     * 结果按 (口径, 日期, 排序后的指标) 缓存，配色逐列独立，命中后按请求的指标顺序重排列。
+     */
+    private HeatmapMatrix heatmapMatrix(String scope, String date, List<String> metrics) {
+        String resolvedScope = resolveScope(scope);
+        List<String> selectedMetrics = (metrics == null ? List.<String>of() : metrics).stream()
+                .map(v -> v == null ? "" : v.trim())
+                .filter(v -> !v.isBlank())
+                .distinct()
+                .toList();
+
+        if (selectedMetrics.isEmpty()) {
+            return new HeatmapMatrix(date, resolvedScope, List.of(), branches(resolvedScope), new double[0], new double[0],
+                    metricService.metricMap(), new HeatmapResponse.Meta(date, resolvedScope, "", 0, true));
+        }
+        String requestedDate = date == null || date.isBlank() ? "" : date.trim();
+        List<String> sortedMetrics = selectedMetrics.stream().sorted().toList();
+        HeatmapMatrix matrix = resultCache.get(QueryResultCache.key("heatmap", resolvedScope, requestedDate, sortedMetrics),
+                () -> computeHeatmapMatrix(resolvedScope, requestedDate, sortedMetrics), HeatmapMatrix::estimatedBytes);
+        return matrix.reorder(selectedMetrics);
+    }
+
+    private HeatmapMatrix computeHeatmapMatrix(String resolvedScope, String date, List<String> selectedMetrics) {
+        List<String> branches = branches(resolvedScope);
+        Map<String, MetricDef> defs = metricService.metricMap();
+        String effectiveDate = (date == null || date.isBlank())
+                ? latestHeatmapDate(resolvedScope, selectedMetrics, null)
+                : date;
+        Map<String, Double> matrixValues = buildHeatmapMatrixValues(resolvedScope, effectiveDate, branches, selectedMetrics, defs);
+        boolean hasAnyData = matrixValues.values().stream().anyMatch(v -> v != null && Double.isFinite(v));
+        if (!hasAnyData) {
+            String latest = latestHeatmapDate(resolvedScope, selectedMetrics, effectiveDate);
+            if (latest != null && !latest.isBlank() && !latest.equals(effectiveDate)) {
+                effectiveDate = latest;
+                matrixValues = buildHeatmapMatrixValues(resolvedScope, effectiveDate, branches, selectedMetrics, defs);
+            }
+        }
+
+        int width = selectedMetrics.size();
+        double[] raw = new double[branches.size() * width];
+        double[] color = new double[raw.length];
+        Arrays.fill(raw, Double.NaN);
+        Arrays.fill(color, Double.NaN);
+        int dataRowCount = 0;
+        for (int yi = 0; yi < branches.size(); yi++) {
+            for (int xi = 0; xi < width; xi++) {
+                Double v = matrixValues.get(branches.get(yi) + "\u0001" + selectedMetrics.get(xi));
+                if (v != null && Double.isFinite(v)) {
+                    raw[yi * width + xi] = v;
+                    dataRowCount++;
+                }
+            }
+        }
+        for (int xi = 0; xi < width; xi++) {
+            Double minVal = null;
+            Double maxVal = null;
+            for (int yi = 0; yi < branches.size(); yi++) {
+                double v = raw[yi * width + xi];
+                if (Double.isNaN(v)) {
+                    continue;
+                }
+                minVal = minVal == null ? v : Math.min(minVal, v);
+                maxVal = maxVal == null ? v : Math.max(maxVal, v);
+            }
+            boolean levelMetric = isLevelMetric(selectedMetrics.get(xi), defs);
+            for (int yi = 0; yi < branches.size(); yi++) {
+                double v = raw[yi * width + xi];
+                if (!Double.isNaN(v)) {
+                    Double c = normalizeHeatColorValue(v, minVal, maxVal, levelMetric);
+                    color[yi * width + xi] = c == null ? Double.NaN : c;
+                }
+            }
+        }
+
+        return new HeatmapMatrix(effectiveDate, resolvedScope, selectedMetrics, branches, raw, color, defs,
                 new HeatmapResponse.Meta(
                         effectiveDate,
                         resolvedScope,
                         String.join(",", selectedMetrics),
                         dataRowCount,
-                        allNull
-                )
-        );
+                        dataRowCount == 0
+                ));
     }
 
-
+    /** 派生值在导入时已按上期、月初、年初基期算好，这里只读该日的格子 */
     private Map<String, Double> computeDerivedHeatmapValues(String scope,
                                                             String date,
                                                             List<String> branches,
-                                                            List<String> metrics,
-                                                            Map<String, MetricDef> defs) {
+                                                            List<String> metrics) {
         if (branches == null || branches.isEmpty() || metrics == null || metrics.isEmpty()) {
             return Map.of();
         }
-        List<String> dates = new ArrayList<>(new TreeSet<>(factRepo.findDates(scope, "0001-01-01", date)));
-        if (dates.isEmpty()) {
-            return Map.of();
-        }
-        String start = dates.get(0);
+        Set<String> wanted = new HashSet<>(branches);
         Map<String, Double> values = new HashMap<>();
-        for (String metric : metrics) {
-            MetricDef md = defs.get(metric);
-            if (md == null || md.baseMetric() == null || md.baseMetric().isBlank()) {
+        for (FactRepo.HeatmapCell cell : derivedRepo.findCellsOnDate(scope, date, metrics)) {
+            if (!wanted.contains(cell.branch()) || cell.val() == null || !Double.isFinite(cell.val())) {
                 continue;
             }
-            List<FactRow> rows;
-            if ("DELTA".equalsIgnoreCase(md.kind())) {
-                rows = buildDeltaRowsFromBase(scope, branches, dates, metric, md.baseMetric(), start, date);
-            } else if ("RATE".equalsIgnoreCase(md.kind())) {
-                rows = buildRateRowsFromBase(scope, branches, dates, metric, md.baseMetric(), start, date);
-            } else {
-                continue;
-            }
-            for (FactRow row : rows) {
-                if (!date.equals(row.bizDate()) || row.val() == null || !Double.isFinite(row.val())) {
-                    continue;
-                }
-                values.put(row.branch() + "\u0001" + metric, row.val());
-            }
+            values.put(cell.branch() + "\u0001" + cell.metric(), cell.val());
         }
         return values;
     }
@@ -478,20 +654,56 @@ public class QueryService {
                                      List<String> metrics,
                                      String start,
                                      String end) {
+        return multiTrend(scope, metric, branches, branch, metrics, start, end, Granularity.DAY, MetricRollupRepo.Agg.LAST);
+    }
+
+    /** granularity 非 DAY 时读周期汇总，横轴为周期标签，每个周期取 agg 指定的值 */
+    public SeriesResponse multiTrend(String scope,
+                                     String metric,
+                                     List<String> branches,
+                                     String branch,
+                                     List<String> metrics,
+                                     String start,
+                                     String end,
+                                     Granularity grain,
+                                     MetricRollupRepo.Agg agg) {
         String resolvedScope = resolveScope(scope);
         if (metric != null && !metric.trim().isEmpty() && branches != null && !branches.isEmpty()) {
-            return seriesByBranches(resolvedScope, metric, branches, start, end);
+            return seriesByBranches(resolvedScope, metric, branches, start, end, grain, agg);
         }
         if (branch != null && !branch.trim().isEmpty() && metrics != null && !metrics.isEmpty()) {
-            return seriesByMetrics(resolvedScope, branch, metrics, start, end);
+            return seriesByMetrics(resolvedScope, branch, metrics, start, end, grain, agg);
         }
         return new SeriesResponse("趋势: " + resolvedScope, "", List.of(), List.of(), List.of(),
                 new SeriesResponse.Meta(0, 0, false, 0, start + " ~ " + end, resolvedScope, "", 0, true));
     }
 
-    private SeriesResponse seriesByBranches(String scope, String metric, List<String> branches, String start, String end) {
+    private SeriesResponse seriesByBranches(String scope,
+                                            String metric,
+                                            List<String> branches,
+                                            String start,
+                                            String end,
+                                            Granularity grain,
+                                            MetricRollupRepo.Agg agg) {
+        List<String> resolveWarnings = new ArrayList<>();
+        List<String> resolvedBranches = normalizeAndResolveBranches(scope, branches, resolveWarnings);
+        String trimmedMetric = metric.trim();
+        // 网点保持请求顺序：它决定序列顺序与超限时的截断位置
+        SeriesResponse response = resultCache.get(
+                QueryResultCache.key("trend/branches", scope, trimmedMetric, resolvedBranches, start, end, grain, agg),
+                () -> computeSeriesByBranches(scope, trimmedMetric, resolvedBranches, start, end, grain, agg),
+                QueryService::estimatedBytes);
+        return withLeadingWarnings(response, resolveWarnings);
+    }
+
+    private SeriesResponse computeSeriesByBranches(String scope,
+                                                   String metric,
+                                                   List<String> resolvedBranches,
+                                                   String start,
+                                                   String end,
+                                                   Granularity grain,
+                                                   MetricRollupRepo.Agg agg) {
         List<String> warnings = new ArrayList<>();
-        List<String> resolvedBranches = normalizeAndResolveBranches(scope, branches, warnings);
         int requested = resolvedBranches.size();
 
         if (maxBranchSeries > 0 && resolvedBranches.size() > maxBranchSeries) {
@@ -500,53 +712,30 @@ public class QueryService {
             warnings.add("网点数量超过上限，已按配置截断到 " + maxBranchSeries + " 个。已忽略 " + dropped + " 个网点。");
         }
 
-        List<String> dates = new ArrayList<>(new TreeSet<>(factRepo.findDates(scope, start, end)));
-        List<FactRow> rows = factRepo.findSeriesByMetric(scope, metric, resolvedBranches, start, end);
+        int[] days = findPeriodDays(scope, start, end, grain);
+        SeriesGrid grid = loadSeriesByMetric(scope, metric, resolvedBranches, days, start, end, grain, agg);
         MetricDef md = metricService.metricMap().get(metric);
-        if (rows.isEmpty() && md != null && "DELTA".equalsIgnoreCase(md.kind()) && md.baseMetric() != null && !md.baseMetric().isBlank()) {
-            rows = buildDeltaRowsFromBase(scope, resolvedBranches, dates, metric, md.baseMetric(), start, end);
-        }
-        if (rows.isEmpty() && md != null && "RATE".equalsIgnoreCase(md.kind()) && md.baseMetric() != null && !md.baseMetric().isBlank()) {
-            rows = buildRateRowsFromBase(scope, resolvedBranches, dates, metric, md.baseMetric(), start, end);
+        if (grid.valueCount() == 0 && md != null && ("DELTA".equalsIgnoreCase(md.kind()) || "RATE".equalsIgnoreCase(md.kind()))
+                && md.baseMetric() != null && !md.baseMetric().isBlank()) {
+            grid = loadDerivedSeries(scope, resolvedBranches, md, days, start, end, grain, agg);
         }
 
-        DegradedWindow degraded = degradeRowsIfNeeded(dates, resolvedBranches, rows, warnings, 1);
-        dates = degraded.dates();
-        resolvedBranches = degraded.branches();
-        rows = degraded.rows();
-
-        Map<String, Map<String, Double>> byBranch = new LinkedHashMap<>();
-        for (String b : resolvedBranches) {
-            byBranch.put(b, new HashMap<>());
-        }
-        for (FactRow r : rows) {
-            if (r.val() == null) {
-                continue;
-            }
-            byBranch.computeIfAbsent(r.branch(), k -> new HashMap<>()).put(r.bizDate(), r.val());
+        int[] kept = sampleColumns(grid.columns(), resolvedBranches.size(), warnings, 1);
+        if (kept != null) {
+            grid = grid.select(kept);
         }
 
-        int dataRowCount = 0;
-        List<SeriesResponse.Series> series = new ArrayList<>();
-        for (String b : resolvedBranches) {
-            Map<String, Double> map = byBranch.getOrDefault(b, Map.of());
-            List<Double> y = new ArrayList<>(dates.size());
-            for (String d : dates) {
-                Double v = map.get(d);
-                Double point = (v == null || !Double.isFinite(v)) ? null : v;
-                if (point != null) {
-                    dataRowCount++;
-                }
-                y.add(point);
-            }
-            series.add(new SeriesResponse.Series(b, y));
+        List<SeriesResponse.Series> series = new ArrayList<>(resolvedBranches.size());
+        for (int i = 0; i < resolvedBranches.size(); i++) {
+            series.add(new SeriesResponse.Series(resolvedBranches.get(i), grid.series(i)));
         }
+        int dataRowCount = grid.valueCount();
 
         String unit = md == null ? "" : md.unit();
         return new SeriesResponse(
                 "趋势: " + scope + " / " + (md == null ? metric : md.name()),
                 unit,
-                dates,
+                labels(grid, grain),
                 series,
                 warnings,
                 new SeriesResponse.Meta(
@@ -563,174 +752,232 @@ public class QueryService {
         );
     }
 
-    private List<FactRow> buildDeltaRowsFromBase(String scope,
-                                                 List<String> branches,
-                                                 List<String> dates,
-                                                 String deltaMetric,
-                                                 String baseMetric,
-                                                 String start,
-                                                 String end) {
-        if (branches == null || branches.isEmpty() || dates == null || dates.isEmpty()) {
-            return List.of();
+    /** 横轴（epoch day）：DAY 为业务日历中的日期，其余为有汇总的周期首日 */
+    private int[] findPeriodDays(String scope, String start, String end, Granularity grain) {
+        if (grain != Granularity.DAY) {
+            return rollupRepo.findPeriodDays(grain, scope, start, end);
         }
-        List<FactRow> baseRows = factRepo.findSeriesByMetric(scope, baseMetric, branches, start, end);
-        Map<String, Map<String, Double>> byBranch = new HashMap<>();
-        for (FactRow row : baseRows) {
-            if (row.val() == null) {
-                continue;
-            }
-            byBranch.computeIfAbsent(row.branch(), k -> new HashMap<>()).put(row.bizDate(), row.val());
+        return SeriesGrid.days(calendarRepo.findDates(scope, start, end));
+    }
+
+    private static List<String> labels(SeriesGrid grid, Granularity grain) {
+        List<String> labels = new ArrayList<>(grid.columns());
+        for (int i = 0; i < grid.columns(); i++) {
+            labels.add(grain.label(LocalDate.ofEpochDay(grid.day(i))));
         }
+        return labels;
+    }
 
-        List<FactRow> deltaRows = new ArrayList<>();
-        for (String branch : branches) {
-            Map<String, Double> values = byBranch.getOrDefault(branch, Map.of());
-            for (int i = 1; i < dates.size(); i++) {
-                String currDate = dates.get(i);
-                String prevDate = dates.get(i - 1);
-                Double curr = values.get(currDate);
-                Double prev = values.get(prevDate);
-                if (curr == null || prev == null) {
-                    continue;
-                }
-                deltaRows.add(new FactRow(currDate, scope, branch, deltaMetric, curr - prev, "AUTO_COMPUTED_DELTA"));
+    /**
+     * 每列上一期在 base 中的列下标，没有时为 -1。日粒度查业务日历（窗口首日、采样后仍是真实的上一业务日期），
+     * 粗粒度为前一列的周期。
+     */
+    private int[] previousColumns(String scope, SeriesGrid grid, SeriesGrid base, Granularity grain) {
+        int[] prev = new int[grid.columns()];
+        for (int i = 0; i < prev.length; i++) {
+            if (grain == Granularity.DAY) {
+                BizCalendarRepo.CalendarDay day = calendarRepo.day(scope, LocalDate.ofEpochDay(grid.day(i)).toString());
+                prev[i] = day == null || day.prevDate() == null ? -1 : base.column(LocalDate.parse(day.prevDate()).toEpochDay());
+            } else {
+                prev[i] = i == 0 ? -1 : base.column(grid.day(i - 1));
             }
         }
-        return deltaRows;
+        return prev;
     }
 
-    private List<FactRow> buildRateRowsFromBase(String scope,
-                                                List<String> branches,
-                                                List<String> dates,
-                                                String rateMetric,
-                                                String baseMetric,
-                                                String start,
-                                                String end) {
-        if (branches == null || branches.isEmpty() || dates == null || dates.isEmpty()) {
-            return List.of();
-        }
-        List<FactRow> baseRows = factRepo.findSeriesByMetric(scope, baseMetric, branches, start, end);
-        Map<String, Map<String, Double>> byBranch = new HashMap<>();
-        for (FactRow row : baseRows) {
-            if (row.val() == null) {
-                continue;
+    /** 同一指标多网点：粗粒度读周期汇总；日粒度立方体可用时从内存取，否则导入指标读宽表，其余指标读窄表 */
+    private SeriesGrid loadSeriesByMetric(String scope,
+                                          String metric,
+                                          List<String> branches,
+                                          int[] days,
+                                          String start,
+                                          String end,
+                                          Granularity grain,
+                                          MetricRollupRepo.Agg agg) {
+        SeriesGrid grid = new SeriesGrid(days, branches);
+        if (grain != Granularity.DAY) {
+            rollupRepo.fillSeriesByMetric(grid, grain, agg, scope, metric, branches, start, end);
+            return grid;
+        }
+        FactCube.View cube = factCube.view(scope);
+        if (cube != null) {
+            int[] cubeIndex = cubeColumns(cube, grid);
+            double[][] series = cube.factByMetric(metric, branches);
+            for (int i = 0; i < series.length; i++) {
+                copyCubeSeries(grid.series(i), series[i], cubeIndex);
             }
-            byBranch.computeIfAbsent(row.branch(), k -> new HashMap<>()).put(row.bizDate(), row.val());
+        } else if (BranchSnapshotRepo.covers(metric)) {
+            snapshotRepo.fillSeriesByMetric(grid, scope, metric, branches, start, end);
+        } else {
+            factRepo.fillSeriesByMetric(grid, scope, metric, branches, start, end);
         }
+        return grid;
+    }
 
-        String metricUpper = String.valueOf(rateMetric).toUpperCase(Locale.ROOT);
-        List<FactRow> rateRows = new ArrayList<>();
-        for (String branch : branches) {
-            Map<String, Double> values = byBranch.getOrDefault(branch, Map.of());
-            for (int i = 1; i < dates.size(); i++) {
-                String currDate = dates.get(i);
-                String prevDate = dates.get(i - 1);
-                Double curr = values.get(currDate);
-                Double prev = values.get(prevDate);
-                if (curr == null || prev == null || Math.abs(prev) < EPSILON) {
-                    continue;
-                }
-                double ratio;
-                if (metricUpper.contains("MTD")) {
-                    ratio = calcMonthToDateRatio(values, dates, i, curr);
-                } else if (metricUpper.contains("YTD")) {
-                    ratio = calcYearToDateRatio(values, dates, i, curr);
-                } else {
-                    ratio = (curr - prev) / prev;
-                }
-                if (Double.isFinite(ratio)) {
-                    rateRows.add(new FactRow(currDate, scope, branch, rateMetric, ratio * 100.0, "AUTO_COMPUTED_RATE"));
-                }
+    /** 同一网点多指标（日粒度） */
+    private SeriesGrid loadSeriesByBranch(String scope, String branch, List<String> metrics, int[] days, String start, String end) {
+        SeriesGrid grid = new SeriesGrid(days, metrics);
+        FactCube.View cube = factCube.view(scope);
+        if (cube != null) {
+            int[] cubeIndex = cubeColumns(cube, grid);
+            double[][] series = cube.factByBranch(metrics, branch);
+            for (int i = 0; i < series.length; i++) {
+                copyCubeSeries(grid.series(i), series[i], cubeIndex);
             }
+            return grid;
+        }
+        snapshotRepo.fillSeriesByBranch(grid, scope, branch, metrics, start, end);
+        List<String> narrowMetrics = metrics.stream().filter(m -> !BranchSnapshotRepo.covers(m)).toList();
+        if (!narrowMetrics.isEmpty()) {
+            factRepo.fillSeriesByBranch(grid, scope, branch, narrowMetrics, start, end);
         }
-        return rateRows;
+        return grid;
     }
 
-    private double calcMonthToDateRatio(Map<String, Double> values, List<String> dates, int idx, Double curr) {
-        String currDate = dates.get(idx);
-        LocalDate d = LocalDate.parse(currDate);
-        LocalDate monthStart = d.withDayOfMonth(1);
-        Double baseline = null;
-        for (String day : dates) {
-            LocalDate ld = LocalDate.parse(day);
-            if (ld.isBefore(monthStart) || ld.isAfter(d)) {
-                continue;
-            }
-            baseline = values.get(day);
-            if (baseline != null) {
-                break;
+    /**
+     * 报表未提供的 DELTA/RATE 指标读导入时落库的派生值（DerivedMetricRepo）；
+     * 派生值只有日粒度，粗粒度下按周期归并，基期仍是前一个业务日期。
+     */
+    private SeriesGrid loadDerivedSeries(String scope,
+                                         List<String> branches,
+                                         MetricDef md,
+                                         int[] days,
+                                         String start,
+                                         String end,
+                                         Granularity grain,
+                                         MetricRollupRepo.Agg agg) {
+        int[] dailyDays = grain == Granularity.DAY ? days : SeriesGrid.days(calendarRepo.findDates(scope, start, end));
+        SeriesGrid daily = new SeriesGrid(dailyDays, branches);
+        FactCube.View cube = factCube.view(scope);
+        if (cube != null) {
+            int[] cubeIndex = cubeColumns(cube, daily);
+            double[][] series = cube.derivedByMetric(md.metric(), branches);
+            for (int i = 0; i < series.length; i++) {
+                copyCubeSeries(daily.series(i), series[i], cubeIndex);
             }
+        } else {
+            derivedRepo.fillSeriesByMetric(daily, scope, md.metric(), branches, start, end);
         }
-        if (baseline == null || Math.abs(baseline) < EPSILON) {
-            return Double.NaN;
+        return grain == Granularity.DAY ? daily : collapseToPeriods(daily, days, grain, agg);
+    }
+
+    /** 网格每列在立方体中的下标，不是已加载日期时为 -1 */
+    private static int[] cubeColumns(FactCube.View cube, SeriesGrid grid) {
+        int[] index = new int[grid.columns()];
+        for (int i = 0; i < index.length; i++) {
+            index[i] = cube.indexOf(LocalDate.ofEpochDay(grid.day(i)).toString());
         }
-        return (curr - baseline) / baseline;
+        return index;
     }
 
-    private double calcYearToDateRatio(Map<String, Double> values, List<String> dates, int idx, Double curr) {
-        String currDate = dates.get(idx);
-        LocalDate d = LocalDate.parse(currDate);
-        LocalDate yearStart = d.withDayOfYear(1);
-        Double baseline = null;
-        for (String day : dates) {
-            LocalDate ld = LocalDate.parse(day);
-            if (ld.isBefore(yearStart) || ld.isAfter(d)) {
-                continue;
-            }
-            baseline = values.get(day);
-            if (baseline != null) {
-                break;
+    private static void copyCubeSeries(double[] target, double[] source, int[] cubeIndex) {
+        if (source == null) {
+            return;
+        }
+        for (int i = 0; i < target.length; i++) {
+            if (cubeIndex[i] >= 0) {
+                target[i] = source[cubeIndex[i]];
             }
         }
-        if (baseline == null || Math.abs(baseline) < EPSILON) {
-            return Double.NaN;
+    }
+
+    /** 按 (键, 周期) 归并日值，与 fact_metric_rollup 的各 agg 口径相同 */
+    private static SeriesGrid collapseToPeriods(SeriesGrid daily, int[] periodDays, Granularity grain, MetricRollupRepo.Agg agg) {
+        SeriesGrid collapsed = new SeriesGrid(periodDays, daily.keys());
+        int[] target = new int[daily.columns()];
+        for (int i = 0; i < target.length; i++) {
+            target[i] = collapsed.column(grain.periodStart(LocalDate.ofEpochDay(daily.day(i))).toEpochDay());
+        }
+        int[] counts = new int[periodDays.length];
+        double[] compensation = new double[periodDays.length];
+        for (int s = 0; s < daily.keys().size(); s++) {
+            double[] source = daily.series(s);
+            double[] values = collapsed.series(s);
+            Arrays.fill(counts, 0);
+            Arrays.fill(compensation, 0d);
+            // 日期升序，LAST 取每个周期最后写入的值；AVG/SUM 用补偿求和，精度与 DoubleStream.sum 相当
+            for (int i = 0; i < source.length; i++) {
+                int t = target[i];
+                double v = source[i];
+                if (t < 0 || Double.isNaN(v)) {
+                    continue;
+                }
+                if (counts[t]++ == 0) {
+                    values[t] = v;
+                    continue;
+                }
+                switch (agg) {
+                    case LAST -> values[t] = v;
+                    case AVG, SUM -> {
+                        double y = v - compensation[t];
+                        double sum = values[t] + y;
+                        compensation[t] = (sum - values[t]) - y;
+                        values[t] = sum;
+                    }
+                    case MIN -> values[t] = Math.min(values[t], v);
+                    case MAX -> values[t] = Math.max(values[t], v);
+                }
+            }
+            if (agg == MetricRollupRepo.Agg.AVG) {
+                for (int t = 0; t < values.length; t++) {
+                    if (counts[t] > 0) {
+                        values[t] /= counts[t];
+                    }
+                }
+            }
         }
-        return (curr - baseline) / baseline;
+        return collapsed;
     }
 
-    private SeriesResponse seriesByMetrics(String scope, String branch, List<String> metrics, String start, String end) {
+    private SeriesResponse seriesByMetrics(String scope,
+                                           String branch,
+                                           List<String> metrics,
+                                           String start,
+                                           String end,
+                                           Granularity grain,
+                                           MetricRollupRepo.Agg agg) {
         List<String> selectedMetrics = (metrics == null ? List.<String>of() : metrics).stream()
                 .map(v -> v == null ? "" : v.trim())
                 .filter(v -> !v.isBlank())
                 .distinct()
                 .toList();
+        String trimmedBranch = branch.trim();
+        List<String> sortedMetrics = selectedMetrics.stream().sorted().toList();
+        SeriesResponse response = resultCache.get(
+                QueryResultCache.key("trend/metrics", scope, trimmedBranch, sortedMetrics, start, end, grain, agg),
+                () -> computeSeriesByMetrics(scope, trimmedBranch, sortedMetrics, start, end, grain, agg),
+                QueryService::estimatedBytes);
+        return reorderSeries(response, sortedMetrics, selectedMetrics);
+    }
 
-        List<String> dates = new ArrayList<>(new TreeSet<>(factRepo.findDates(scope, start, end)));
-        List<FactRow> rows = factRepo.findSeriesByBranch(scope, branch, selectedMetrics, start, end);
-
-        Map<String, Map<String, Double>> byMetric = new LinkedHashMap<>();
-        for (String m : selectedMetrics) {
-            byMetric.put(m, new HashMap<>());
-        }
-        for (FactRow r : rows) {
-            if (r.val() == null) {
-                continue;
-            }
-            byMetric.computeIfAbsent(r.metric(), k -> new HashMap<>()).put(r.bizDate(), r.val());
+    private SeriesResponse computeSeriesByMetrics(String scope,
+                                                  String branch,
+                                                  List<String> selectedMetrics,
+                                                  String start,
+                                                  String end,
+                                                  Granularity grain,
+                                                  MetricRollupRepo.Agg agg) {
+        int[] days = findPeriodDays(scope, start, end, grain);
+        SeriesGrid grid;
+        if (grain == Granularity.DAY) {
+            grid = loadSeriesByBranch(scope, branch, selectedMetrics, days, start, end);
+        } else {
+            grid = new SeriesGrid(days, selectedMetrics);
+            rollupRepo.fillSeriesByBranch(grid, grain, agg, scope, branch, selectedMetrics, start, end);
         }
 
         Map<String, MetricDef> mdMap = metricService.metricMap();
-        int dataRowCount = 0;
-        List<SeriesResponse.Series> series = new ArrayList<>();
-        for (String m : selectedMetrics) {
-            Map<String, Double> map = byMetric.getOrDefault(m, Map.of());
-            List<Double> y = new ArrayList<>(dates.size());
-            for (String d : dates) {
-                Double v = map.get(d);
-                Double point = (v == null || !Double.isFinite(v)) ? null : v;
-                if (point != null) {
-                    dataRowCount++;
-                }
-                y.add(point);
-            }
-            MetricDef md = mdMap.get(m);
-            series.add(new SeriesResponse.Series(md == null ? m : md.name(), y));
+        List<SeriesResponse.Series> series = new ArrayList<>(selectedMetrics.size());
+        for (int i = 0; i < selectedMetrics.size(); i++) {
+            MetricDef md = mdMap.get(selectedMetrics.get(i));
+            series.add(new SeriesResponse.Series(md == null ? selectedMetrics.get(i) : md.name(), grid.series(i)));
         }
+        int dataRowCount = grid.valueCount();
 
         return new SeriesResponse(
                 "趋势: " + scope + " / " + branch,
                 "",
-                dates,
+                labels(grid, grain),
                 series,
                 List.of(),
                 new SeriesResponse.Meta(
@@ -747,12 +994,58 @@ public class QueryService {
         );
     }
 
+    /** 缓存的结果不含随原始网点写法变化的规范化提示，返回前补在最前 */
+    private static SeriesResponse withLeadingWarnings(SeriesResponse response, List<String> leading) {
+        if (leading.isEmpty()) {
+            return response;
+        }
+        List<String> warnings = new ArrayList<>(leading);
+        warnings.addAll(response.warnings());
+        return new SeriesResponse(response.title(), response.unit(), response.x(), response.series(), warnings, response.meta());
+    }
+
+    /** 按排序后的指标缓存的多指标趋势，换回请求的指标顺序 */
+    private static SeriesResponse reorderSeries(SeriesResponse response, List<String> cachedOrder, List<String> order) {
+        if (order.equals(cachedOrder)) {
+            return response;
+        }
+        List<SeriesResponse.Series> series = new ArrayList<>(order.size());
+        for (String metric : order) {
+            series.add(response.series().get(cachedOrder.indexOf(metric)));
+        }
+        SeriesResponse.Meta meta = response.meta();
+        return new SeriesResponse(response.title(), response.unit(), response.x(), series, response.warnings(),
+                new SeriesResponse.Meta(meta.requestedBranches(), meta.effectiveBranches(), meta.truncated(), meta.dropped(),
+                        meta.requestedDate(), meta.requestedScope(), String.join(",", order), meta.dataRowCount(), meta.allNull()));
+    }
+
+    /** 每点 8 字节加横轴标签与序列名的粗略开销 */
+    private static long estimatedBytes(SeriesResponse response) {
+        long bytes = 256L + 56L * response.x().size();
+        for (SeriesResponse.Series series : response.series()) {
+            bytes += 64L + 8L * series.y().length;
+        }
+        return bytes;
+    }
+
     public SeriesResponse growthSeries(String scope,
                                        String deltaMetric,
                                        String baseMetric,
                                        List<String> branches,
                                        String start,
                                        String end) {
+        return growthSeries(scope, deltaMetric, baseMetric, branches, start, end, Granularity.DAY, MetricRollupRepo.Agg.LAST);
+    }
+
+    /** 粗粒度下为：本周期增量（按 agg 取值，流量指标通常用 SUM）/ 上一周期基数 */
+    public SeriesResponse growthSeries(String scope,
+                                       String deltaMetric,
+                                       String baseMetric,
+                                       List<String> branches,
+                                       String start,
+                                       String end,
+                                       Granularity grain,
+                                       MetricRollupRepo.Agg agg) {
         String resolvedScope = resolveScope(scope);
         List<String> warnings = new ArrayList<>();
         List<String> resolvedBranches = normalizeAndResolveBranches(resolvedScope, branches, warnings);
@@ -764,8 +1057,8 @@ public class QueryService {
             warnings.add("网点数量超过上限，已按配置截断到 " + maxBranchSeries + " 个。已忽略 " + dropped + " 个网点。");
         }
 
-        List<String> dates = new ArrayList<>(new TreeSet<>(factRepo.findDates(resolvedScope, start, end)));
-        if (dates.isEmpty()) {
+        int[] days = findPeriodDays(resolvedScope, start, end, grain);
+        if (days.length == 0) {
             return new SeriesResponse(
                     "增长率: " + resolvedScope,
                     "%",
@@ -786,58 +1079,47 @@ public class QueryService {
             );
         }
 
-        List<FactRow> deltaRows = factRepo.findSeriesByMetric(resolvedScope, deltaMetric, resolvedBranches, start, end);
-        List<FactRow> baseRows = factRepo.findSeriesByMetric(resolvedScope, baseMetric, resolvedBranches, start, end);
-        MetricDef deltaDef = metricService.metricMap().get(deltaMetric);
-        if (deltaRows.isEmpty() && deltaDef != null && "DELTA".equalsIgnoreCase(deltaDef.kind()) && deltaDef.baseMetric() != null && !deltaDef.baseMetric().isBlank()) {
-            deltaRows = buildDeltaRowsFromBase(resolvedScope, resolvedBranches, dates, deltaMetric, deltaDef.baseMetric(), start, end);
-        }
-
-        Map<String, Map<String, Double>> delta = new HashMap<>();
-        for (FactRow r : deltaRows) {
-            if (r.val() == null) {
-                continue;
+        SeriesGrid delta = loadSeriesByMetric(resolvedScope, deltaMetric, resolvedBranches, days, start, end, grain, agg);
+        // 基数取上一周期期末值；日粒度下窗口首日的上一业务日期在窗口外，基数从那天读起
+        int[] baseDays = days;
+        String baseStart = start;
+        if (grain == Granularity.DAY) {
+            BizCalendarRepo.CalendarDay first = calendarRepo.day(resolvedScope, LocalDate.ofEpochDay(days[0]).toString());
+            if (first != null && first.prevDate() != null) {
+                baseStart = first.prevDate();
+                baseDays = new int[days.length + 1];
+                baseDays[0] = (int) LocalDate.parse(baseStart).toEpochDay();
+                System.arraycopy(days, 0, baseDays, 1, days.length);
             }
-            delta.computeIfAbsent(r.branch(), k -> new HashMap<>()).put(r.bizDate(), r.val());
         }
-
-        Map<String, Map<String, Double>> base = new HashMap<>();
-        for (FactRow r : baseRows) {
-            if (r.val() == null) {
-                continue;
-            }
-            base.computeIfAbsent(r.branch(), k -> new HashMap<>()).put(r.bizDate(), r.val());
+        SeriesGrid base = loadSeriesByMetric(resolvedScope, baseMetric, resolvedBranches, baseDays, baseStart, end, grain, MetricRollupRepo.Agg.LAST);
+        MetricDef deltaDef = metricService.metricMap().get(deltaMetric);
+        if (delta.valueCount() == 0 && deltaDef != null && "DELTA".equalsIgnoreCase(deltaDef.kind()) && deltaDef.baseMetric() != null && !deltaDef.baseMetric().isBlank()) {
+            delta = loadDerivedSeries(resolvedScope, resolvedBranches, deltaDef, days, start, end, grain, agg);
         }
 
-        List<SeriesResponse.Series> series = new ArrayList<>();
-        DegradedWindow growthWindow = degradeRowsIfNeeded(dates, resolvedBranches, deltaRows, warnings, 2);
-        dates = growthWindow.dates();
-        resolvedBranches = growthWindow.branches();
+        int[] kept = sampleColumns(delta.columns(), resolvedBranches.size(), warnings, 2);
+        if (kept != null) {
+            delta = delta.select(kept);
+        }
+        int[] prevColumns = previousColumns(resolvedScope, delta, base, grain);
 
         int dataRowCount = 0;
-        for (String b : resolvedBranches) {
-            Map<String, Double> dmap = delta.getOrDefault(b, Map.of());
-            Map<String, Double> bmap = base.getOrDefault(b, Map.of());
-
-            List<Double> y = new ArrayList<>(dates.size());
-            for (int i = 0; i < dates.size(); i++) {
-                if (i == 0) {
-                    y.add(null);
-                    continue;
-                }
-                String d = dates.get(i);
-                String prev = dates.get(i - 1);
-                Double dv = dmap.get(d);
-                Double bv = bmap.get(prev);
-                if (dv == null || bv == null || Math.abs(bv) < EPSILON) {
-                    y.add(null);
+        List<SeriesResponse.Series> series = new ArrayList<>(resolvedBranches.size());
+        for (int s = 0; s < resolvedBranches.size(); s++) {
+            double[] dv = delta.series(s);
+            double[] bv = base.series(s);
+            double[] y = new double[dv.length];
+            for (int i = 0; i < y.length; i++) {
+                double b = prevColumns[i] < 0 ? Double.NaN : bv[prevColumns[i]];
+                if (Double.isNaN(dv[i]) || Double.isNaN(b) || Math.abs(b) < EPSILON) {
+                    y[i] = Double.NaN;
                     continue;
                 }
-                Double point = dv / bv * 100.0;
-                y.add(point);
+                y[i] = dv[i] / b * 100.0;
                 dataRowCount++;
             }
-            series.add(new SeriesResponse.Series(b, y));
+            series.add(new SeriesResponse.Series(resolvedBranches.get(s), y));
         }
 
         MetricDef d1 = metricService.metricMap().get(deltaMetric);
@@ -848,7 +1130,7 @@ public class QueryService {
         return new SeriesResponse(
                 "增长率: " + resolvedScope + "（" + t1 + " / 上期" + t2 + "）",
                 "%",
-                dates,
+                labels(delta, grain),
                 series,
                 warnings,
                 new SeriesResponse.Meta(
@@ -892,38 +1174,31 @@ public class QueryService {
         return deduped;
     }
 
-    private DegradedWindow degradeRowsIfNeeded(List<String> dates,
-                                               List<String> branches,
-                                               List<FactRow> rows,
-                                               List<String> warnings,
-                                               int seriesCount) {
-        if (maxPoints <= 0 || dates.isEmpty() || branches.isEmpty()) {
-            return new DegradedWindow(dates, branches, rows);
+    /** 点数超过上限时按日期等步长采样（保留最后一列），返回保留的列下标；无需采样时返回 null */
+    private int[] sampleColumns(int columns, int branches, List<String> warnings, int seriesCount) {
+        if (maxPoints <= 0 || columns == 0 || branches == 0) {
+            return null;
         }
-        long estimatedPoints = (long) branches.size() * dates.size() * Math.max(seriesCount, 1);
+        long estimatedPoints = (long) branches * columns * Math.max(seriesCount, 1);
         if (estimatedPoints <= maxPoints) {
-            return new DegradedWindow(dates, branches, rows);
+            return null;
         }
 
         int dateStep = (int) Math.ceil((double) estimatedPoints / maxPoints);
-        if (dateStep > 1) {
-            Set<String> keptDates = new LinkedHashSet<>();
-            for (int i = 0; i < dates.size(); i += dateStep) {
-                keptDates.add(dates.get(i));
-            }
-            keptDates.add(dates.get(dates.size() - 1));
-
-            List<String> sampledDates = dates.stream().filter(keptDates::contains).toList();
-            List<FactRow> sampledRows = rows.stream().filter(r -> keptDates.contains(r.bizDate())).toList();
-            long afterPoints = (long) branches.size() * sampledDates.size() * Math.max(seriesCount, 1);
-            warnings.add("数据点过大，已按日期采样(step=" + dateStep + ") 以保障性能。估算点数 " + estimatedPoints + " -> " + afterPoints + "。");
-            return new DegradedWindow(sampledDates, branches, sampledRows);
+        if (dateStep <= 1) {
+            return null;
         }
-        return new DegradedWindow(dates, branches, rows);
+        int last = columns - 1;
+        int[] kept = IntStream.concat(IntStream.iterate(0, i -> i < columns, i -> i + dateStep), IntStream.of(last))
+                .distinct()
+                .toArray();
+        long afterPoints = (long) branches * kept.length * Math.max(seriesCount, 1);
+        warnings.add("数据点过大，已按日期采样(step=" + dateStep + ") 以保障性能。估算点数 " + estimatedPoints + " -> " + afterPoints + "。");
+        return kept;
     }
 
     private String resolveScope(String requestedScope) {
-        List<String> availableScopes = factRepo.findScopes();
+        List<String> availableScopes = metadataCache.current().scopes();
         if (availableScopes.isEmpty()) {
             return requestedScope == null ? "" : requestedScope.trim();
         }
@@ -967,7 +1242,41 @@ public class QueryService {
         return scope;
     }
 
-    private record DegradedWindow(List<String> dates, List<String> branches, List<FactRow> rows) {
+    private record HeatmapMatrix(String date,
+                                 String scope,
+                                 List<String> metrics,
+                                 List<String> branches,
+                                 double[] raw,
+                                 double[] color,
+                                 Map<String, MetricDef> defs,
+                                 HeatmapResponse.Meta meta) {
+        /** 列换成 order 的顺序（与 metrics 同集合）；顺序相同时返回自身 */
+        HeatmapMatrix reorder(List<String> order) {
+            if (order.equals(metrics)) {
+                return this;
+            }
+            int width = metrics.size();
+            int[] source = new int[width];
+            for (int xi = 0; xi < width; xi++) {
+                source[xi] = metrics.indexOf(order.get(xi));
+            }
+            double[] reorderedRaw = new double[raw.length];
+            double[] reorderedColor = new double[color.length];
+            for (int row = 0; row < raw.length; row += width) {
+                for (int xi = 0; xi < width; xi++) {
+                    reorderedRaw[row + xi] = raw[row + source[xi]];
+                    reorderedColor[row + xi] = color[row + source[xi]];
+                }
+            }
+            return new HeatmapMatrix(date, scope, order, branches, reorderedRaw, reorderedColor, defs,
+                    new HeatmapResponse.Meta(meta.requestedDate(), meta.requestedScope(), String.join(",", order),
+                            meta.dataRowCount(), meta.allNull()));
+        }
+
+        /** 两个 double[] 加指标名；网点列表与指标定义来自元数据快照，不计入 */
+        long estimatedBytes() {
+            return 128L + 16L * raw.length + 64L * metrics.size();
+        }
     }
 
     public Map<String, Object> exportReport(String scope, String date, List<String> metrics) {
@@ -0,0 +1,210 @@
+package com.example.loantrendhub.service;
+
+import com.example.loantrendhub.repo.BizCalendarRepo;
+import com.example.loantrendhub.repo.BranchSnapshotRepo;
+import com.example.loantrendhub.repo.DerivedMetricRepo;
+import com.example.loantrendhub.repo.FactCube;
+import com.example.loantrendhub.repo.FactPartitionRepo;
+import com.example.loantrendhub.repo.MetricCoverageRepo;
+import com.example.loantrendhub.repo.MetricRollupRepo;
+import com.example.loantrendhub.repo.ScopeStatRepo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 日表之外全部读模型的维护：宽表、周期汇总、元数据汇总、业务日历、派生指标、指标覆盖、内存立方体与元数据快照。
+ * 导入的文件事务只写日表，并在 read_model_pending 登记业务日期；提交后由本类在独立事务里
+ * 按日期升序逐日刷新，同一日期被多个文件写过也只刷新一次，全局一把锁串行执行。
+ * 日历、派生、汇总按口径或周期跨日期重算，放在并发的文件事务里会让不同日期的写入互相持有对方要的锁。
+ * 刷新失败的日期保留在待办表里，下次提交、导入作业结束、应用启动时重试。月份归档也在这把锁下执行。
+ */
+@Service
+public class ReadModelMaintainer {
+    private static final Logger log = LoggerFactory.getLogger(ReadModelMaintainer.class);
+    private static final int DRAIN_BATCH = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BranchSnapshotRepo snapshotRepo;
+    private final MetricRollupRepo rollupRepo;
+    private final ScopeStatRepo statRepo;
+    private final BizCalendarRepo calendarRepo;
+    private final DerivedMetricRepo derivedRepo;
+    private final MetricCoverageRepo coverageRepo;
+    private final FactCube factCube;
+    private final MetadataCache metadataCache;
+    private final FactPartitionRepo partitionRepo;
+    private final TransactionTemplate refreshTx;
+    private final ExecutorService drainPool = Executors.newSingleThreadExecutor();
+    /** 已排队但尚未开始的排空任务至多一个 */
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+
+    public ReadModelMaintainer(JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               BranchSnapshotRepo snapshotRepo,
+                               MetricRollupRepo rollupRepo,
+                               ScopeStatRepo statRepo,
+                               BizCalendarRepo calendarRepo,
+                               DerivedMetricRepo derivedRepo,
+                               MetricCoverageRepo coverageRepo,
+                               FactCube factCube,
+                               MetadataCache metadataCache,
+                               FactPartitionRepo partitionRepo) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.snapshotRepo = snapshotRepo;
+        this.rollupRepo = rollupRepo;
+        this.statRepo = statRepo;
+        this.calendarRepo = calendarRepo;
+        this.derivedRepo = derivedRepo;
+        this.coverageRepo = coverageRepo;
+        this.factCube = factCube;
+        this.metadataCache = metadataCache;
+        this.partitionRepo = partitionRepo;
+        this.refreshTx = new TransactionTemplate(transactionManager);
+        this.refreshTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // 派生、日历与汇总按年、按口径整段 DELETE / INSERT ... SELECT：读提交下来源表走一致性读不加锁、删除不加间隙锁，
+        // 不会挡住并发写入日表的文件事务；导入期间这几张表只有本类写，串行执行即可保证结果
+        this.refreshTx.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    }
+
+    /** 上次运行中断时留下的待办日期 */
+    @PostConstruct
+    void drainLeftovers() {
+        scheduleDrain();
+    }
+
+    /**
+     * 在导入的文件事务内调用：登记该业务日期，提交后在后台排空；回滚则登记一并撤销。
+     * newRows 为本次有新增行，只有这时才重算元数据汇总并失效元数据快照（纯更新不改变计数、口径与指标）。
+     */
+    public void markDirty(String bizDate, boolean newRows) {
+        jdbcTemplate.update(
+                "INSERT INTO read_model_pending (biz_date, new_rows) VALUES (?, ?) "
+                        + "ON DUPLICATE KEY UPDATE version = version + 1, new_rows = GREATEST(new_rows, VALUES(new_rows))",
+                bizDate, newRows ? 1 : 0
+        );
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            scheduleDrain();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                scheduleDrain();
+            }
+        });
+    }
+
+    /**
+     * 按日期升序刷新全部待办日期，返回刷新的日期数。导入作业结束时同步调用，
+     * 返回后读模型已跟上日表（失败的日期除外，留待重试）。
+     */
+    public synchronized int drain() {
+        int refreshed = 0;
+        while (true) {
+            List<Pending> batch;
+            try {
+                batch = jdbcTemplate.query(
+                        "SELECT biz_date, version, new_rows FROM read_model_pending ORDER BY biz_date LIMIT " + DRAIN_BATCH,
+                        (rs, rowNum) -> new Pending(rs.getString(1), rs.getInt(2), rs.getBoolean(3))
+                );
+            } catch (RuntimeException ex) {
+                log.error("read model pending scan failed, will retry", ex);
+                return refreshed;
+            }
+            if (batch.isEmpty()) {
+                return refreshed;
+            }
+            for (Pending pending : batch) {
+                try {
+                    refreshTx.executeWithoutResult(status -> {
+                        refresh(pending);
+                        // 刷新期间同一日期又有提交时 version 已变，保留待办行下一轮再刷
+                        jdbcTemplate.update("DELETE FROM read_model_pending WHERE biz_date = ? AND version = ?",
+                                pending.bizDate(), pending.version());
+                    });
+                    refreshed++;
+                } catch (RuntimeException ex) {
+                    // 后面的日期依赖前面日期的日历与派生值，本轮到此为止
+                    log.error("read model refresh failed, will retry: date={}", pending.bizDate(), ex);
+                    return refreshed;
+                }
+            }
+        }
+    }
+
+    /** 启用网点变化后重算指标覆盖；与逐日刷新互斥，避免整表重算与单日刷新交错 */
+    public synchronized int rebuildCoverage() {
+        return refreshTx.execute(status -> coverageRepo.rebuild());
+    }
+
+    /** 导入派发线程建月份分区：DDL 要拿日表的元数据锁，不能排在正在读日表的刷新事务后面 */
+    public synchronized void ensureMonthPartitions(String bizDate) {
+        partitionRepo.ensureMonthPartitions(bizDate);
+    }
+
+    /**
+     * 换出该月分区，再清理日历、元数据汇总与覆盖，并丢弃该月的待办日期。
+     * 与逐日刷新互斥：分区 DDL 不会排在刷新事务后面等元数据锁，刷新也不会把刚归档的日期又算回来。
+     * 中途失败可直接重试，分区换出与各项清理都从断点继续。
+     */
+    public synchronized FactPartitionRepo.ArchiveResult archiveMonth(YearMonth month) {
+        FactPartitionRepo.ArchiveResult result = partitionRepo.archiveMonth(month);
+        jdbcTemplate.update("DELETE FROM read_model_pending WHERE biz_date >= ? AND biz_date < ?",
+                month.atDay(1).toString(), month.plusMonths(1).atDay(1).toString());
+        calendarRepo.removeMonth(month);
+        statRepo.removeMonth(month);
+        coverageRepo.removeMonth(month);
+        factCube.invalidate();
+        return result;
+    }
+
+    /**
+     * 宽表与周期汇总只读该日；日历先于派生指标（上期取自日历），派生先于覆盖与立方体（二者都读派生值）。
+     */
+    private void refresh(Pending pending) {
+        String bizDate = pending.bizDate();
+        snapshotRepo.refreshDate(bizDate);
+        rollupRepo.refreshDate(bizDate);
+        if (pending.newRows()) {
+            statRepo.refreshDate(bizDate);
+            // 可能出现新口径或自动登记的指标
+            metadataCache.invalidateAfterCommit();
+        }
+        calendarRepo.refreshFrom(bizDate);
+        derivedRepo.refreshFrom(bizDate);
+        coverageRepo.refreshFrom(bizDate);
+        factCube.refreshAfterCommit(bizDate);
+    }
+
+    private void scheduleDrain() {
+        if (drainQueued.compareAndSet(false, true)) {
+            drainPool.execute(() -> {
+                drainQueued.set(false);
+                drain();
+            });
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        drainPool.shutdownNow();
+    }
+
+    private record Pending(String bizDate, int version, boolean newRows) {
+    }
+}
@@ -0,0 +1,402 @@
+package com.example.loantrendhub.service;
+
+import com.example.loantrendhub.model.FactRow;
+import com.example.loantrendhub.repo.FactRepo;
+import com.example.loantrendhub.util.BranchNormalizeUtil;
+import com.example.loantrendhub.util.DateUtil;
+import com.example.loantrendhub.util.ExcelUtil.HeaderResolver;
+import com.example.loantrendhub.util.ExcelUtil.SheetRow;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 日报表单遍解析器：按行推入 {@link SheetRow}，只缓存表头识别所需的前若干行，
+ * 版式确定后数据行即到即解析，FactRow 通过 sink 逐条输出。
+ */
+final class ReportSheetParser {
+    /** 表头深度在 0..12 行内识别，网点列再向下采样 11 行，所以最多缓存前 24 行 */
+    static final int LAYOUT_WINDOW_ROWS = 24;
+    private static final int HEADER_SCAN_LAST_ROW = 12;
+    private static final int SCOPE_SCAN_LAST_ROW = 8;
+    private static final int BRANCH_SAMPLE_ROWS = 10;
+    private static final Pattern DIGIT_RUN = Pattern.compile("\\d+");
+    /** 每个文件最多保留的逐行 [WARN] 明细，其余按原因汇总成一条 */
+    static final int MAX_WARNINGS_PER_FILE = 20;
+    private static final Set<String> INVALID_BRANCH = Set.of(
+            "单位", "合计", "各项贷款", "总计", "制表", "说明", "小计"
+    );
+
+    private final String sourceFile;
+    private final BranchAliasIndex aliasIndex;
+    private final HeaderLayoutCache layoutCache;
+    private final Consumer<FactRow> sink;
+
+    private final List<SheetRow> buffered = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private final List<FactRepo.ImportReject> rejects = new ArrayList<>();
+    private final Map<String, Integer> omittedByReason = new LinkedHashMap<>();
+    private String bizDate;
+    private boolean layoutResolved;
+    private int dataStart;
+    private int branchCol;
+    private Map<Integer, String> scopeByCol = Map.of();
+    private Map<Integer, String> metricByCol = Map.of();
+    private int rowCount;
+    private int unknownCount;
+
+    ReportSheetParser(String sourceFile,
+                      String bizDate,
+                      BranchAliasIndex aliasIndex,
+                      HeaderLayoutCache layoutCache,
+                      Consumer<FactRow> sink) {
+        this.sourceFile = sourceFile;
+        this.bizDate = bizDate;
+        this.aliasIndex = aliasIndex;
+        this.layoutCache = layoutCache;
+        this.sink = sink;
+    }
+
+    void accept(SheetRow row) {
+        if (!layoutResolved) {
+            if (row.rowIndex() < LAYOUT_WINDOW_ROWS) {
+                buffered.add(row);
+                return;
+            }
+            resolveLayout();
+        }
+        if (bizDate != null) {
+            parseDataRow(row);
+        }
+    }
+
+    Result finish() {
+        if (!layoutResolved) {
+            resolveLayout();
+        }
+        if (bizDate == null) {
+            return new Result(null, 0, 0, warnings, List.of());
+        }
+        if (rowCount == 0 && unknownCount == 0) {
+            throw new IllegalArgumentException("Parsed result is empty. Please check header and branch column.");
+        }
+        if (!omittedByReason.isEmpty()) {
+            int omitted = unknownCount - MAX_WARNINGS_PER_FILE;
+            warnings.add("[WARN] file=" + sourceFile + " " + omitted + " more rejected rows omitted, byReason=" + omittedByReason);
+        }
+        return new Result(bizDate, rowCount, unknownCount, warnings, rejects);
+    }
+
+    private void resolveLayout() {
+        layoutResolved = true;
+        if (bizDate == null) {
+            bizDate = extractBizDateFromHeader();
+        }
+        if (bizDate == null) {
+            buffered.clear();
+            return;
+        }
+
+        int maxCol = 0;
+        for (SheetRow row : buffered) {
+            maxCol = Math.max(maxCol, row.width());
+        }
+
+        String fingerprint = layoutCache == null ? null : layoutFingerprint(maxCol);
+        HeaderLayoutCache.SheetLayout layout = fingerprint == null ? null : layoutCache.lookup(fingerprint);
+        if (layout == null) {
+            layout = detectLayout(maxCol);
+            // 网点列靠数据行采样得出时，结果依赖指纹之外的行，不缓存
+            if (fingerprint != null && branchColFromHeader(layout.headerDepth()) >= 0) {
+                layoutCache.remember(fingerprint, layout, sourceFile);
+            }
+        }
+        branchCol = layout.branchCol();
+        scopeByCol = layout.scopeByCol();
+        metricByCol = layout.metricByCol();
+        dataStart = layout.headerDepth() + 1;
+
+        for (SheetRow row : buffered) {
+            parseDataRow(row);
+        }
+        buffered.clear();
+    }
+
+    private HeaderLayoutCache.SheetLayout detectLayout(int maxCol) {
+        int headerDepth = detectHeaderDepth();
+        int detectedBranchCol = detectBranchCol(headerDepth);
+        Map<Integer, String> detectedScopes = detectScopeByColumn(maxCol);
+
+        Map<Integer, String> metrics = new HashMap<>();
+        for (int c = 0; c < maxCol; c++) {
+            StringBuilder header = new StringBuilder();
+            for (SheetRow row : buffered) {
+                if (row.rowIndex() > headerDepth) {
+                    break;
+                }
+                String txt = row.text(c);
+                if (!txt.isBlank()) {
+                    header.append(' ').append(txt.trim());
+                }
+            }
+            String metric = HeaderResolver.resolveMetric(header.toString());
+            if (metric != null) {
+                metrics.put(c, metric);
+            }
+        }
+        return new HeaderLayoutCache.SheetLayout(headerDepth, detectedBranchCol, detectedScopes, metrics);
+    }
+
+    /**
+     * 版式识别只读取前 HEADER_SCAN_LAST_ROW 行的文字和缓存窗口内的最大列数。
+     * 指纹覆盖这些输入，数字串统一替换为 0（日期、金额每天不同，但"是否含数字"保持不变）。
+     */
+    private String layoutFingerprint(int maxCol) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder().append(maxCol).append('\n');
+        for (SheetRow row : buffered) {
+            if (row.rowIndex() > HEADER_SCAN_LAST_ROW) {
+                break;
+            }
+            sb.append(row.rowIndex()).append(':').append(row.width());
+            for (int c = 0; c < row.width(); c++) {
+                sb.append('\t').append(DIGIT_RUN.matcher(row.text(c)).replaceAll("0"));
+            }
+            sb.append('\n');
+        }
+        return HexFormat.of().formatHex(digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void parseDataRow(SheetRow row) {
+        if (row.rowIndex() < dataStart) {
+            return;
+        }
+        String rawBranch = row.text(branchCol);
+        BranchNormalizeUtil.BranchNormalized normalized = BranchNormalizeUtil.normalize(rawBranch);
+        String displayBranch = normalized.displayCandidate();
+        String normKey = normalized.normKey();
+        if (displayBranch.isBlank()) {
+            return;
+        }
+        if (INVALID_BRANCH.stream().anyMatch(displayBranch::contains)) {
+            return;
+        }
+
+        int excelRowNo = row.rowIndex() + 1;
+        BranchAliasIndex.Resolution resolved = aliasIndex.resolve(rawBranch, normalized);
+        if (resolved.rejectReason() != null) {
+            unknownCount++;
+            String reason = resolved.rejectReason();
+            rejects.add(new FactRepo.ImportReject(sourceFile, excelRowNo, rawBranch, normKey, reason));
+            if (unknownCount <= MAX_WARNINGS_PER_FILE) {
+                warnings.add("[WARN] file=" + sourceFile + " row=" + excelRowNo + " raw='" + rawBranch + "' norm='" + normKey + "' reason=" + reason
+                        + (resolved.canonBranch() == null ? " skipped" : " fallback='" + resolved.canonBranch() + "'"));
+            } else {
+                omittedByReason.merge(reason, 1, Integer::sum);
+            }
+        }
+        if (resolved.canonBranch() == null || resolved.canonBranch().isBlank()) {
+            return;
+        }
+
+        for (Map.Entry<Integer, String> entry : metricByCol.entrySet()) {
+            int c = entry.getKey();
+            String scope = DateUtil.normalizeScope(scopeByCol.getOrDefault(c, "PHY"));
+            Double val = parseNumeric(row, c);
+            if (val == null) {
+                continue;
+            }
+            rowCount++;
+            sink.accept(new FactRow(bizDate, scope, resolved.canonBranch(), entry.getValue(), val, sourceFile, rawBranch, normKey));
+        }
+    }
+
+    private int detectHeaderDepth() {
+        int depth = 5;
+        for (SheetRow row : buffered) {
+            if (row.rowIndex() > HEADER_SCAN_LAST_ROW) {
+                break;
+            }
+            String line = rowToText(row).replace(" ", "");
+            if (line.contains("实体贷款")
+                    || line.contains("纯账面")
+                    || line.contains("还原")
+                    || line.contains("较上日")
+                    || line.contains("较上月")
+                    || line.contains("较年初")
+                    || line.contains("增量较同期")
+                    || line.contains("增幅")
+                    || line.contains("户数")
+                    || line.contains("余额")
+                    || line.contains("单位")) {
+                depth = row.rowIndex();
+            }
+        }
+        return depth;
+    }
+
+    private int detectBranchCol(int headerDepth) {
+        int headerCol = branchColFromHeader(headerDepth);
+        if (headerCol >= 0) {
+            return headerCol;
+        }
+        int maxCol = 0;
+        for (SheetRow row : buffered) {
+            if (row.rowIndex() <= headerDepth) {
+                maxCol = Math.max(maxCol, row.width());
+            }
+        }
+
+        int sampleStart = headerDepth + 1;
+        int sampleEnd = sampleStart + BRANCH_SAMPLE_ROWS;
+        int[] scores = new int[Math.max(maxCol, 2)];
+        for (SheetRow row : buffered) {
+            if (row.rowIndex() < sampleStart || row.rowIndex() > sampleEnd) {
+                continue;
+            }
+            for (int c = 0; c < scores.length; c++) {
+                String text = row.text(c).trim();
+                if (!text.isBlank() && looksLikeBranch(text)) {
+                    scores[c]++;
+                }
+            }
+        }
+
+        int bestCol = 0;
+        int bestScore = -1;
+        for (int c = 0; c < scores.length; c++) {
+            if (scores[c] > bestScore) {
+                bestScore = scores[c];
+                bestCol = c;
+            }
+        }
+        return bestCol;
+    }
+
+    /** 表头中显式标注的网点列；找不到返回 -1 */
+    private int branchColFromHeader(int headerDepth) {
+        for (SheetRow row : buffered) {
+            if (row.rowIndex() > headerDepth) {
+                break;
+            }
+            for (int c = 0; c < row.width(); c++) {
+                String t = row.text(c).trim();
+                if ("网点".equals(t) || t.contains("单位")) {
+                    return c;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean looksLikeBranch(String s) {
+        if (s.length() < 2) {
+            return false;
+        }
+        return s.contains("支行")
+                || s.contains("分理处")
+                || s.contains("营业部")
+                || s.contains("信用社")
+                || !s.matches(".*\\d.*");
+    }
+
+    private String rowToText(SheetRow row) {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < row.width(); c++) {
+            String t = row.text(c);
+            if (!t.isBlank()) {
+                sb.append(t).append(' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    private Map<Integer, String> detectScopeByColumn(int maxCol) {
+        Map<Integer, String> res = new HashMap<>();
+        int adjStart = maxCol / 2;
+
+        for (SheetRow row : buffered) {
+            if (row.rowIndex() > SCOPE_SCAN_LAST_ROW) {
+                break;
+            }
+            for (int c = 0; c < maxCol; c++) {
+                String t = row.text(c).replace(" ", "");
+                if (t.contains("还原") || t.contains("剥转") || t.contains("核销")) {
+                    adjStart = Math.min(adjStart, c);
+                }
+            }
+        }
+
+        for (int c = 0; c < maxCol; c++) {
+            res.put(c, c >= adjStart ? "ADJ" : "PHY");
+        }
+        return res;
+    }
+
+    private Double parseNumeric(SheetRow row, int col) {
+        Double numeric = row.numeric(col);
+        if (numeric != null) {
+            return numeric;
+        }
+        String raw = row.text(col);
+        if (raw.isBlank()) {
+            return null;
+        }
+        String s = raw.replace(",", "").replace("%", "").trim();
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private String extractBizDateFromHeader() {
+        for (SheetRow row : buffered) {
+            if (row.rowIndex() != 1) {
+                continue;
+            }
+            try {
+                String d = DateUtil.normalizeDate(row.text(1).trim());
+                if (d != null) {
+                    return d;
+                }
+            } catch (Exception ignored) {
+            }
+        }
+        for (SheetRow row : buffered) {
+            if (row.rowIndex() > SCOPE_SCAN_LAST_ROW) {
+                break;
+            }
+            for (int c = 0; c < row.width(); c++) {
+                String d = DateUtil.normalizeDate(row.text(c).trim());
+                if (d != null) {
+                    return d;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** rejects 由写入阶段在文件事务内批量落入 import_reject，解析线程不访问数据库 */
+    record Result(String bizDate,
+                  int rowCount,
+                  int unknownCount,
+                  List<String> warnings,
+                  List<FactRepo.ImportReject> rejects) {
+    }
+}
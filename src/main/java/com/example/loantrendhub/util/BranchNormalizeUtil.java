@@ -1,6 +1,15 @@
 package com.example.loantrendhub.util;
 
+/**
+ * 网点名称规范化：按字符单遍扫描，同时产出展示名与匹配键，不使用正则和链式 replace。
+ * 展示名：全角/不换行空格、制表与换行视为空白，零宽字符与 BOM 删除，长短破折号转为 '-'，
+ * 连续空白折叠成一个空格并去掉首尾；匹配键在展示名基础上再去掉空白、'-' 与半角/全角括号。
+ * 输入本身已规范时直接复用原字符串。
+ */
 public final class BranchNormalizeUtil {
+    private static final BranchNormalized EMPTY = new BranchNormalized("", "");
+    private static final int DROP = -1;
+
     private BranchNormalizeUtil() {
     }
 
@@ -8,34 +17,58 @@ public final class BranchNormalizeUtil {
     }
 
     public static BranchNormalized normalize(String raw) {
-        if (raw == null) {
-            return new BranchNormalized("", "");
-        }
-
-        String display = raw
-                .replace('\u3000', ' ')
-                .replace('\u00A0', ' ')
-                .replace("\uFEFF", "")
-                .replace("\r", " ")
-                .replace("\n", " ")
-                .replace("\t", " ")
-                .replace("\u200B", "")
-                .replace("\u200C", "")
-                .replace("\u200D", "")
-                .replace("\u2060", "")
-                .replace('\u2014', '-')
-                .replace('\u2013', '-')
-                .replaceAll("\\s+", " ")
-                .trim();
-
-        if (display.isEmpty()) {
-            return new BranchNormalized("", "");
-        }
-
-        String normKey = display
-                .replaceAll("[\\s\\-()\\uFF08\\uFF09]", "")
-                .trim();
+        if (raw == null || raw.isEmpty()) {
+            return EMPTY;
+        }
 
+        int len = raw.length();
+        char[] buf = new char[len];
+        int displayLen = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < len; i++) {
+            int mapped = mapChar(raw.charAt(i));
+            if (mapped == DROP) {
+                continue;
+            }
+            char c = (char) mapped;
+            if (c == ' ') {
+                pendingSpace = true;
+                continue;
+            }
+            if (displayLen == 0 && c < ' ') {
+                // 与 String.trim 一致：首部控制字符一并去掉
+                continue;
+            }
+            if (pendingSpace && displayLen > 0) {
+                buf[displayLen++] = ' ';
+            }
+            pendingSpace = false;
+            buf[displayLen++] = c;
+        }
+        while (displayLen > 0 && buf[displayLen - 1] <= ' ') {
+            displayLen--;
+        }
+        if (displayLen == 0) {
+            return EMPTY;
+        }
+        String display = sameAs(raw, buf, displayLen) ? raw : new String(buf, 0, displayLen);
+
+        // 匹配键就地压缩到同一缓冲区：写指针永远不超过读指针
+        int keyLen = 0;
+        for (int i = 0; i < displayLen; i++) {
+            char c = buf[i];
+            if (!isKeyDropped(c)) {
+                buf[keyLen++] = c;
+            }
+        }
+        int start = 0;
+        while (start < keyLen && buf[start] <= ' ') {
+            start++;
+        }
+        while (keyLen > start && buf[keyLen - 1] <= ' ') {
+            keyLen--;
+        }
+        String normKey = start == 0 && keyLen == displayLen ? display : new String(buf, start, keyLen - start);
         return new BranchNormalized(display, normKey);
     }
 
@@ -46,4 +79,30 @@ public final class BranchNormalizeUtil {
     public static String normalizeDisplay(String raw) {
         return normalize(raw).displayCandidate();
     }
+
+    /** 返回 DROP 表示删除该字符；空白类字符统一映射为 ' ' */
+    private static int mapChar(char c) {
+        return switch (c) {
+            case '\uFEFF', '\u200B', '\u200C', '\u200D', '\u2060' -> DROP;
+            case '\u3000', '\u00A0', '\t', '\n', '\r', '\u000B', '\f' -> ' ';
+            case '\u2014', '\u2013' -> '-';
+            default -> c;
+        };
+    }
+
+    private static boolean sameAs(String raw, char[] buf, int len) {
+        if (raw.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (raw.charAt(i) != buf[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isKeyDropped(char c) {
+        return c == ' ' || c == '-' || c == '(' || c == ')' || c == '\uFF08' || c == '\uFF09';
+    }
 }
@@ -0,0 +1,59 @@
+package com.example.loantrendhub.util.ExcelUtil;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+
+import java.util.Arrays;
+
+/** 一行已格式化的单元格快照：DOM 与 SAX 两种读取方式统一成这个形状交给解析器 */
+public final class SheetRow {
+    private final int rowIndex;
+    private final String[] texts;
+    private final double[] numbers;
+
+    SheetRow(int rowIndex, String[] texts, double[] numbers) {
+        this.rowIndex = rowIndex;
+        this.texts = texts;
+        this.numbers = numbers;
+    }
+
+    public static SheetRow of(Row row, DataFormatter formatter) {
+        int width = Math.max(0, row.getLastCellNum());
+        String[] texts = new String[width];
+        double[] numbers = new double[width];
+        Arrays.fill(numbers, Double.NaN);
+        for (int c = 0; c < width; c++) {
+            Cell cell = row.getCell(c);
+            texts[c] = formatter.formatCellValue(cell);
+            if (cell != null && cell.getCellType() == CellType.NUMERIC) {
+                numbers[c] = cell.getNumericCellValue();
+            }
+        }
+        return new SheetRow(row.getRowNum(), texts, numbers);
+    }
+
+    public int rowIndex() {
+        return rowIndex;
+    }
+
+    public int width() {
+        return texts.length;
+    }
+
+    public String text(int col) {
+        if (col < 0 || col >= texts.length || texts[col] == null) {
+            return "";
+        }
+        return texts[col];
+    }
+
+    /** 数值型单元格的原始值；非数值单元格返回 null，由调用方按文本解析 */
+    public Double numeric(int col) {
+        if (col < 0 || col >= numbers.length || Double.isNaN(numbers[col])) {
+            return null;
+        }
+        return numbers[col];
+    }
+}
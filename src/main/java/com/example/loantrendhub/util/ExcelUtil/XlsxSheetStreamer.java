@@ -0,0 +1,131 @@
+package com.example.loantrendhub.util.ExcelUtil;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * 基于 XSSF SAX 事件模型顺序读取第一个 sheet，不构建整本工作簿的 DOM。
+ * 内存中只保留当前行，逐行回调 {@link SheetRow}。
+ */
+public final class XlsxSheetStreamer {
+    private XlsxSheetStreamer() {
+    }
+
+    public static boolean isXlsx(Path path) {
+        try {
+            return FileMagic.valueOf(path.toFile()) == FileMagic.OOXML;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    public static void streamFirstSheet(Path path, Consumer<SheetRow> sink) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(path.toFile(), PackageAccess.READ)) {
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader reader = new XSSFReader(pkg);
+            StylesTable styles = reader.getStylesTable();
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            RawValueFormatter formatter = new RawValueFormatter();
+            RowCollector collector = new RowCollector(formatter, sink);
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                // formulasNotResults=true：与 DOM 路径（无公式求值器）保持一致，公式单元格得到公式文本而非缓存结果
+                parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, collector, formatter, true));
+                parser.parse(new InputSource(sheet));
+            }
+        }
+    }
+
+    /** 格式化数值单元格时顺带记录原始 double，避免按显示格式再反解析丢精度 */
+    private static final class RawValueFormatter extends DataFormatter {
+        private double lastRaw = Double.NaN;
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+            lastRaw = value;
+            return super.formatRawCellContents(value, formatIndex, formatString, use1904Windowing);
+        }
+
+        double takeRaw() {
+            double v = lastRaw;
+            lastRaw = Double.NaN;
+            return v;
+        }
+    }
+
+    private static final class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RawValueFormatter formatter;
+        private final Consumer<SheetRow> sink;
+        private String[] texts = new String[64];
+        private double[] numbers = new double[64];
+        private int width;
+        private int nextCol;
+
+        RowCollector(RawValueFormatter formatter, Consumer<SheetRow> sink) {
+            this.formatter = formatter;
+            this.sink = sink;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            Arrays.fill(texts, 0, width, null);
+            Arrays.fill(numbers, Double.NaN);
+            width = 0;
+            nextCol = 0;
+            formatter.takeRaw();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            sink.accept(new SheetRow(rowNum, Arrays.copyOf(texts, width), Arrays.copyOf(numbers, width)));
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int col = cellReference == null ? nextCol : columnIndex(cellReference);
+            nextCol = col + 1;
+            double raw = formatter.takeRaw();
+            if (col >= texts.length) {
+                int size = Math.max(texts.length * 2, col + 1);
+                texts = Arrays.copyOf(texts, size);
+                int old = numbers.length;
+                numbers = Arrays.copyOf(numbers, size);
+                Arrays.fill(numbers, old, size, Double.NaN);
+            }
+            texts[col] = formattedValue;
+            numbers[col] = raw;
+            width = Math.max(width, col + 1);
+        }
+
+        private static int columnIndex(String cellReference) {
+            int col = 0;
+            for (int i = 0; i < cellReference.length(); i++) {
+                char ch = cellReference.charAt(i);
+                if (ch < 'A' || ch > 'Z') {
+                    break;
+                }
+                col = col * 26 + (ch - 'A' + 1);
+            }
+            return col - 1;
+        }
+    }
+}
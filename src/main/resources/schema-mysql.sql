@@ -2,9 +2,11 @@ SET NAMES utf8mb4;
 
 CREATE TABLE IF NOT EXISTS branch_def (
     branch VARCHAR(100) PRIMARY KEY,
+    branch_id INT UNSIGNED NOT NULL AUTO_INCREMENT,
     sort_no INT NOT NULL,
     enabled TINYINT NOT NULL DEFAULT 1,
-    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_branch_def_id (branch_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 CREATE TABLE IF NOT EXISTS branch_alias (
@@ -17,26 +19,162 @@ CREATE TABLE IF NOT EXISTS branch_alias (
 
 CREATE TABLE IF NOT EXISTS metric_def (
     metric VARCHAR(100) PRIMARY KEY,
+    metric_id SMALLINT UNSIGNED NOT NULL AUTO_INCREMENT,
     name VARCHAR(255) NOT NULL,
     unit VARCHAR(32) NOT NULL,
     kind VARCHAR(16) NOT NULL,
-    base_metric VARCHAR(100)
+    base_metric VARCHAR(100),
+    UNIQUE KEY uk_metric_def_id (metric_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+-- 口径字典，事实表只存 scope_id
+CREATE TABLE IF NOT EXISTS scope_def (
+    scope_id TINYINT UNSIGNED PRIMARY KEY AUTO_INCREMENT,
+    scope VARCHAR(20) NOT NULL,
+    UNIQUE KEY uk_scope_def_scope (scope)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+INSERT INTO scope_def(scope_id, scope) VALUES (1, 'PHY'), (2, 'ADJ')
+ON DUPLICATE KEY UPDATE
+    scope = VALUES(scope);
+
+-- 按 biz_date 月份 RANGE 分区：分区列须出现在所有唯一键中，主键为 (id, biz_date)。
+-- 初始只有 p_hist 与 pmax，导入时由 FactPartitionRepo 按月拆分出 pYYYYMM；旧月份可整分区换出归档
 CREATE TABLE IF NOT EXISTS fact_metric_daily (
-    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    id BIGINT NOT NULL AUTO_INCREMENT,
     biz_date DATE NOT NULL,
-    scope VARCHAR(20) NOT NULL,
-    branch VARCHAR(100) NOT NULL,
-    metric VARCHAR(100) NOT NULL,
+    scope_id TINYINT UNSIGNED NOT NULL,
+    branch_id INT UNSIGNED NOT NULL,
+    metric_id SMALLINT UNSIGNED NOT NULL,
     val DECIMAL(20,4) NOT NULL,
     source_file VARCHAR(255),
     created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
-    UNIQUE KEY uk_biz_scope_branch_metric (biz_date, scope, branch, metric),
-    KEY idx_biz_date (biz_date),
-    KEY idx_scope (scope),
-    KEY idx_branch (branch),
-    KEY idx_metric (metric)
+    -- 按日期的写入/对比/热力图走唯一键；趋势查询走覆盖索引，无需回表；日期列表与日期范围走 (scope_id, biz_date)
+    UNIQUE KEY uk_biz_scope_branch_metric (biz_date, scope_id, branch_id, metric_id),
+    PRIMARY KEY (id, biz_date),
+    KEY idx_scope_metric_branch_date (scope_id, metric_id, branch_id, biz_date, val),
+    KEY idx_scope_date (scope_id, biz_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4
+PARTITION BY RANGE COLUMNS(biz_date) (
+    PARTITION p_hist VALUES LESS THAN ('2000-01-01'),
+    PARTITION pmax VALUES LESS THAN (MAXVALUE)
+);
+
+-- 宽表读模型：每个 (biz_date, scope, branch) 一行，导入的 12 个指标各占一列；
+-- 导入提交后由 ReadModelMaintainer 按业务日期从 fact_metric_daily 透视刷新，热力图与趋势查询优先读它
+CREATE TABLE IF NOT EXISTS fact_branch_daily (
+    biz_date DATE NOT NULL,
+    scope_id TINYINT UNSIGNED NOT NULL,
+    branch_id INT UNSIGNED NOT NULL,
+    cnt_total DECIMAL(20,4),
+    bal_total DECIMAL(20,4),
+    dod_cnt DECIMAL(20,4),
+    dod_bal DECIMAL(20,4),
+    mom_cnt DECIMAL(20,4),
+    mom_bal DECIMAL(20,4),
+    boy_cnt DECIMAL(20,4),
+    boy_bal DECIMAL(20,4),
+    y2m_cnt DECIMAL(20,4),
+    y2m_bal DECIMAL(20,4),
+    gr_cnt DECIMAL(20,4),
+    gr_bal DECIMAL(20,4),
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (scope_id, biz_date, branch_id),
+    KEY idx_scope_branch_date (scope_id, branch_id, biz_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 周/月/季/年汇总：grain 为 W/M/Q/Y，period_start 为周期首日（周从周一开始），period_end 为周期内最后一个有数的业务日期
+-- last_val 为期末值，平均值 = sum_val / day_count；导入提交后由 ReadModelMaintainer 只重算业务日期所在的四个周期
+CREATE TABLE IF NOT EXISTS fact_metric_rollup (
+    grain CHAR(1) NOT NULL,
+    scope_id TINYINT UNSIGNED NOT NULL,
+    metric_id SMALLINT UNSIGNED NOT NULL,
+    branch_id INT UNSIGNED NOT NULL,
+    period_start DATE NOT NULL,
+    period_end DATE NOT NULL,
+    last_val DECIMAL(20,4) NOT NULL,
+    sum_val DECIMAL(26,4) NOT NULL,
+    min_val DECIMAL(20,4) NOT NULL,
+    max_val DECIMAL(20,4) NOT NULL,
+    day_count INT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (grain, scope_id, metric_id, branch_id, period_start),
+    KEY idx_grain_scope_period (grain, scope_id, period_start)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 业务日历：每个口径已加载的业务日期及其上一业务日期，导入提交后由 ReadModelMaintainer 维护
+CREATE TABLE IF NOT EXISTS biz_calendar (
+    scope_id TINYINT UNSIGNED NOT NULL,
+    biz_date DATE NOT NULL,
+    prev_date DATE,
+    PRIMARY KEY (scope_id, biz_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 指标覆盖：每个 (口径, 业务日期) 至少有一个启用网点取到值的指标，F 日表 / D 派生
+CREATE TABLE IF NOT EXISTS metric_coverage (
+    biz_date DATE NOT NULL,
+    scope_id TINYINT UNSIGNED NOT NULL,
+    layer CHAR(1) NOT NULL,
+    metric_id SMALLINT UNSIGNED NOT NULL,
+    PRIMARY KEY (biz_date, scope_id, layer, metric_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 元数据汇总：导入提交后由 ReadModelMaintainer 维护，元数据接口不扫事实表
+CREATE TABLE IF NOT EXISTS scope_date_stat (
+    scope_id TINYINT UNSIGNED NOT NULL,
+    biz_date DATE NOT NULL,
+    row_count INT UNSIGNED NOT NULL,
+    branch_count INT UNSIGNED NOT NULL,
+    PRIMARY KEY (scope_id, biz_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS scope_branch (
+    scope_id TINYINT UNSIGNED NOT NULL,
+    branch_id INT UNSIGNED NOT NULL,
+    PRIMARY KEY (scope_id, branch_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS scope_stat (
+    scope_id TINYINT UNSIGNED NOT NULL PRIMARY KEY,
+    min_date DATE NOT NULL,
+    max_date DATE NOT NULL,
+    date_count INT UNSIGNED NOT NULL,
+    total_rows BIGINT UNSIGNED NOT NULL,
+    branch_count INT UNSIGNED NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- DELTA/RATE 派生指标：导入提交后由 ReadModelMaintainer 从基础指标推算落库，与窄表中报表自带的同名指标分开存放
+CREATE TABLE IF NOT EXISTS fact_metric_derived (
+    scope_id TINYINT UNSIGNED NOT NULL,
+    metric_id SMALLINT UNSIGNED NOT NULL,
+    biz_date DATE NOT NULL,
+    branch_id INT UNSIGNED NOT NULL,
+    val DECIMAL(20,4) NOT NULL,
+    PRIMARY KEY (scope_id, metric_id, biz_date, branch_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS fact_metric_stage (
+    load_id CHAR(36) NOT NULL,
+    seq INT NOT NULL,
+    biz_date DATE NOT NULL,
+    scope_id TINYINT UNSIGNED NOT NULL,
+    branch_id INT UNSIGNED NOT NULL,
+    metric_id SMALLINT UNSIGNED NOT NULL,
+    val DECIMAL(20,4) NOT NULL,
+    source_file VARCHAR(255),
+    -- 每个文件事务只按自己的 load_id 读删，主键让并发的 BULK 写入互不扫描、互不加锁
+    PRIMARY KEY (load_id, seq),
+    KEY idx_stage_key (load_id, biz_date, scope_id, branch_id, metric_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- 读模型待刷新的业务日期：与日表在同一文件事务内写入，提交后由 ReadModelMaintainer 串行刷新并删除；
+-- version 在同一日期再次写入时递增，刷新期间有新写入的日期不会被误删；new_rows 为有新增行（需重算元数据汇总）
+CREATE TABLE IF NOT EXISTS read_model_pending (
+    biz_date DATE PRIMARY KEY,
+    version INT NOT NULL DEFAULT 0,
+    new_rows TINYINT NOT NULL DEFAULT 0,
+    queued_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 CREATE TABLE IF NOT EXISTS import_reject (
@@ -52,6 +190,21 @@ CREATE TABLE IF NOT EXISTS import_reject (
     KEY idx_import_reject_created_at (created_at)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+CREATE TABLE IF NOT EXISTS ingest_ledger (
+    content_hash CHAR(64) PRIMARY KEY,
+    source_file VARCHAR(255),
+    biz_date DATE,
+    row_count INT NOT NULL DEFAULT 0,
+    saved_count INT NOT NULL DEFAULT 0,
+    reject_count INT NOT NULL DEFAULT 0,
+    file_size BIGINT NOT NULL DEFAULT 0,
+    alias_fingerprint CHAR(16) NULL,
+    superseded TINYINT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    KEY idx_ingest_ledger_biz_date (biz_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 INSERT INTO metric_def(metric, name, unit, kind, base_metric) VALUES
     ('CNT_TOTAL', CONVERT(0xE688B7E695B0 USING utf8mb4), CONVERT(0xE688B7 USING utf8mb4), 'LEVEL', NULL),
     ('BAL_TOTAL', CONVERT(0xE4BD99E9A29D USING utf8mb4), CONVERT(0xE4B887E58583 USING utf8mb4), 'LEVEL', NULL),